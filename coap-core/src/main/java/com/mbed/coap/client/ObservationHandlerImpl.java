@@ -25,9 +25,7 @@ import com.mbed.coap.packet.MessageType;
 import com.mbed.coap.server.CoapExchange;
 import com.mbed.coap.server.ObservationHandler;
 import com.mbed.coap.utils.Callback;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import com.mbed.coap.utils.TokenIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,13 +35,13 @@ import org.slf4j.LoggerFactory;
 class ObservationHandlerImpl implements ObservationHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationHandlerImpl.class.getName());
-    private final Map<Token, ObservationListenerContainer> observationMap = new HashMap<>();
+    private final TokenIndex<ObservationListenerContainer> observationMap = new TokenIndex<>();
 
     @Override
     public void callException(Exception ex) {
         if (ex instanceof ObservationTerminatedException) {
             ObservationTerminatedException termEx = (ObservationTerminatedException) ex;
-            ObservationListenerContainer obsListContainer = observationMap.get(new Token(termEx.getNotification().getToken()));
+            ObservationListenerContainer obsListContainer = observationMap.get(null, termEx.getNotification().getToken());
             if (obsListContainer != null) {
                 try {
                     obsListContainer.observationListener.onTermination(termEx.getNotification());
@@ -59,7 +57,7 @@ class ObservationHandlerImpl implements ObservationHandler {
 
     @Override
     public void call(CoapExchange t) {
-        final ObservationListenerContainer obsListContainer = observationMap.get(new Token(t.getRequest().getToken()));
+        final ObservationListenerContainer obsListContainer = observationMap.get(null, t.getRequest().getToken());
         if (obsListContainer != null) {
             try {
                 // TODO: BERT support + should be moved to CoapServerBlocks
@@ -114,44 +112,12 @@ class ObservationHandlerImpl implements ObservationHandler {
     }
 
     void putObservationListener(ObservationListener observationListener, byte[] token, String uriPath) {
-        observationMap.put(new Token(token), new ObservationListenerContainer(uriPath, observationListener));
+        observationMap.put(null, token, new ObservationListenerContainer(uriPath, observationListener));
     }
 
     @Override
     public boolean hasObservation(byte[] token) {
-        return observationMap.containsKey(new Token(token));
-    }
-
-    static class Token {
-
-        private final byte[] tokenVal;
-
-        public Token(byte[] tokenVal) {
-            this.tokenVal = tokenVal;
-        }
-
-        @Override
-        public int hashCode() {
-            int hash = 5;
-            hash = 37 * hash + Arrays.hashCode(this.tokenVal);
-            return hash;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            final Token other = (Token) obj;
-            if (!Arrays.equals(this.tokenVal, other.tokenVal)) {
-                return false;
-            }
-            return true;
-        }
-
+        return observationMap.containsKey(null, token);
     }
 
     private static class ObservationListenerContainer {
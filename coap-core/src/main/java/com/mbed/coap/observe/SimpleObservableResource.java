@@ -18,6 +18,7 @@ package com.mbed.coap.observe;
 import com.mbed.coap.exception.CoapCodeException;
 import com.mbed.coap.exception.CoapException;
 import com.mbed.coap.packet.Code;
+import com.mbed.coap.packet.ResponseTemplate;
 import com.mbed.coap.server.CoapExchange;
 import com.mbed.coap.server.CoapServer;
 
@@ -26,22 +27,22 @@ import com.mbed.coap.server.CoapServer;
  */
 public class SimpleObservableResource extends AbstractObservableResource {
 
-    private String body;
+    //body and its response template, published together
+    private volatile Content content;
 
     public SimpleObservableResource(String body, CoapServer coapServer) {
         super(coapServer);
-        this.body = body;
+        this.content = new Content(body);
     }
 
     public SimpleObservableResource(String body, CoapServer coapServer, boolean includeObservableFlag) {
         super(coapServer, includeObservableFlag);
-        this.body = body;
+        this.content = new Content(body);
     }
 
     @Override
     public void get(CoapExchange exchange) throws CoapCodeException {
-        exchange.setResponseBody(body);
-        exchange.setResponseCode(Code.C205_CONTENT);
+        content.template.applyTo(exchange.getResponse());
         exchange.sendResponse();
     }
 
@@ -52,17 +53,17 @@ public class SimpleObservableResource extends AbstractObservableResource {
      * @throws CoapException coap exception
      */
     public void setBody(String body) throws CoapException {
-        this.body = body;
+        this.content = new Content(body);
         notifyChange(body.getBytes(), null);
     }
 
     public void setBody(String body, NotificationDeliveryListener deliveryListener) throws CoapException {
-        this.body = body;
+        this.content = new Content(body);
         notifyChange(body.getBytes(), null, null, null, deliveryListener);
     }
 
     public String getBody() {
-        return body;
+        return content.body;
     }
 
     public void setConfirmNotification(boolean confirmNotification) {
@@ -76,4 +77,14 @@ public class SimpleObservableResource extends AbstractObservableResource {
     public int getObservationsAmount() {
         return this.obsRelations.size();
     }
+
+    private static class Content {
+        private final String body;
+        private final ResponseTemplate template;
+
+        Content(String body) {
+            this.body = body;
+            this.template = new ResponseTemplate(Code.C205_CONTENT, null, body);
+        }
+    }
 }
@@ -19,10 +19,14 @@ import static com.mbed.coap.packet.PacketUtils.*;
 import com.mbed.coap.exception.CoapMessageFormatException;
 import com.mbed.coap.exception.CoapUnknownOptionException;
 import com.mbed.coap.utils.HexArray;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -75,53 +79,62 @@ public class BasicHeaderOptions implements Serializable {
     private Integer uriPort;
     private Integer size1;
     private Map<Integer, RawOption> unrecognizedOptions;
+    //lazy mode: options in encoded form, decoded on first access
+    private transient volatile EncodedOptions encoded;
+    private transient long decodedOptions;
+    private transient boolean decoding;
 
-    protected boolean parseOption(int type, byte[] data, Code code) {
+    /**
+     * Decodes option, for options received as well as kept in encoded form.
+     *
+     * @return false if option is not recognized
+     */
+    protected boolean parseOption(int type, OptionValue value, Code code) {
         switch (type) {
             case CONTENT_FORMAT:
-                setContentFormat(DataConvertingUtility.readVariableULong(data).shortValue());
+                setContentFormat((short) value.toLong());
                 break;
             case MAX_AGE:
-                setMaxAge(DataConvertingUtility.readVariableULong(data));
+                setMaxAge(value.toLong());
                 break;
             case ETAG:
-                etag = DataConvertingUtility.extendOption(etag, data);
+                etag = DataConvertingUtility.extendOption(etag, value.toByteArray());
                 break;
             case URI_HOST:
-                setUriHost(DataConvertingUtility.decodeToString(data));
+                setUriHost(value.decodeToString());
                 break;
             case LOCATION_PATH:
-                locationPath = DataConvertingUtility.extendOption(locationPath, data, "/", true);
+                locationPath = DataConvertingUtility.extendOption(locationPath, value.decodeToString(), "/", true);
                 break;
             case LOCATION_QUERY:
-                locationQuery = DataConvertingUtility.extendOption(locationQuery, data, "&", false);
+                locationQuery = DataConvertingUtility.extendOption(locationQuery, value.decodeToString(), "&", false);
                 break;
             case URI_PATH:
-                uriPath = DataConvertingUtility.extendOption(uriPath, data, "/", true);
+                uriPath = DataConvertingUtility.extendOption(uriPath, value.decodeToString(), "/", true);
                 break;
             case URI_QUERY:
-                uriQuery = DataConvertingUtility.extendOption(uriQuery, data, "&", false);
+                uriQuery = DataConvertingUtility.extendOption(uriQuery, value.decodeToString(), "&", false);
                 break;
             case PROXY_URI:
-                proxyUri = DataConvertingUtility.decodeToString(data);
+                proxyUri = value.decodeToString();
                 break;
             case PROXY_SCHEME:
-                proxyScheme = DataConvertingUtility.decodeToString(data);
+                proxyScheme = value.decodeToString();
                 break;
             case ACCEPT:
-                accept = DataConvertingUtility.extendOption(accept, data);
+                accept = DataConvertingUtility.extendOption(accept, (short) value.toLong());
                 break;
             case IF_MATCH:
-                ifMatch = DataConvertingUtility.extendOption(ifMatch, data);
+                ifMatch = DataConvertingUtility.extendOption(ifMatch, value.toByteArray());
                 break;
             case IF_NON_MATCH:
                 ifNonMatch = Boolean.TRUE;
                 break;
             case URI_PORT:
-                uriPort = DataConvertingUtility.readVariableULong(data).intValue();
+                uriPort = (int) value.toLong();
                 break;
             case SIZE1:
-                size1 = DataConvertingUtility.readVariableULong(data).intValue();
+                size1 = (int) value.toLong();
                 break;
             default:
                 return false;
@@ -136,6 +149,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return byte array value or null if does not exist
      */
     public byte[] getCustomOption(Integer optNumber) {
+        materialize();
         if (!unrecognizedOptions.containsKey(optNumber)) {
             return null;
         }
@@ -149,6 +163,17 @@ public class BasicHeaderOptions implements Serializable {
      * @throws CoapUnknownOptionException when critical option is unknown
      */
     public void criticalOptTest() throws CoapUnknownOptionException {
+        EncodedOptions enc = encoded;
+        for (int i = 0; enc != null && i < enc.size(); i++) {
+            int optNumber = enc.optNumber(i);
+            if (isCritical(optNumber)) {
+                if (optNumber >= 64) {
+                    //all recognized options have lower number
+                    throw new CoapUnknownOptionException(optNumber);
+                }
+                decode(optNumber);
+            }
+        }
         if (unrecognizedOptions == null) {
             return;
         }
@@ -179,14 +204,19 @@ public class BasicHeaderOptions implements Serializable {
      * @return true if header type is a known, false for unknown header option
      */
     public final boolean put(int optionNumber, byte[] data, Code code) {
-        if (parseOption(optionNumber, data, code)) {
+        materialize();
+        return put0(optionNumber, OptionValue.of(data), code);
+    }
+
+    private boolean put0(int optionNumber, OptionValue value, Code code) {
+        if (parseOption(optionNumber, value, code)) {
             return true;
         }
         //unrecognizeg option header
         if (unrecognizedOptions == null) {
             unrecognizedOptions = new HashMap<>();
         }
-        unrecognizedOptions.put(optionNumber, new RawOption(optionNumber, data));
+        unrecognizedOptions.put(optionNumber, new RawOption(optionNumber, value.toByteArray()));
         return true;
     }
 
@@ -200,6 +230,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return sorted list
      */
     protected List<RawOption> getRawOptions() {
+        materialize();
         LinkedList<RawOption> list = new LinkedList<>();
 
         if (contentFormat != null) {
@@ -277,6 +308,7 @@ public class BasicHeaderOptions implements Serializable {
     }
 
     public void toString(StringBuilder sb, Code code) {
+        materialize();
         if (uriPath != null) {
             sb.append(" URI:").append(uriPath);
         }
@@ -337,6 +369,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return content format
      */
     public Short getContentFormat() {
+        decode(CONTENT_FORMAT);
         return contentFormat;
     }
 
@@ -346,6 +379,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param contentFormat content format
      */
     public void setContentFormat(Short contentFormat) {
+        materialize();
         this.contentFormat = contentFormat;
     }
 
@@ -365,6 +399,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return max-age in seconds or null if absent
      */
     public final Long getMaxAge() {
+        decode(MAX_AGE);
         return maxAge;
     }
 
@@ -372,6 +407,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return max-age in seconds
      */
     public final long getMaxAgeValue() {
+        decode(MAX_AGE);
         return maxAge != null ? maxAge : DEFAULT_MAX_AGE;
     }
 
@@ -383,6 +419,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param maxAge max-age to set in seconds
      */
     public final void setMaxAge(Long maxAge) {
+        materialize();
         this.maxAge = maxAge == null ? null : maxAge & 0xFFFFFFFFL;
     }
 
@@ -390,6 +427,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return first etag from array or null of array is empty
      */
     public final byte[] getEtag() {
+        decode(ETAG);
         return etag == null ? null : etag[0];
     }
 
@@ -397,6 +435,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param etag the etag to set
      */
     public final void setEtag(byte[] etag) {
+        materialize();
         if (etag == null || etag.length == 0) {
             this.etag = null;
             return;
@@ -408,10 +447,12 @@ public class BasicHeaderOptions implements Serializable {
     }
 
     public byte[][] getEtagArray() {
+        decode(ETAG);
         return etag;
     }
 
     public void setEtag(byte[][] etag) {
+        materialize();
         //test etag
         for (int i = 0; i < etag.length; i++) {
             if (etag[i].length == 0 || etag[i].length > 8) {
@@ -425,6 +466,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return the uriAuthority
      */
     public final String getUriAuthority() {
+        decode(URI_HOST);
         return uriHost;
     }
 
@@ -432,10 +474,12 @@ public class BasicHeaderOptions implements Serializable {
      * @param uriHost the uriHost to set
      */
     public final void setUriHost(String uriHost) {
+        materialize();
         this.uriHost = uriHost;
     }
 
     public String getUriHost() {
+        decode(URI_HOST);
         return uriHost;
     }
 
@@ -443,6 +487,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return the location
      */
     public final String getLocationPath() {
+        decode(LOCATION_PATH);
         return locationPath;
     }
 
@@ -450,6 +495,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param location the location to set
      */
     public final void setLocationPath(String location) {
+        materialize();
         if (location != null && (location.equals(".") || location.equals(".."))) {
             throw new IllegalArgumentException("Illegal Location-Path: " + location);
         }
@@ -464,6 +510,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return the uriPath
      */
     public final String getUriPath() {
+        decode(URI_PATH);
         return uriPath;
     }
 
@@ -473,6 +520,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param uriPath the uriPath to set
      */
     public final void setUriPath(String uriPath) {
+        materialize();
         if (uriPath != null && (uriPath.length() == 0 || uriPath.equals("/"))) {
             this.uriPath = null;
         } else {
@@ -487,6 +535,7 @@ public class BasicHeaderOptions implements Serializable {
      * @return the uriQuery
      */
     public String getUriQuery() {
+        decode(URI_QUERY);
         return uriQuery;
     }
 
@@ -494,6 +543,7 @@ public class BasicHeaderOptions implements Serializable {
      * @param uriQuery the uriQuery to set
      */
     public void setUriQuery(String uriQuery) {
+        materialize();
         if (uriQuery.isEmpty()) {
             this.uriQuery = null;
         } else {
@@ -502,6 +552,7 @@ public class BasicHeaderOptions implements Serializable {
     }
 
     public void setAccept(short[] accept) {
+        materialize();
         if (accept == null || accept.length == 0) {
             this.accept = null;
         } else {
@@ -510,58 +561,72 @@ public class BasicHeaderOptions implements Serializable {
     }
 
     public short[] getAccept() {
+        decode(ACCEPT);
         return accept;
     }
 
     public byte[][] getIfMatch() {
+        decode(IF_MATCH);
         return ifMatch;
     }
 
     public void setIfMatch(byte[][] ifMatch) {
+        materialize();
         this.ifMatch = ifMatch;
     }
 
     public Boolean getIfNonMatch() {
+        decode(IF_NON_MATCH);
         return ifNonMatch;
     }
 
     public void setIfNonMatch(Boolean ifNonMatch) {
+        materialize();
         this.ifNonMatch = ifNonMatch;
     }
 
     public String getLocationQuery() {
+        decode(LOCATION_QUERY);
         return locationQuery;
     }
 
     public void setLocationQuery(String locationQuery) {
+        materialize();
         this.locationQuery = locationQuery;
     }
 
     public void setProxyUri(String proxyUri) {
+        materialize();
         this.proxyUri = proxyUri;
     }
 
     public String getProxyUri() {
+        decode(PROXY_URI);
         return proxyUri;
     }
 
     public void setProxyScheme(String proxyScheme) {
+        materialize();
         this.proxyScheme = proxyScheme;
     }
 
     public String getProxyScheme() {
+        decode(PROXY_SCHEME);
         return proxyScheme;
     }
 
     public Integer getUriPort() {
+        decode(URI_PORT);
         return uriPort;
     }
 
     public void setUriPort(Integer uriPort) {
+        materialize();
         this.uriPort = uriPort;
     }
 
     public Map<String, String> getUriQueryMap() throws ParseException {
+        decode(URI_QUERY);
         if (uriQuery == null) {
             return Collections.emptyMap();
         }
@@ -569,19 +634,174 @@ public class BasicHeaderOptions implements Serializable {
     }
 
     public Integer getSize1() {
+        decode(SIZE1);
         return size1;
     }
 
     public void setSize1(Integer size) {
+        materialize();
         this.size1 = size;
     }
 
+    /**
+     * Decodes option with given number, if options are kept in encoded form and it was not decoded yet.
+     *
+     * @param optNumber option number, lower than 64
+     */
+    protected final void decode(int optNumber) {
+        if (encoded == null) {
+            return;
+        }
+        synchronized (this) {
+            EncodedOptions enc = encoded;
+            long optBit = 1L << optNumber;
+            if (enc == null || decoding || (decodedOptions & optBit) != 0) {
+                return;
+            }
+            decodedOptions |= optBit;
+            decoding = true;
+            try {
+                OptionValue value = new OptionValue();
+                for (int i = 0; i < enc.size(); i++) {
+                    int rawOptNumber = enc.optNumber(i);
+                    if (rawOptNumber == optNumber) {
+                        put0(optNumber, enc.value(i, value), enc.getCode());
+                    } else if (rawOptNumber > optNumber) {
+                        return;
+                    }
+                }
+            } finally {
+                decoding = false;
+            }
+        }
+    }
+
+    /**
+     * Decodes all options that are still in encoded form and drops encoded data, must be called before any
+     * modification.
+     */
+    protected final void materialize() {
+        if (encoded == null) {
+            return;
+        }
+        synchronized (this) {
+            EncodedOptions enc = encoded;
+            if (enc == null || decoding) {
+                return;
+            }
+            decoding = true;
+            try {
+                OptionValue value = new OptionValue();
+                for (int i = 0; i < enc.size(); i++) {
+                    int optNumber = enc.optNumber(i);
+                    if (optNumber >= 64 || (decodedOptions & (1L << optNumber)) == 0) {
+                        put0(optNumber, enc.value(i, value), enc.getCode());
+                    }
+                }
+            } finally {
+                decoding = false;
+                encoded = null;
+                decodedOptions = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns options in encoded form, or null if there are no options.
+     */
+    final synchronized EncodedOptions toEncoded(Code code) {
+        if (encoded != null) {
+            return encoded;
+        }
+        Serialization serialization = prepareSerialization();
+        if (serialization.size == 0) {
+            return null;
+        }
+        byte[] data = new byte[serialization.size];
+        serialize(ByteBuffer.wrap(data), serialization);
+        return EncodedOptions.parse(data, code);
+    }
+
+    /**
+     * Adds all options from encoded form. If there are no other options, encoded options are shared without
+     * decoding, otherwise they are merged with other options in encoded form. Falls back to decoding when the same
+     * option number is set on both sides, or for option numbers from 64.
+     */
+    final synchronized void putEncoded(EncodedOptions enc) {
+        if (encoded == null && !hasOptionFields()) {
+            encoded = enc;
+            decodedOptions = 0;
+            return;
+        }
+        materialize();
+        EncodedOptions own = toEncoded(enc.getCode());
+        long ownOptions = optionBits(own, enc);
+        if (ownOptions != 0) {
+            //merged at byte level, own options stay decoded
+            encoded = EncodedOptions.merge(own, enc, enc.getCode());
+            decodedOptions = ownOptions;
+            return;
+        }
+        OptionValue value = new OptionValue();
+        for (int i = 0; i < enc.size(); i++) {
+            put0(enc.optNumber(i), enc.value(i, value), enc.getCode());
+        }
+    }
+
+    /**
+     * Returns bit set of option numbers in own options, or 0 if they can not be kept decoded next to other
+     * encoded options: when option number is 64 or higher, or is also in other options.
+     */
+    private static long optionBits(EncodedOptions own, EncodedOptions other) {
+        if (own == null) {
+            return 0;
+        }
+        long bits = 0;
+        for (int i = 0; i < own.size(); i++) {
+            int optNumber = own.optNumber(i);
+            if (optNumber >= 64) {
+                return 0;
+            }
+            bits |= 1L << optNumber;
+        }
+        for (int i = 0; i < other.size(); i++) {
+            int optNumber = other.optNumber(i);
+            if (optNumber < 64 && (bits & (1L << optNumber)) != 0) {
+                return 0;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Tells if any option field is set, without building option list. Subclasses that keep options in own fields
+     * must override it.
+     */
+    protected boolean hasOptionFields() {
+        return contentFormat != null || maxAge != null || etag != null || uriHost != null || locationPath != null
+                || locationQuery != null || uriPath != null || uriQuery != null || accept != null || ifMatch != null
+                || ifNonMatch != null || proxyUri != null || proxyScheme != null || uriPort != null || size1 != null
+                || unrecognizedOptions != null && !unrecognizedOptions.isEmpty();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     void serialize(OutputStream os) throws IOException {
-        List<RawOption> list = getRawOptions();
-        Collections.sort(list);
+        serialize(os, prepareSerialization());
+    }
+
+    static void serialize(OutputStream os, Serialization serialization) throws IOException {
+        if (serialization.encoded != null) {
+            //not modified, write as received
+            os.write(serialization.encoded.getData());
+            return;
+        }
 
         int lastOptNumber = 0;
-        for (RawOption opt : list) {
+        for (RawOption opt : serialization.sortedOptions) {
             for (byte[] optValue : opt.optValues) {
                 int delta = opt.optNumber - lastOptNumber;
                 lastOptNumber = opt.optNumber;
@@ -633,6 +853,133 @@ public class BasicHeaderOptions implements Serializable {
         }
     }
 
+    /**
+     * Options prepared for serialization: encoded form, or sorted raw options, with exact serialized size. Lets
+     * serializer compute size and write options from the same list.
+     */
+    static final class Serialization {
+        private final EncodedOptions encoded;
+        private final List<RawOption> sortedOptions;
+        final int size;
+
+        private Serialization(EncodedOptions encoded, List<RawOption> sortedOptions, int size) {
+            this.encoded = encoded;
+            this.sortedOptions = sortedOptions;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Sorts options and computes their serialized size, once per serialization.
+     */
+    Serialization prepareSerialization() {
+        EncodedOptions enc = encoded;
+        if (enc != null) {
+            return new Serialization(enc, null, enc.getData().length);
+        }
+        List<RawOption> list = getRawOptions();
+        Collections.sort(list);
+
+        int size = 0;
+        int lastOptNumber = 0;
+        for (RawOption opt : list) {
+            for (byte[] optValue : opt.optValues) {
+                size += optionHeaderSize(opt.optNumber - lastOptNumber, optValue.length) + optValue.length;
+                lastOptNumber = opt.optNumber;
+            }
+        }
+        return new Serialization(null, list, size);
+    }
+
+    /**
+     * Returns exact size of serialized options.
+     */
+    int encodedSize() {
+        return prepareSerialization().size;
+    }
+
+    /**
+     * Serializes options directly into buffer.
+     *
+     * @throws java.nio.BufferOverflowException if buffer has not enough space
+     */
+    void serialize(ByteBuffer buffer) {
+        serialize(buffer, prepareSerialization());
+    }
+
+    static void serialize(ByteBuffer buffer, Serialization serialization) {
+        if (serialization.encoded != null) {
+            //not modified, write as received
+            buffer.put(serialization.encoded.getData());
+            return;
+        }
+
+        int lastOptNumber = 0;
+        for (RawOption opt : serialization.sortedOptions) {
+            for (byte[] optValue : opt.optValues) {
+                int delta = opt.optNumber - lastOptNumber;
+                lastOptNumber = opt.optNumber;
+                if (delta > 0xFFFF + 269) {
+                    throw new IllegalArgumentException("Delta with size: " + delta + " is not supported [option number: " + opt.optNumber + "]");
+                }
+                int len = optValue.length;
+                if (len > 0xFFFF + 269) {
+                    throw new IllegalArgumentException("Header size: " + len + " is not supported [option number: " + opt.optNumber + "]");
+                }
+                writeOptionHeader(delta, len, buffer);
+                buffer.put(optValue);
+            }
+        }
+    }
+
+    static int optionHeaderSize(int delta, int len) {
+        int size = 1;
+        if (delta >= 269) {
+            size += 2;
+        } else if (delta > 12) {
+            size += 1;
+        }
+        if (len >= 269) {
+            size += 2;
+        } else if (len > 12) {
+            size += 1;
+        }
+        return size;
+    }
+
+    static void writeOptionHeader(int delta, int len, ByteBuffer buffer) {
+        //first byte
+        int tempByte;
+        if (delta <= 12) {
+            tempByte = delta << 4;
+        } else if (delta < 269) {
+            tempByte = 13 << 4;
+        } else {
+            tempByte = 14 << 4;
+        }
+        if (len <= 12) {
+            tempByte |= len;
+        } else if (len < 269) {
+            tempByte |= 13;
+        } else {
+            tempByte |= 14;
+        }
+        buffer.put((byte) tempByte);
+
+        //extended option delta
+        if (delta > 12 && delta < 269) {
+            buffer.put((byte) (delta - 13));
+        } else if (delta >= 269) {
+            buffer.putShort((short) (delta - 269));
+        }
+        //extended len
+        if (len > 12 && len < 269) {
+            buffer.put((byte) (len - 13));
+        } else if (len >= 269) {
+            buffer.putShort((short) (len - 269));
+        }
+    }
+
     boolean deserialize(InputStream inputStream, Code code) throws IOException, CoapMessageFormatException {
         try {
             return deserialize(inputStream, code, true, Optional.empty()) != 0;
@@ -642,6 +989,69 @@ public class BasicHeaderOptions implements Serializable {
         }
     }
 
+    /**
+     * De-serializes CoAP header options directly from buffer. Returns true if payload marker was found and
+     * payload follows. In lazy mode, options are only indexed and kept in encoded form, each option is decoded when
+     * it is accessed for the first time.
+     *
+     * @throws java.nio.BufferUnderflowException if buffer ends in the middle of an option
+     */
+    boolean deserialize(ByteBuffer buffer, Code code, boolean lazy) throws CoapMessageFormatException {
+        int start = buffer.position();
+        int end = buffer.limit();
+        boolean hasPayload = false;
+        int headerOptNum = 0;
+        EncodedOptions encodedOptions = lazy ? new EncodedOptions(code) : null;
+        while (buffer.hasRemaining()) {
+            int hdrByte = buffer.get() & 0xFF;
+
+            if (hdrByte == CoapPacket.PAYLOAD_MARKER) {
+                end = buffer.position() - 1;
+                hasPayload = buffer.hasRemaining();
+                break;
+            }
+            int delta = hdrByte >> 4;
+            int len = 0xF & hdrByte;
+
+            if (delta == 15 || len == 15) {
+                throw new CoapMessageFormatException("Unexpected delta or len value in option header after optNum: " + headerOptNum);
+            }
+            if (delta == 13) {
+                delta += buffer.get() & 0xFF;
+            } else if (delta == 14) {
+                delta = (buffer.getShort() & 0xFFFF) + 269;
+            }
+            if (len == 13) {
+                len += buffer.get() & 0xFF;
+            } else if (len == 14) {
+                len = (buffer.getShort() & 0xFFFF) + 269;
+            }
+            headerOptNum += delta;
+            if (lazy) {
+                if (len > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                encodedOptions.add(headerOptNum, buffer.position() - start, len);
+                buffer.position(buffer.position() + len);
+            } else {
+                byte[] headerOptData = new byte[len];
+                buffer.get(headerOptData);
+                put(headerOptNum, headerOptData, code);
+            }
+        }
+
+        if (lazy && encodedOptions.size() > 0) {
+            int position = buffer.position();
+            byte[] data = new byte[end - start];
+            buffer.position(start);
+            buffer.get(data);
+            buffer.position(position);
+            encodedOptions.setData(data);
+            encoded = encodedOptions;
+        }
+        return hasPayload;
+    }
+
     /**
      * De-serializes CoAP header options. Returns left stream/data length if PayloadMarker was
      * found or zero if no payload present.
@@ -716,6 +1126,7 @@ public class BasicHeaderOptions implements Serializable {
 
     @Override
     public int hashCode() {
+        materialize();
         int hash = 7;
         hash = 41 * hash + (this.contentFormat != null ? this.contentFormat.hashCode() : 0);
         hash = 41 * hash + (this.maxAge != null ? this.maxAge.hashCode() : 0);
@@ -745,6 +1156,8 @@ public class BasicHeaderOptions implements Serializable {
             return false;
         }
         final BasicHeaderOptions other = (BasicHeaderOptions) obj;
+        materialize();
+        other.materialize();
         if (this.contentFormat != other.contentFormat && (this.contentFormat == null || !this.contentFormat.equals(other.contentFormat))) {
             return false;
         }
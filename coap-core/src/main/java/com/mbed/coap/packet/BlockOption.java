@@ -35,7 +35,10 @@ public final class BlockOption implements Serializable {
     }
 
     public BlockOption(byte[] raw) {
-        int bl = DataConvertingUtility.readVariableULong(raw).intValue();
+        this(DataConvertingUtility.readVariableULong(raw).intValue());
+    }
+
+    BlockOption(int bl) {
         blockNr = bl >> 4;
         more = (bl & 0x8) != 0;
         byte szx = (byte) (bl & 0x07);
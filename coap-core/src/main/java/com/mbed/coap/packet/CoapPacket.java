@@ -16,6 +16,7 @@
 package com.mbed.coap.packet;
 
 import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.exception.CoapMessageFormatException;
 import com.mbed.coap.utils.HexArray;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -24,6 +25,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -38,7 +41,7 @@ public class CoapPacket implements Serializable {
     public static final byte[] DEFAULT_TOKEN = new byte[]{};
     private byte version = 1;
     private MessageType messageType = MessageType.Confirmable;
-    private int messageId;
+    private volatile int messageId;
     private Code code;
     private Method method;
     private byte[] payload = new byte[0];
@@ -99,6 +102,21 @@ public class CoapPacket implements Serializable {
         return cp;
     }
 
+    /**
+     * Reads CoAP packet from buffer, from its position to limit, without intermediate streams. Buffer's position is
+     * moved to its limit. Header options are decoded lazily, when accessed for the first time.
+     *
+     * @param remoteAddress remote address
+     * @param buffer data
+     * @return CoapPacket instance
+     * @throws CoapException if can not parse
+     */
+    public static CoapPacket read(InetSocketAddress remoteAddress, ByteBuffer buffer) throws CoapException {
+        CoapPacket cp = new CoapPacket(remoteAddress);
+        cp.readFrom(buffer);
+        return cp;
+    }
+
     /**
      * Reads CoAP packet from raw data.
      *
@@ -155,6 +173,9 @@ public class CoapPacket implements Serializable {
             messageType = MessageType.valueOf((tempByte >> 4) & 0x3);
 
             byte tokenLen = (byte) (tempByte & 0x0F);
+            if (tokenLen > 8) {
+                throw new CoapMessageFormatException("Token length invalid, should be in range 0..8");
+            }
 
             tempByte = inputStream.read();         //second byte
             if (tempByte >= 1 && tempByte <= 10) {
@@ -187,6 +208,51 @@ public class CoapPacket implements Serializable {
         }
     }
 
+    private void readFrom(ByteBuffer buffer) throws CoapException {
+        try {
+            int tempByte = buffer.get() & 0xFF;      //first byte
+
+            version = (byte) ((tempByte & 0xC0) >> 6);
+            if (version != 1) {
+                throw new CoapException("CoAP version %s not supported", version);
+            }
+
+            messageType = MessageType.valueOf((tempByte >> 4) & 0x3);
+
+            int tokenLen = tempByte & 0x0F;
+            if (tokenLen > 8) {
+                throw new CoapMessageFormatException("Token length invalid, should be in range 0..8");
+            }
+
+            tempByte = buffer.get() & 0xFF;         //second byte
+            if (tempByte >= 1 && tempByte <= 10) {
+                //method code
+                method = Method.valueOf(tempByte);
+            } else {
+                code = Code.valueOf(tempByte);
+            }
+
+            messageId = buffer.getShort() & 0xFFFF;
+
+            //token
+            token = new byte[tokenLen];
+            buffer.get(token);
+
+            //read headers
+            options = new HeaderOptions();
+            boolean hasPayloadMarker = options.deserialize(buffer, code, true);
+
+            //read payload
+            if (hasPayloadMarker) {
+                this.payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+            }
+
+        } catch (BufferUnderflowException ex) {
+            throw new CoapMessageFormatException("Unexpected end of data");
+        }
+    }
+
     /**
      * Returns CoAP header options instance.
      *
@@ -196,6 +262,29 @@ public class CoapPacket implements Serializable {
         return options;
     }
 
+    /**
+     * Creates copy of this packet with header options in compact, encoded form, which reduces retained heap when
+     * packet is kept for longer time. This packet is not modified, payload array is shared. Options of the copy are
+     * decoded back when accessed.
+     *
+     * @return compacted copy
+     */
+    public CoapPacket compactCopy() {
+        CoapPacket copy = new CoapPacket(remoteAddress);
+        copy.version = version;
+        copy.messageType = messageType;
+        copy.messageId = messageId;
+        copy.code = code;
+        copy.method = method;
+        copy.payload = payload;
+        copy.token = token;
+        EncodedOptions encodedOptions = options.toEncoded(code);
+        if (encodedOptions != null) {
+            copy.options.putEncoded(encodedOptions);
+        }
+        return copy;
+    }
+
     public void setHeaderOptions(HeaderOptions options) {
         this.options = options;
     }
@@ -299,7 +388,7 @@ public class CoapPacket implements Serializable {
      *
      * @param messageID message ID
      */
-    public synchronized void setMessageId(int messageID) {
+    public void setMessageId(int messageID) {
         if (messageID > 65535 || messageID < 0) {
             throw new IllegalArgumentException("invalid messageid, should be within range 0-65535: " + messageID);
         }
@@ -312,7 +401,7 @@ public class CoapPacket implements Serializable {
      *
      * @return message ID
      */
-    public synchronized int getMessageId() {
+    public int getMessageId() {
         return messageId;
     }
 
@@ -407,6 +496,11 @@ public class CoapPacket implements Serializable {
     }
 
     static Code writeCode(OutputStream os, CoapPacket coapPacket) throws IOException {
+        os.write(codeValue(coapPacket));
+        return coapPacket.getCode();
+    }
+
+    static int codeValue(CoapPacket coapPacket) {
         Code code = coapPacket.getCode();
         Method method = coapPacket.getMethod();
 
@@ -414,13 +508,12 @@ public class CoapPacket implements Serializable {
             throw new IllegalStateException("Forbidden operation: 'code' and 'method' use at a same time");
         }
         if (code != null) {
-            os.write(code.getCoapCode());
+            return code.getCoapCode();
         } else if (method != null) {
-            os.write(method.getCode());
+            return method.getCode();
         } else { //no code or method used
-            os.write(0);
+            return 0;
         }
-        return code;
     }
 
     /**
@@ -430,9 +523,62 @@ public class CoapPacket implements Serializable {
      * @throws CoapException serialization exception
      */
     public byte[] toByteArray() {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        writeTo(outputStream);
-        return outputStream.toByteArray();
+        BasicHeaderOptions.Serialization serializedOptions = options.prepareSerialization();
+        byte[] data = new byte[encodedSize(serializedOptions)];
+        writeTo(ByteBuffer.wrap(data), serializedOptions);
+        return data;
+    }
+
+    /**
+     * Returns exact size of serialized CoAP packet.
+     *
+     * @return size in bytes
+     */
+    public int encodedSize() {
+        return encodedSize(options.prepareSerialization());
+    }
+
+    private int encodedSize(BasicHeaderOptions.Serialization serializedOptions) {
+        int size = 4 + token.length + serializedOptions.size;
+        if (payload != null && payload.length > 0) {
+            size += 1 + payload.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes serialized CoAP packet directly into buffer, starting at its position. Buffer must have at least
+     * {@link #encodedSize()} bytes remaining.
+     *
+     * @param buffer buffer
+     * @throws java.nio.BufferOverflowException if buffer has not enough space
+     */
+    public void writeTo(ByteBuffer buffer) {
+        writeTo(buffer, options.prepareSerialization());
+    }
+
+    private void writeTo(ByteBuffer buffer, BasicHeaderOptions.Serialization serializedOptions) {
+        int tempByte;
+
+        tempByte = (0x3 & version) << 6;            //Version
+        tempByte |= (0x3 & messageType.ordinal()) << 4;  //Transaction Message Type
+        tempByte |= token.length & 0xF;                  //Token length
+
+        buffer.put((byte) tempByte);
+        buffer.put((byte) codeValue(this));
+        buffer.putShort((short) messageId);
+
+        //token
+        buffer.put(token);
+
+        // options
+        BasicHeaderOptions.serialize(buffer, serializedOptions);
+
+        //payload
+        if (payload != null && payload.length > 0) {
+            buffer.put((byte) PAYLOAD_MARKER);
+            buffer.put(payload);
+        }
     }
 
     /**
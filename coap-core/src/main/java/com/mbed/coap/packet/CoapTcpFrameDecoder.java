@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.exception.CoapMessageFormatException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder of CoAP over TCP frames (RFC 8323) from a stream of received data, one instance per
+ * connection. Frame size is taken from its header as soon as header is received, so that incomplete frame is not
+ * parsed again with every read, and frame is decoded only when complete. Not thread-safe.
+ */
+public final class CoapTcpFrameDecoder {
+
+    private final int maxFrameSize;
+    private int frameSize = -1;
+    private int bytesNeeded = 1;
+
+    public CoapTcpFrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Decodes next frame from buffer, starting at its position. When frame is decoded, buffer's position is moved
+     * to its end, otherwise position is not changed.
+     *
+     * @param remoteAddress remote address
+     * @param buffer received data
+     * @return decoded packet or null if more data is needed, see {@link #getBytesNeeded()}
+     * @throws CoapMessageFormatException if frame is larger than maximum frame size
+     * @throws CoapException if frame can not be parsed
+     */
+    public CoapPacket decode(InetSocketAddress remoteAddress, ByteBuffer buffer) throws CoapException {
+        if (frameSize < 0) {
+            int size = CoapTcpPacketSerializer.frameSize(buffer);
+            if (size < 0) {
+                bytesNeeded = -size;
+                return null;
+            }
+            if (size > maxFrameSize) {
+                throw new CoapMessageFormatException("Frame too large: " + size);
+            }
+            frameSize = size;
+        }
+
+        if (buffer.remaining() < frameSize) {
+            bytesNeeded = frameSize - buffer.remaining();
+            return null;
+        }
+        frameSize = -1;
+        bytesNeeded = 1;
+        return CoapTcpPacketSerializer.read(remoteAddress, buffer);
+    }
+
+    /**
+     * @return minimum number of bytes needed to progress decoding of current frame
+     */
+    public int getBytesNeeded() {
+        return bytesNeeded;
+    }
+}
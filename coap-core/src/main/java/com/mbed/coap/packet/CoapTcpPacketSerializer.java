@@ -18,11 +18,12 @@ package com.mbed.coap.packet;
 import static com.mbed.coap.packet.PacketUtils.*;
 import com.mbed.coap.exception.CoapException;
 import com.mbed.coap.exception.CoapMessageFormatException;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
 /**
@@ -47,6 +48,7 @@ public final class CoapTcpPacketSerializer {
     /**
      * Returns CoapPacket only if able to deserialize whole packet. Otherwise returns empty Optional.
      * Client is responsible to restore stream position if deserialization failed.
+     * Non-blocking transports should use {@link CoapTcpFrameDecoder}, which does not parse incomplete frames.
      *
      * @param remoteAddress - remote addres from which packet is received
      * @param inputStream - stream to read data
@@ -63,6 +65,103 @@ public final class CoapTcpPacketSerializer {
         }
     }
 
+    /**
+     * Peeks at frame header (Len, TKL and extended length), starting at buffer's position, to find size of whole
+     * frame. Buffer's position is not changed.
+     *
+     * @param buffer buffer with received data
+     * @return size of whole frame in bytes, or negated number of missing bytes if header is not complete
+     * @throws CoapMessageFormatException if frame length exceeds maximum int value
+     */
+    public static int frameSize(ByteBuffer buffer) throws CoapMessageFormatException {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int pos = buffer.position();
+        int len1AndTKL = buffer.get(pos) & 0xFF;
+        int len1 = len1AndTKL >> 4;
+        int extLenSize = extendedPacketLengthSize(len1);
+        if (buffer.remaining() < 1 + extLenSize) {
+            return buffer.remaining() - 1 - extLenSize;
+        }
+
+        long len;
+        switch (len1) {
+            case 15:
+                len = (buffer.getInt(pos + 1) & 0xFFFFFFFFL) + 65805;
+                break;
+            case 14:
+                len = (buffer.getShort(pos + 1) & 0xFFFF) + 269;
+                break;
+            case 13:
+                len = (buffer.get(pos + 1) & 0xFF) + 13;
+                break;
+            default:
+                len = len1;
+        }
+
+        long frameSize = 2 + extLenSize + (len1AndTKL & 0x0F) + len;
+        if (frameSize > Integer.MAX_VALUE) {
+            throw new CoapMessageFormatException("Frame too large: " + frameSize);
+        }
+        return (int) frameSize;
+    }
+
+    /**
+     * Reads one complete CoAP over TCP frame from buffer, starting at its position, in a single pass. Buffer's
+     * position is moved to the end of the frame. Header options are decoded lazily, when accessed for the first
+     * time.
+     *
+     * @param remoteAddress remote address
+     * @param buffer buffer with whole frame, see {@link #frameSize(ByteBuffer)}
+     * @return CoapPacket instance
+     * @throws CoapException if frame is not complete or can not be parsed
+     */
+    public static CoapPacket read(InetSocketAddress remoteAddress, ByteBuffer buffer) throws CoapException {
+        int frameSize = frameSize(buffer);
+        if (frameSize < 0 || frameSize > buffer.remaining()) {
+            throw new CoapMessageFormatException("Incomplete frame");
+        }
+        int frameEnd = buffer.position() + frameSize;
+        int limit = buffer.limit();
+
+        try {
+            int len1AndTKL = buffer.get() & 0xFF;
+            buffer.position(buffer.position() + extendedPacketLengthSize(len1AndTKL >> 4));
+            int codeOrMethod = buffer.get() & 0xFF;
+
+            CoapPacket pkt = new CoapPacket(remoteAddress);
+            parseAndSetCodeOrMethod(pkt, codeOrMethod);
+            pkt.setMessageType(null); //override default
+
+            int tokenLength = len1AndTKL & 0x0F;
+            if (tokenLength > 8) {
+                throw new CoapMessageFormatException("Token length invalid, should be in range 0..8");
+            }
+            if (tokenLength > 0) {
+                byte[] token = new byte[tokenLength];
+                buffer.get(token);
+                pkt.setToken(token);
+            }
+
+            buffer.limit(frameEnd);
+            HeaderOptions options = new HeaderOptions();
+            boolean hasPayload = options.deserialize(buffer, pkt.getCode(), true);
+            pkt.setHeaderOptions(options);
+            if (hasPayload) {
+                byte[] payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+                pkt.setPayload(payload);
+            }
+            return pkt;
+        } catch (BufferUnderflowException ex) {
+            throw new CoapMessageFormatException("Unexpected end of frame");
+        } finally {
+            buffer.limit(limit);
+            buffer.position(frameEnd);
+        }
+    }
+
     private static CoapPacket deserialize(InetSocketAddress remoteAddress, InputStream inputStream, boolean orBlock) throws IOException, CoapException {
         StrictInputStream is = new StrictInputStream(inputStream);
         CoapPacketParsingContext pktContext = deserializeHeader(remoteAddress, is, orBlock);
@@ -162,11 +261,11 @@ public final class CoapTcpPacketSerializer {
      * @throws CoapException exception if coap packet can not be serialized
      */
     public static byte[] serialize(CoapPacket coapPacket) throws CoapException, IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-        writeTo(os, coapPacket);
-
-        return os.toByteArray();
+        BasicHeaderOptions.Serialization serializedOptions = coapPacket.headers().prepareSerialization();
+        int packetLength = packetLength(coapPacket, serializedOptions);
+        byte[] data = new byte[frameSize(coapPacket, packetLength)];
+        writeTo(ByteBuffer.wrap(data), coapPacket, serializedOptions, packetLength);
+        return data;
     }
 
 
@@ -213,27 +312,11 @@ public final class CoapTcpPacketSerializer {
      * @throws CoapException serialization exception
      */
     public static void writeTo(OutputStream os, CoapPacket coapPacket) throws CoapException, IOException {
+        int tokenLen = tokenLength(coapPacket);
 
-        // we have to serialize options to byteArray to claculate their size
-        // because options size included into packet length field together with
-        // payload marker and payload size
-        ByteArrayOutputStream headerOptionsStream = new ByteArrayOutputStream();
-        coapPacket.headers().serialize(headerOptionsStream);
-
-        // token length
-        int tokenLen = coapPacket.getToken().length;
-
-        if (tokenLen > 8) {
-            throw new CoapException("Token length should not exceed 8 bytes");
-        }
-
-        // packet length or extended length code
-        int optionsLength = headerOptionsStream.size();
-        int payloadLen = coapPacket.getPayload().length;
-        int payloadMarkerLen = payloadLen > 0 ? 1 : 0;
-
-        int packetLength = optionsLength + payloadMarkerLen + payloadLen;
-
+        // options size is included into packet length field together with payload marker and payload size
+        BasicHeaderOptions.Serialization serializedOptions = coapPacket.headers().prepareSerialization();
+        int packetLength = packetLength(coapPacket, serializedOptions);
         int packetLen1Code = packetLenCode(packetLength);
 
         //first header byte
@@ -249,7 +332,7 @@ public final class CoapTcpPacketSerializer {
         os.write(coapPacket.getToken());
 
         //Options
-        os.write(headerOptionsStream.toByteArray());
+        BasicHeaderOptions.serialize(os, serializedOptions);
 
         //Payload
         if (coapPacket.getPayload() != null && coapPacket.getPayload().length > 0) {
@@ -259,5 +342,99 @@ public final class CoapTcpPacketSerializer {
 
     }
 
+    /**
+     * Returns exact size of serialized CoAP over TCP message.
+     *
+     * @param coapPacket CoAP packet object
+     * @return size in bytes
+     * @throws CoapException serialization exception
+     */
+    public static int encodedSize(CoapPacket coapPacket) throws CoapException {
+        return frameSize(coapPacket, packetLength(coapPacket, coapPacket.headers().prepareSerialization()));
+    }
+
+    private static int frameSize(CoapPacket coapPacket, int packetLength) throws CoapException {
+        return 2 + extendedPacketLengthSize(packetLenCode(packetLength)) + tokenLength(coapPacket) + packetLength;
+    }
+
+    /**
+     * Writes serialized CoAP over TCP message directly into buffer, starting at its position.
+     *
+     * @param buffer buffer with at least {@link #encodedSize(CoapPacket)} bytes remaining
+     * @param coapPacket CoAP packet object
+     * @throws CoapException serialization exception
+     * @throws java.nio.BufferOverflowException if buffer has not enough space
+     */
+    public static void writeTo(ByteBuffer buffer, CoapPacket coapPacket) throws CoapException {
+        BasicHeaderOptions.Serialization serializedOptions = coapPacket.headers().prepareSerialization();
+        writeTo(buffer, coapPacket, serializedOptions, packetLength(coapPacket, serializedOptions));
+    }
+
+    private static void writeTo(ByteBuffer buffer, CoapPacket coapPacket, BasicHeaderOptions.Serialization serializedOptions, int packetLength) throws CoapException {
+        int tokenLen = tokenLength(coapPacket);
+        int packetLen1Code = packetLenCode(packetLength);
+
+        //first header byte
+        buffer.put((byte) ((packetLen1Code << 4) | tokenLen));
+
+        //Extended Length
+        switch (packetLen1Code) {
+            case 13:
+                buffer.put((byte) (packetLength - 13));
+                break;
+            case 14:
+                buffer.putShort((short) (packetLength - 269));
+                break;
+            case 15:
+                buffer.putInt(packetLength - 65805);
+                break;
+            default:
+                break;
+        }
+
+        // Code
+        buffer.put((byte) CoapPacket.codeValue(coapPacket));
+
+        //TKL Bytes
+        buffer.put(coapPacket.getToken());
+
+        //Options
+        BasicHeaderOptions.serialize(buffer, serializedOptions);
+
+        //Payload
+        if (coapPacket.getPayload() != null && coapPacket.getPayload().length > 0) {
+            buffer.put((byte) CoapPacket.PAYLOAD_MARKER);
+            buffer.put(coapPacket.getPayload());
+        }
+    }
+
+    private static int tokenLength(CoapPacket coapPacket) throws CoapException {
+        int tokenLen = coapPacket.getToken().length;
+        if (tokenLen > 8) {
+            throw new CoapException("Token length should not exceed 8 bytes");
+        }
+        return tokenLen;
+    }
+
+    private static int packetLength(CoapPacket coapPacket, BasicHeaderOptions.Serialization serializedOptions) {
+        int payloadLen = coapPacket.getPayload().length;
+        int payloadMarkerLen = payloadLen > 0 ? 1 : 0;
+
+        return serializedOptions.size + payloadMarkerLen + payloadLen;
+    }
+
+    private static int extendedPacketLengthSize(int packetLenCode) {
+        switch (packetLenCode) {
+            case 13:
+                return 1;
+            case 14:
+                return 2;
+            case 15:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
 
 }
@@ -178,26 +178,26 @@ public final class DataConvertingUtility {
         }
     }
 
-    static short[] extendOption(short[] orig, byte[] extend) {
+    static short[] extendOption(short[] orig, short extend) {
         if (orig == null || orig.length == 0) {
-            return new short[]{readVariableULong(extend).shortValue()};
+            return new short[]{extend};
         } else {
             short[] arr = new short[orig.length + 1];
             System.arraycopy(orig, 0, arr, 0, orig.length);
-            arr[orig.length] = readVariableULong(extend).shortValue();
+            arr[orig.length] = extend;
             return arr;
         }
     }
 
-    static String extendOption(String orig, byte[] extend, String delimiter, boolean startWithDelimiter) {
+    static String extendOption(String orig, String extend, String delimiter, boolean startWithDelimiter) {
         String extOption = orig;
         if (extOption == null) {
             extOption = "";
         }
         if (extOption.length() == 0 && !startWithDelimiter) {
-            return extOption + decodeToString(extend);
+            return extOption + extend;
         } else {
-            return extOption + delimiter + decodeToString(extend);
+            return extOption + delimiter + extend;
         }
     }
 
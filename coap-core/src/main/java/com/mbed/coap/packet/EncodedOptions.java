@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header options kept in encoded form, as received, with an index of option numbers, value offsets and lengths.
+ * Not modified once created, so it can be shared between packets.
+ */
+final class EncodedOptions {
+    private byte[] data;
+    private final Code code;
+    private int[] index = new int[3 * 8];
+    private int count;
+
+    EncodedOptions(Code code) {
+        this.code = code;
+    }
+
+    /**
+     * Creates index for valid, serialized options.
+     */
+    static EncodedOptions parse(byte[] data, Code code) {
+        EncodedOptions encodedOptions = new EncodedOptions(code);
+        int pos = 0;
+        int optNumber = 0;
+        while (pos < data.length) {
+            int hdrByte = data[pos++] & 0xFF;
+            int delta = hdrByte >> 4;
+            int len = 0xF & hdrByte;
+            if (delta == 13) {
+                delta += data[pos++] & 0xFF;
+            } else if (delta == 14) {
+                delta = (((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF)) + 269;
+                pos += 2;
+            }
+            if (len == 13) {
+                len += data[pos++] & 0xFF;
+            } else if (len == 14) {
+                len = (((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF)) + 269;
+                pos += 2;
+            }
+            optNumber += delta;
+            encodedOptions.add(optNumber, pos, len);
+            pos += len;
+        }
+        encodedOptions.setData(data);
+        encodedOptions.trimToSize();
+        return encodedOptions;
+    }
+
+    /**
+     * Merges two encoded option sets into a new one, by copying option values and re-writing option headers,
+     * without decoding any option.
+     */
+    static EncodedOptions merge(EncodedOptions first, EncodedOptions second, Code code) {
+        int total = first.count + second.count;
+        EncodedOptions merged = new EncodedOptions(code);
+        merged.index = new int[3 * total];
+
+        int size = 0;
+        int lastOptNumber = 0;
+        for (int i = 0, j = 0; i + j < total; ) {
+            boolean fromFirst = j == second.count || i < first.count && first.optNumber(i) <= second.optNumber(j);
+            EncodedOptions src = fromFirst ? first : second;
+            int k = fromFirst ? i++ : j++;
+            int optNumber = src.optNumber(k);
+            int len = src.index[3 * k + 2];
+            size += BasicHeaderOptions.optionHeaderSize(optNumber - lastOptNumber, len) + len;
+            lastOptNumber = optNumber;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        lastOptNumber = 0;
+        for (int i = 0, j = 0; i + j < total; ) {
+            boolean fromFirst = j == second.count || i < first.count && first.optNumber(i) <= second.optNumber(j);
+            EncodedOptions src = fromFirst ? first : second;
+            int k = fromFirst ? i++ : j++;
+            int optNumber = src.optNumber(k);
+            int len = src.index[3 * k + 2];
+            BasicHeaderOptions.writeOptionHeader(optNumber - lastOptNumber, len, buffer);
+            merged.add(optNumber, buffer.position(), len);
+            buffer.put(src.data, src.index[3 * k + 1], len);
+            lastOptNumber = optNumber;
+        }
+        merged.setData(buffer.array());
+        return merged;
+    }
+
+    void add(int optNumber, int offset, int len) {
+        if (index.length == 3 * count) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[3 * count] = optNumber;
+        index[3 * count + 1] = offset;
+        index[3 * count + 2] = len;
+        count++;
+    }
+
+    void trimToSize() {
+        if (index.length > 3 * count) {
+            index = Arrays.copyOf(index, 3 * count);
+        }
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    Code getCode() {
+        return code;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int optNumber(int i) {
+        return index[3 * i];
+    }
+
+    /**
+     * Points given view to option value in shared backing array, without copying it.
+     */
+    OptionValue value(int i, OptionValue value) {
+        return value.set(data, index[3 * i + 1], index[3 * i + 2], true);
+    }
+}
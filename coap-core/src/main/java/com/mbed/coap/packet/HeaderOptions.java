@@ -42,38 +42,44 @@ public class HeaderOptions extends BasicHeaderOptions {
     private byte[] signallingOption4;
 
     @Override
-    public boolean parseOption(int type, byte[] data, Code code) {
+    public boolean parseOption(int type, OptionValue value, Code code) {
         switch (type) {
             case OBSERVE:
-                setObserve(DataConvertingUtility.readVariableULong(data).intValue());
+                setObserve((int) value.toLong());
                 break;
             case BLOCK_2_RES:
-                setBlock2Res(new BlockOption(data));
+                setBlock2Res(new BlockOption((int) value.toLong()));
                 break;
             case BLOCK_1_REQ:
-                setBlock1Req(new BlockOption(data));
+                setBlock1Req(new BlockOption((int) value.toLong()));
                 break;
             case SIZE_2_RES:
-                setSize2Res(DataConvertingUtility.readVariableULong(data).intValue());
+                setSize2Res((int) value.toLong());
                 break;
             case SIGN_OPTION_2:
-                signallingOption2 = data;
+                signallingOption2 = value.toByteArray();
                 break;
             case SIGN_OPTION_4:
                 //clashing option number with etag
                 if (code != null && code.isSignaling()) {
-                    signallingOption4 = data;
+                    signallingOption4 = value.toByteArray();
                     break;
                 } else {
-                    return super.parseOption(type, data, code);
+                    return super.parseOption(type, value, code);
                 }
             default:
-                return super.parseOption(type, data, code);
+                return super.parseOption(type, value, code);
 
         }
         return true;
     }
 
+    @Override
+    protected boolean hasOptionFields() {
+        return super.hasOptionFields() || observe != null || block1Req != null || block2Res != null || size2Res != null
+                || signallingOption2 != null || signallingOption4 != null;
+    }
+
     @Override
     protected List<RawOption> getRawOptions() {
         List<RawOption> l = super.getRawOptions();
@@ -136,6 +142,7 @@ public class HeaderOptions extends BasicHeaderOptions {
      * @return the subsLifetime
      */
     public Integer getObserve() {
+        decode(OBSERVE);
         return observe;
     }
 
@@ -145,6 +152,7 @@ public class HeaderOptions extends BasicHeaderOptions {
      * @param observe the subsLifetime to set
      */
     public void setObserve(Integer observe) {
+        materialize();
         if (observe < 0 || observe > 0xFFFFFF) {
             throw new IllegalArgumentException("Illegal observer argument: " + observe);
         }
@@ -155,14 +163,17 @@ public class HeaderOptions extends BasicHeaderOptions {
      * @return the request block
      */
     public BlockOption getBlock1Req() {
+        decode(BLOCK_1_REQ);
         return block1Req;
     }
 
     public BlockOption getBlock2Res() {
+        decode(BLOCK_2_RES);
         return block2Res;
     }
 
     public Integer getSize2Res() {
+        decode(SIZE_2_RES);
         return size2Res;
     }
 
@@ -170,18 +181,23 @@ public class HeaderOptions extends BasicHeaderOptions {
      * @param block the block to set
      */
     public void setBlock1Req(BlockOption block) {
+        materialize();
         this.block1Req = block;
     }
 
     public void setBlock2Res(BlockOption block) {
+        materialize();
         this.block2Res = block;
     }
 
     public void setSize2Res(Integer size2Res) {
+        materialize();
         this.size2Res = size2Res;
     }
 
     public SignalingOptions toSignallingOptions(Code code) {
+        decode(SIGN_OPTION_2);
+        decode(SIGN_OPTION_4);
         if (signallingOption2 == null && signallingOption4 == null) {
             return null;
         } else {
@@ -197,6 +213,7 @@ public class HeaderOptions extends BasicHeaderOptions {
     }
 
     public void putSignallingOptions(SignalingOptions signalingOptions) {
+        materialize();
         this.signallingOption2 = signalingOptions.serializeOption2();
         this.signallingOption4 = signalingOptions.serializeOption4();
     }
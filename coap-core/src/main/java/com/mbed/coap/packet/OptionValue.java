@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+import com.mbed.coap.CoapConstants;
+import java.util.Arrays;
+
+/**
+ * Value of a single header option, a view on region of byte array. Options are decoded from it directly, so that
+ * values kept in encoded form are not copied, unless option keeps value as byte array.
+ */
+public final class OptionValue {
+    private byte[] data;
+    private int offset;
+    private int length;
+    private boolean shared;
+
+    OptionValue() {
+    }
+
+    /**
+     * @param shared true when backing array is shared and must not be exposed, so byte array value is a copy
+     */
+    OptionValue set(byte[] data, int offset, int length, boolean shared) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.shared = shared;
+        return this;
+    }
+
+    static OptionValue of(byte[] data) {
+        return new OptionValue().set(data, 0, data.length, false);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return value as unsigned integer
+     */
+    public long toLong() {
+        long val = 0;
+        for (int pos = offset; pos < offset + length; pos++) {
+            val = (val << 8) + (data[pos] & 0xFF);
+        }
+        return val;
+    }
+
+    public String decodeToString() {
+        return new String(data, offset, length, CoapConstants.DEFAULT_CHARSET);
+    }
+
+    public byte[] toByteArray() {
+        if (!shared && offset == 0 && length == data.length) {
+            return data;
+        }
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+}
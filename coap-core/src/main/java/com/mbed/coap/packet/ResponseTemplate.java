@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+/**
+ * Pre-encoded response for resources whose representation changes rarely. Holds response code, serialized header
+ * options and payload, that are shared by all responses created from it. Per exchange, only message type, message id
+ * and token are filled, so that options are not built and encoded again for every request.
+ * <p>
+ * Payload array is shared, it must not be modified.
+ * </p>
+ */
+public final class ResponseTemplate {
+
+    private final Code code;
+    private final EncodedOptions options;
+    private final byte[] payload;
+
+    public ResponseTemplate(Code code, HeaderOptions headers, byte[] payload) {
+        this.code = code;
+        this.options = headers != null ? headers.toEncoded(code) : null;
+        this.payload = payload;
+    }
+
+    public ResponseTemplate(Code code, HeaderOptions headers, String payload) {
+        this(code, headers, DataConvertingUtility.encodeString(payload));
+    }
+
+    /**
+     * Fills response with template's code, options and payload. Options already set in response are kept.
+     *
+     * @param response response packet, with message type, message id and token already set
+     */
+    public void applyTo(CoapPacket response) {
+        response.setCode(code);
+        if (options != null) {
+            response.headers().putEncoded(options);
+        }
+        response.setPayload(payload);
+    }
+
+    public Code getCode() {
+        return code;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
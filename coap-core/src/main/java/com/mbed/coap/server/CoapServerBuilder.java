@@ -24,8 +24,11 @@ import com.mbed.coap.server.internal.CoapTcpMessaging;
 import com.mbed.coap.server.internal.CoapTransaction;
 import com.mbed.coap.server.internal.CoapUdpMessaging;
 import com.mbed.coap.transmission.TransmissionTimeout;
+import com.mbed.coap.transport.AsyncCoapTransport;
 import com.mbed.coap.transport.CoapTransport;
+import com.mbed.coap.transport.tcp.NioTcpServerTransport;
 import com.mbed.coap.transport.udp.DatagramSocketTransport;
+import com.mbed.coap.transport.udp.ShardedDatagramChannelTransport;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.Executor;
@@ -111,6 +114,10 @@ public abstract class CoapServerBuilder {
         private long delayedTransactionTimeout = DELAYED_TRANSACTION_TIMEOUT_MS;
         private DuplicatedCoapMessageCallback duplicatedCoapMessageCallback = DuplicatedCoapMessageCallback.NULL;
         private TransmissionTimeout transmissionTimeout;
+        private int outboundQueueSize = -1;
+        private NStartSupplier nstartSupplier = NStartSupplier.DEFAULT;
+        private OutboundPacer outboundPacer = OutboundPacer.NONE;
+        private long offHeapResponseArenaSize = -1;
 
         private CoapServerBuilderForUdp() {
         }
@@ -134,6 +141,23 @@ public abstract class CoapServerBuilder {
             return this;
         }
 
+        /**
+         * Uses UDP transport with given number of sockets (shards) bound to the same port, each with own reading thread.
+         *
+         * @param port local port
+         * @param shardCount number of shards, more than one requires SO_REUSEPORT support
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp shardedTransport(int port, int shardCount) {
+            transport(new ShardedDatagramChannelTransport(new InetSocketAddress(port), shardCount, Runnable::run));
+            return this;
+        }
+
+        public CoapServerBuilderForUdp shardedTransport(int port, int shardCount, Executor receivedMessageWorker) {
+            transport(new ShardedDatagramChannelTransport(new InetSocketAddress(port), shardCount, receivedMessageWorker));
+            return this;
+        }
+
         public CoapServerBuilderForUdp blockSize(BlockSize blockSize) {
             setBlockSize(blockSize);
             return this;
@@ -161,10 +185,19 @@ public abstract class CoapServerBuilder {
                 throw new IllegalArgumentException("BlockSize with BERT support is defined only for CoAP overt TCP/TLS 2017 standard draft");
             }
 
-            CoapUdpMessaging server = new CoapUdpMessaging(checkAndGetCoapTransport());
+            CoapTransport transport = checkAndGetCoapTransport();
+            if (outboundQueueSize > 0) {
+                transport = new AsyncCoapTransport(transport, outboundQueueSize);
+            }
+            CoapUdpMessaging server = new CoapUdpMessaging(transport);
 
             server.setSpecialCoapTransactionPriority(blockTransferPriority);
             server.setTransmissionTimeout(transmissionTimeout);
+            server.setNStart(nstartSupplier);
+            server.setOutboundPacer(outboundPacer);
+            if (offHeapResponseArenaSize >= 0) {
+                server.setOffHeapDuplicationDetector(offHeapResponseArenaSize);
+            }
 
             server.init(duplicationMaxSize, scheduledExecutorService, isSelfCreatedExecutor,
                     midSupplier, maxQueueSize, defaultTransactionPriority, delayedTransactionTimeout, duplicatedCoapMessageCallback);
@@ -222,6 +255,59 @@ public abstract class CoapServerBuilder {
             return this;
         }
 
+        /**
+         * Sends outgoing packets asynchronously from a dedicated writer thread, see {@link AsyncCoapTransport}.
+         *
+         * @param outboundQueueSize maximum number of packets waiting to be written
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp outboundQueueSize(int outboundQueueSize) {
+            if (outboundQueueSize <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.outboundQueueSize = outboundQueueSize;
+            return this;
+        }
+
+        /**
+         * Sets NSTART, maximum number of simultaneous outstanding requests to single endpoint.
+         *
+         * @param nstart NSTART, default is 1
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp nstart(int nstart) {
+            this.nstartSupplier = NStartSupplier.of(nstart);
+            return this;
+        }
+
+        /**
+         * Sets NSTART per endpoint, for example higher for a gateway address.
+         *
+         * @param nstartSupplier NSTART supplier
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp nstart(NStartSupplier nstartSupplier) {
+            if (nstartSupplier == null) {
+                throw new NullPointerException();
+            }
+            this.nstartSupplier = nstartSupplier;
+            return this;
+        }
+
+        /**
+         * Paces outgoing requests, for example with {@link TokenBucketPacer}.
+         *
+         * @param outboundPacer outbound pacer
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp outboundPacer(OutboundPacer outboundPacer) {
+            if (outboundPacer == null) {
+                throw new NullPointerException();
+            }
+            this.outboundPacer = outboundPacer;
+            return this;
+        }
+
         public CoapServerBuilderForUdp blockMessageTransactionQueuePriority(CoapTransaction.Priority priority) {
             blockTransferPriority = priority;
             return this;
@@ -247,6 +333,22 @@ public abstract class CoapServerBuilder {
             return this;
         }
 
+        /**
+         * Keeps duplicate message cache outside of java heap, allows much higher duplicateMsgCacheSize without
+         * growing heap. Needs direct memory for about 80 bytes per entry plus response arena.
+         *
+         * @param responseArenaSize size in bytes of off-heap memory for stored responses, older responses are
+         * overwritten when it is full
+         * @return this instance
+         */
+        public CoapServerBuilderForUdp offHeapDuplicateMsgCache(long responseArenaSize) {
+            if (responseArenaSize < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.offHeapResponseArenaSize = responseArenaSize;
+            return this;
+        }
+
         public CoapServerBuilderForUdp disableDuplicateCheck() {
             this.duplicationMaxSize = -1;
             return this;
@@ -295,6 +397,23 @@ public abstract class CoapServerBuilder {
             return this;
         }
 
+        /**
+         * Uses non-blocking TCP server transport, with connections handled by given number of event loop threads.
+         *
+         * @param port local port
+         * @param eventLoopCount number of event loop threads
+         * @return this instance
+         */
+        public CoapServerBuilderForTcp transport(int port, int eventLoopCount) {
+            transport(new NioTcpServerTransport(new InetSocketAddress(port), eventLoopCount, Runnable::run));
+            return this;
+        }
+
+        public CoapServerBuilderForTcp transport(int port, int eventLoopCount, Executor receivedMessageWorker) {
+            transport(new NioTcpServerTransport(new InetSocketAddress(port), eventLoopCount, receivedMessageWorker));
+            return this;
+        }
+
         public CoapServerBuilderForTcp setCsmStorage(CoapTcpCSMStorage csmStorage) {
             this.csmStorage = csmStorage;
             return this;
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Message id supplier with separate counters for endpoints. Endpoints are hashed into striped counters, each on own
+ * cache line, so that busy endpoints do not share one counter and MID space of an endpoint wraps only after
+ * 65536 messages to that endpoint (or ones sharing the stripe). No per-endpoint state is allocated.
+ */
+public final class EndpointMessageIdSupplier implements MessageIdSupplier {
+
+    //one counter per 64 byte cache line
+    private static final int PADDING = 16;
+    private final AtomicIntegerArray counters;
+    private final int mask;
+
+    public EndpointMessageIdSupplier() {
+        this(1024);
+    }
+
+    /**
+     * @param stripes number of counters, power of two
+     */
+    public EndpointMessageIdSupplier(int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of two");
+        }
+        this.mask = stripes - 1;
+        this.counters = new AtomicIntegerArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            counters.set(i * PADDING, ThreadLocalRandom.current().nextInt(0xFFFF));
+        }
+    }
+
+    @Override
+    public int getNextMID() {
+        return 0xFFFF & counters.incrementAndGet(0);
+    }
+
+    @Override
+    public int getNextMID(InetSocketAddress endpoint) {
+        return 0xFFFF & counters.incrementAndGet(stripe(endpoint) * PADDING);
+    }
+
+    int stripe(InetSocketAddress endpoint) {
+        int h = endpoint.hashCode();
+        h ^= (h >>> 16);
+        return (h * 0x9E3779B9 >>> 16) & mask;
+    }
+}
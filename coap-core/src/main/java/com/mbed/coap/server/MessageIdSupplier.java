@@ -15,6 +15,8 @@
  */
 package com.mbed.coap.server;
 
+import java.net.InetSocketAddress;
+
 /**
  * Interface for generating CoAP message ID.
  *
@@ -31,4 +33,15 @@ public interface MessageIdSupplier {
      */
     int getNextMID();
 
+    /**
+     * Gets next message identifier for given endpoint, it needs to be unique only within that endpoint. Default
+     * implementation ignores endpoint.
+     *
+     * @param endpoint remote endpoint address
+     * @return next message id
+     */
+    default int getNextMID(InetSocketAddress endpoint) {
+        return getNextMID();
+    }
+
 }
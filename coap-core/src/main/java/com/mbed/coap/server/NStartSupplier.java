@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Provides NSTART, maximum number of simultaneous outstanding confirmable requests to an endpoint (RFC 7252,
+ * section 4.7). Can be used to allow more parallel requests for example to a gateway that fronts many devices.
+ */
+@FunctionalInterface
+public interface NStartSupplier {
+
+    NStartSupplier DEFAULT = endpoint -> 1;
+
+    /**
+     * Returns NSTART for given endpoint, called when endpoint's transaction queue is created.
+     *
+     * @param endpoint remote endpoint address
+     * @return NSTART value, must be positive
+     */
+    int getNStart(InetSocketAddress endpoint);
+
+    static NStartSupplier of(int nstart) {
+        if (nstart < 1) {
+            throw new IllegalArgumentException("NSTART must be positive");
+        }
+        return endpoint -> nstart;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import com.mbed.coap.server.internal.CoapTransaction;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Paces outgoing requests, sits between transaction layer and transport. Implementation may delay sending by
+ * calling given sender later, returned future must complete with sender's result.
+ */
+@FunctionalInterface
+public interface OutboundPacer {
+
+    OutboundPacer NONE = (destination, priority, urgent, sender) -> sender.get();
+
+    /**
+     * Sends or queues outgoing packet.
+     *
+     * @param destination remote endpoint address
+     * @param priority transaction priority
+     * @param urgent true for retransmissions, that should not be delayed
+     * @param sender sends packet to transport
+     * @return future that completes when packet is sent
+     */
+    CompletableFuture<Boolean> send(InetSocketAddress destination, CoapTransaction.Priority priority, boolean urgent, Supplier<CompletableFuture<Boolean>> sender);
+
+    default void start(ScheduledExecutorService scheduledExecutor) {
+        //nothing to start
+    }
+
+    default void stop() {
+        //nothing to stop
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import com.mbed.coap.exception.OutboundQueueFullException;
+import com.mbed.coap.server.internal.CoapTransaction.Priority;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound pacer with token buckets at global, per-endpoint and per-priority level. A packet is sent when all
+ * applicable buckets have a token, otherwise it waits in a queue for its priority and is sent from scheduled executor.
+ * <p>
+ * Retransmissions and HIGH priority packets are never queued, they are sent immediately and take tokens even if
+ * bucket goes below zero, so that they pre-empt queued lower priority traffic.
+ * </p>
+ * <pre>
+ * new TokenBucketPacer(1000, 100)       //1000 packets per second globally, with burst of 100
+ *     .endpointLimit(10, 5, 100_000)    //10 packets per second per endpoint
+ *     .priorityLimit(Priority.LOW, 100, 10);
+ * </pre>
+ */
+public class TokenBucketPacer implements OutboundPacer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenBucketPacer.class.getName());
+    private static final long PACING_INTERVAL = 10;
+    private static final int MAX_SCAN = 1024;
+
+    private final LongSupplier nanoClock;
+    private final TokenBucket globalBucket;
+    private final TokenBucket[] priorityBuckets = new TokenBucket[Priority.values().length];
+    private EndpointBuckets endpointBuckets;
+    private int maxQueueSize = 100_000;
+
+    private final ArrayDeque<PendingPacket>[] queues;
+    private int queueSize;
+    private ScheduledExecutorService scheduledExecutor;
+    private ScheduledFuture<?> drainFut;
+
+    /**
+     * @param rate global rate, packets per second
+     * @param burst global burst size
+     */
+    public TokenBucketPacer(double rate, int burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    TokenBucketPacer(double rate, int burst, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.globalBucket = new TokenBucket(rate, burst, nanoClock.getAsLong());
+        @SuppressWarnings({"unchecked", "rawtypes"}) ArrayDeque<PendingPacket>[] queues = new ArrayDeque[Priority.values().length];
+        this.queues = queues;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Limits rate for every endpoint.
+     *
+     * @param rate packets per second
+     * @param burst burst size
+     * @param maxEndpoints maximum number of endpoints with kept buckets, least recently used are evicted
+     * @return this instance
+     */
+    public TokenBucketPacer endpointLimit(double rate, int burst, int maxEndpoints) {
+        TokenBucket.validate(rate, burst);
+        if (maxEndpoints <= 0) {
+            throw new IllegalArgumentException("Maximum number of endpoints must be positive");
+        }
+        endpointBuckets = new EndpointBuckets(rate, burst, maxEndpoints);
+        return this;
+    }
+
+    /**
+     * Limits rate for given transaction priority.
+     *
+     * @param priority transaction priority
+     * @param rate packets per second
+     * @param burst burst size
+     * @return this instance
+     */
+    public TokenBucketPacer priorityLimit(Priority priority, double rate, int burst) {
+        priorityBuckets[priority.ordinal()] = new TokenBucket(rate, burst, nanoClock.getAsLong());
+        return this;
+    }
+
+    /**
+     * @param maxQueueSize maximum number of waiting packets, when exceeded send fails with
+     * {@link OutboundQueueFullException}
+     * @return this instance
+     */
+    public TokenBucketPacer maxQueueSize(int maxQueueSize) {
+        if (maxQueueSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxQueueSize = maxQueueSize;
+        return this;
+    }
+
+    @Override
+    public synchronized void start(ScheduledExecutorService scheduledExecutor) {
+        this.scheduledExecutor = scheduledExecutor;
+        scheduleDrain();
+    }
+
+    @Override
+    public void stop() {
+        List<PendingPacket> dropped = new ArrayList<>();
+        synchronized (this) {
+            scheduledExecutor = null;
+            if (drainFut != null) {
+                drainFut.cancel(false);
+                drainFut = null;
+            }
+            for (ArrayDeque<PendingPacket> queue : queues) {
+                dropped.addAll(queue);
+                queue.clear();
+            }
+            queueSize = 0;
+        }
+        dropped.forEach(p -> p.promise.completeExceptionally(new IOException("Transport stopped")));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> send(InetSocketAddress destination, Priority priority, boolean urgent, Supplier<CompletableFuture<Boolean>> sender) {
+        synchronized (this) {
+            long now = nanoClock.getAsLong();
+            if (urgent || priority == Priority.HIGH) {
+                consume(destination, priority, now);
+            } else if (hasQueued(priority) || !tryConsume(destination, priority, now)) {
+                return enqueue(destination, priority, sender);
+            }
+        }
+        return sender.get();
+    }
+
+    private CompletableFuture<Boolean> enqueue(InetSocketAddress destination, Priority priority, Supplier<CompletableFuture<Boolean>> sender) {
+        CompletableFuture<Boolean> promise = new CompletableFuture<>();
+        if (queueSize >= maxQueueSize) {
+            promise.completeExceptionally(new OutboundQueueFullException("Outbound pacer queue is full"));
+            return promise;
+        }
+        queues[priority.ordinal()].add(new PendingPacket(destination, priority, sender, promise));
+        queueSize++;
+        scheduleDrain();
+        return promise;
+    }
+
+    private boolean hasQueued(Priority priority) {
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            if (!queues[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleDrain() {
+        if (drainFut == null && scheduledExecutor != null && queueSize > 0) {
+            drainFut = scheduledExecutor.schedule(this::drain, PACING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends waiting packets for which tokens are available, in priority order.
+     */
+    void drain() {
+        List<PendingPacket> ready = new ArrayList<>();
+        synchronized (this) {
+            drainFut = null;
+            long now = nanoClock.getAsLong();
+            for (ArrayDeque<PendingPacket> queue : queues) {
+                collectReady(queue, now, ready);
+            }
+            queueSize -= ready.size();
+            scheduleDrain();
+        }
+
+        for (PendingPacket p : ready) {
+            p.send();
+        }
+    }
+
+    private void collectReady(ArrayDeque<PendingPacket> queue, long now, List<PendingPacket> ready) {
+        int scanned = 0;
+        Iterator<PendingPacket> it = queue.iterator();
+        while (it.hasNext() && scanned++ < MAX_SCAN && globalBucket.hasToken(now)) {
+            PendingPacket p = it.next();
+            TokenBucket priorityBucket = priorityBuckets[p.priority.ordinal()];
+            if (priorityBucket != null && !priorityBucket.hasToken(now)) {
+                return;
+            }
+            if (tryConsume(p.destination, p.priority, now)) {
+                it.remove();
+                ready.add(p);
+            }
+        }
+    }
+
+    private boolean tryConsume(InetSocketAddress destination, Priority priority, long now) {
+        TokenBucket priorityBucket = priorityBuckets[priority.ordinal()];
+        TokenBucket endpointBucket = endpointBuckets != null ? endpointBuckets.get(destination, now) : null;
+
+        if (!globalBucket.hasToken(now)
+                || (priorityBucket != null && !priorityBucket.hasToken(now))
+                || (endpointBucket != null && !endpointBucket.hasToken(now))) {
+            return false;
+        }
+        globalBucket.consume();
+        if (priorityBucket != null) {
+            priorityBucket.consume();
+        }
+        if (endpointBucket != null) {
+            endpointBucket.consume();
+        }
+        return true;
+    }
+
+    private void consume(InetSocketAddress destination, Priority priority, long now) {
+        globalBucket.refill(now);
+        globalBucket.consume();
+        TokenBucket priorityBucket = priorityBuckets[priority.ordinal()];
+        if (priorityBucket != null) {
+            priorityBucket.refill(now);
+            priorityBucket.consume();
+        }
+        if (endpointBuckets != null) {
+            TokenBucket endpointBucket = endpointBuckets.get(destination, now);
+            endpointBucket.refill(now);
+            endpointBucket.consume();
+        }
+    }
+
+    synchronized int getQueueSize() {
+        return queueSize;
+    }
+
+    private static class PendingPacket {
+        private final InetSocketAddress destination;
+        private final Priority priority;
+        private final Supplier<CompletableFuture<Boolean>> sender;
+        private final CompletableFuture<Boolean> promise;
+
+        PendingPacket(InetSocketAddress destination, Priority priority, Supplier<CompletableFuture<Boolean>> sender, CompletableFuture<Boolean> promise) {
+            this.destination = destination;
+            this.priority = priority;
+            this.sender = sender;
+            this.promise = promise;
+        }
+
+        void send() {
+            try {
+                sender.get().whenComplete((wasSent, maybeError) -> {
+                    if (maybeError != null) {
+                        promise.completeExceptionally(maybeError);
+                    } else {
+                        promise.complete(wasSent);
+                    }
+                });
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to send paced packet: {}", ex.toString());
+                promise.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Token bucket, number of tokens may go below zero when consumed without checking.
+     */
+    static class TokenBucket {
+        private final double tokensPerNano;
+        private final int burst;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double rate, int burst, long now) {
+            validate(rate, burst);
+            this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastRefill = now;
+        }
+
+        static void validate(double rate, int burst) {
+            if (rate <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+            }
+        }
+
+        void refill(long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+                lastRefill = now;
+            }
+        }
+
+        boolean hasToken(long now) {
+            refill(now);
+            return tokens >= 1;
+        }
+
+        void consume() {
+            tokens -= 1;
+        }
+    }
+
+    private static class EndpointBuckets extends LinkedHashMap<InetSocketAddress, TokenBucket> {
+        private final double rate;
+        private final int burst;
+        private final int maxEndpoints;
+
+        EndpointBuckets(double rate, int burst, int maxEndpoints) {
+            super(16, 0.75f, true);
+            this.rate = rate;
+            this.burst = burst;
+            this.maxEndpoints = maxEndpoints;
+        }
+
+        TokenBucket get(InetSocketAddress endpoint, long now) {
+            TokenBucket bucket = super.get(endpoint);
+            if (bucket == null) {
+                bucket = new TokenBucket(rate, burst, now);
+                put(endpoint, bucket);
+            }
+            return bucket;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, TokenBucket> eldest) {
+            return size() > maxEndpoints;
+        }
+    }
+}
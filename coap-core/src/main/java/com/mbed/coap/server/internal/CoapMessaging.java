@@ -25,6 +25,7 @@ import com.mbed.coap.utils.Callback;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,6 +93,15 @@ public abstract class CoapMessaging implements CoapReceiver {
                 .whenComplete((__, throwable) -> logCoapSent(coapPacket, throwable));
     }
 
+    /**
+     * Sends packet, its serialized form is passed to consumer.
+     */
+    protected final CompletableFuture<Boolean> sendPacket(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, Consumer<byte[]> encodedPacketConsumer) {
+        return coapTransporter
+                .sendPacket(coapPacket, adr, tranContext, encodedPacketConsumer)
+                .whenComplete((__, throwable) -> logCoapSent(coapPacket, throwable));
+    }
+
     private void logCoapSent(CoapPacket coapPacket, Throwable maybeError) {
         if (maybeError != null) {
             LOGGER.warn("[{}] Failed to sent: {}", coapPacket.getRemoteAddress(), maybeError.toString());
@@ -27,11 +27,9 @@ import com.mbed.coap.transport.CoapTransport;
 import com.mbed.coap.transport.TransportContext;
 import com.mbed.coap.utils.Callback;
 import com.mbed.coap.utils.RequestCallback;
+import com.mbed.coap.utils.TokenIndex;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,7 +39,7 @@ import org.slf4j.LoggerFactory;
 public class CoapTcpMessaging extends CoapMessaging implements CoapReceiverForTcp {
     private static final Logger LOGGER = LoggerFactory.getLogger(CoapTcpMessaging.class);
 
-    private final ConcurrentMap<DelayedTransactionId, RequestCallback> transactions = new ConcurrentHashMap<>();
+    private final TokenIndex<RequestCallback> transactions = new TokenIndex<>();
     private final CoapTcpCSMStorage csmStorage;
     private final CoapTcpCSM ownCapability;
 
@@ -112,16 +110,14 @@ public class CoapTcpMessaging extends CoapMessaging implements CoapReceiverForTc
 
         RequestCallback requestCallback = wrapCallback(callback);
 
-        DelayedTransactionId transId = new DelayedTransactionId(packet.getToken(), packet.getRemoteAddress());
-        transactions.put(transId, requestCallback);
-
+        transactions.put(packet.getRemoteAddress(), packet.getToken(), requestCallback);
 
         sendPacket(packet, packet.getRemoteAddress(), transContext)
                 .whenComplete((wasSent, maybeError) -> {
                     if (maybeError == null) {
                         requestCallback.onSent();
                     } else {
-                        removeTransactionExceptionally(transId, (Exception) maybeError);
+                        removeTransactionExceptionally(packet.getRemoteAddress(), packet.getToken(), (Exception) maybeError);
                     }
                 });
     }
@@ -138,8 +134,7 @@ public class CoapTcpMessaging extends CoapMessaging implements CoapReceiverForTc
 
     @Override
     protected boolean handleResponse(CoapPacket packet) {
-        DelayedTransactionId transId = new DelayedTransactionId(packet.getToken(), packet.getRemoteAddress());
-        RequestCallback callback = transactions.remove(transId);
+        RequestCallback callback = transactions.remove(packet.getRemoteAddress(), packet.getToken());
 
         if (callback != null) {
             callback.call(packet);
@@ -165,18 +160,15 @@ public class CoapTcpMessaging extends CoapMessaging implements CoapReceiverForTc
     public void onDisconnected(InetSocketAddress remoteAddress) {
         csmStorage.remove(remoteAddress);
 
-        Set<DelayedTransactionId> trans = transactions.keySet();
-        for (DelayedTransactionId transId : trans) {
-            if (transId.hasRemoteAddress(remoteAddress)) {
-                removeTransactionExceptionally(transId, new IOException("Socket closed"));
-            }
+        for (RequestCallback requestCallback : transactions.removeAll(remoteAddress)) {
+            requestCallback.callException(new IOException("Socket closed"));
         }
 
         LOGGER.info("[{}] Disconnected", remoteAddress);
     }
 
-    private void removeTransactionExceptionally(DelayedTransactionId transId, Exception error) {
-        RequestCallback requestCallback = transactions.remove(transId);
+    private void removeTransactionExceptionally(InetSocketAddress remoteAddress, byte[] token, Exception error) {
+        RequestCallback requestCallback = transactions.remove(remoteAddress, token);
         if (requestCallback != null) {
             requestCallback.callException(error);
         }
@@ -31,6 +31,8 @@ public class CoapTransaction {
 
     protected RequestCallback callback;
     private long timeout = -1;
+    private long transmissionTimeout;
+    private volatile long firstSendTime;
     protected byte retrAttempts;
     protected CoapPacket coapRequest;
     private CoapTransactionId transId;
@@ -40,6 +42,10 @@ public class CoapTransaction {
     private final Priority transactionPriority;
     private final Consumer<CoapTransactionId> sendErrConsumer;
     private boolean isActive;
+    private boolean isReleased; //guarded by TransactionQueue owner
+    private volatile HashedTimingWheel.Timeout<CoapTransaction> scheduledTimeout;
+    private volatile boolean isSendPending;
+    private volatile boolean isRemoved;
 
     public CoapTransaction(RequestCallback callback, CoapPacket coapRequest, final CoapUdpMessaging coapServer, TransportContext transContext, Consumer<CoapTransactionId> sendErrConsumer) {
         this(callback, coapRequest, coapServer, transContext, Priority.NORMAL, sendErrConsumer);
@@ -52,7 +58,8 @@ public class CoapTransaction {
         this.sendErrConsumer = sendErrConsumer;
         this.coapServer = coapServer;
         this.callback = callback;
-        this.coapRequest = coapRequest;
+        //kept for retransmissions, compacted copy retains less heap and is serialized without sorting options
+        this.coapRequest = coapRequest.compactCopy();
         this.transactionPriority = transactionPriority;
         if (coapRequest.getRemoteAddress().getAddress().isMulticastAddress()) {
             this.transId = new MulticastTransactionId(coapRequest);
@@ -79,6 +86,7 @@ public class CoapTransaction {
         this.delayedTransId = delayedTransId;
         this.transId = null;
         this.timeout = System.currentTimeMillis() + coapServer.getDelayedTransactionTimeout();
+        scheduleTimeout();
     }
 
     public DelayedTransactionId getDelayedTransId() {
@@ -96,19 +104,72 @@ public class CoapTransaction {
         if (coapRequest.getRemoteAddress().getAddress().isMulticastAddress()) {
             nextTimeout = coapServer.getTransmissionTimeout().getMulticastTimeout(this.retrAttempts);
         } else {
-            nextTimeout = coapServer.getTransmissionTimeout().getTimeout(this.retrAttempts);
+            nextTimeout = coapServer.getTransmissionTimeout().getTimeout(coapRequest.getRemoteAddress(), this.retrAttempts);
         }
         if (nextTimeout <= 0) {
             return false;
         }
         isActive = true;
-        coapServer.send(coapRequest, coapRequest.getRemoteAddress(), transContext)
-                .whenComplete((wasSent, maybeError) -> onSend(maybeError));
-
+        //schedule before sending, so that timeout is cancelled if sending fails
+        this.transmissionTimeout = nextTimeout;
         this.timeout = currentTime + nextTimeout;
+        scheduleTimeout();
+        if (isRemoved) {
+            //completed concurrently, after timeout was cancelled
+            cancelTimeout();
+        }
+
+        isSendPending = true;
+        //rtt is measured from release by outbound pacer, time spent in its queue is not included
+        Runnable onRelease = retrAttempts == 1 ? () -> firstSendTime = System.currentTimeMillis() : () -> { };
+        coapServer.send(coapRequest, coapRequest.getRemoteAddress(), transContext, transactionPriority, retrAttempts > 1, onRelease)
+                .whenComplete((wasSent, maybeError) -> {
+                    isSendPending = false;
+                    onSend(maybeError);
+                });
         return true;
     }
 
+    /**
+     * @return true if last transmission was not sent yet, for example it is delayed by outbound pacer
+     */
+    boolean isSendPending() {
+        return isSendPending;
+    }
+
+    /**
+     * Restarts retransmission timer without resending, used when transmission is still pending.
+     */
+    void postponeTimeout(long currentTime) {
+        this.timeout = currentTime + transmissionTimeout;
+        scheduleTimeout();
+    }
+
+    private void scheduleTimeout() {
+        cancelTimeout();
+        scheduledTimeout = coapServer.scheduleTimeout(this, timeout);
+    }
+
+    void cancelTimeout() {
+        HashedTimingWheel.Timeout<CoapTransaction> t = scheduledTimeout;
+        if (t != null) {
+            t.cancel();
+            scheduledTimeout = null;
+        }
+    }
+
+    /**
+     * Marks transaction as removed from transaction queue, so that expired timeout does not resend it.
+     */
+    void markRemoved() {
+        isRemoved = true;
+        cancelTimeout();
+    }
+
+    boolean isRemoved() {
+        return isRemoved;
+    }
+
     private void onSend(Throwable maybeError) {
         if (maybeError == null) {
             callback.onSent();
@@ -130,6 +191,17 @@ public class CoapTransaction {
         }
     }
 
+    /**
+     * @return time when first transmission was released to transport in milliseconds, 0 if not yet
+     */
+    long getFirstSendTime() {
+        return firstSendTime;
+    }
+
+    int getRetrAttempts() {
+        return retrAttempts;
+    }
+
     public CoapPacket getCoapRequest() {
         return coapRequest;
     }
@@ -138,6 +210,14 @@ public class CoapTransaction {
         return isActive;
     }
 
+    boolean isReleased() {
+        return isReleased;
+    }
+
+    void setReleased(boolean released) {
+        isReleased = released;
+    }
+
     //ONY FOR TESTS, package access only
     CoapTransaction makeActiveForTests() {
         this.isActive = true;
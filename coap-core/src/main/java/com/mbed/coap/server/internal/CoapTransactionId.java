@@ -19,12 +19,12 @@ import com.mbed.coap.packet.CoapPacket;
 import java.net.InetSocketAddress;
 
 /**
- * Identifies CoAP transaction
+ * Identifies CoAP transaction. Immutable snapshot of packet's message id and remote address, taken at creation.
  */
 public class CoapTransactionId {
 
     private final int messageId;
-    protected InetSocketAddress address;
+    protected final InetSocketAddress address;
 
     public CoapTransactionId(CoapPacket packet) {
         messageId = packet.getMessageId();
@@ -70,4 +70,8 @@ public class CoapTransactionId {
         return address;
     }
 
+    int getMessageId() {
+        return messageId;
+    }
+
 }
@@ -23,6 +23,8 @@ import com.mbed.coap.packet.MessageType;
 import com.mbed.coap.server.CoapTransactionCallback;
 import com.mbed.coap.server.DuplicatedCoapMessageCallback;
 import com.mbed.coap.server.MessageIdSupplier;
+import com.mbed.coap.server.NStartSupplier;
+import com.mbed.coap.server.OutboundPacer;
 import com.mbed.coap.transmission.CoapTimeout;
 import com.mbed.coap.transmission.TransmissionTimeout;
 import com.mbed.coap.transport.CoapTransport;
@@ -31,7 +33,6 @@ import com.mbed.coap.utils.Callback;
 import com.mbed.coap.utils.RequestCallback;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
@@ -49,17 +50,21 @@ import org.slf4j.LoggerFactory;
 public class CoapUdpMessaging extends CoapMessaging {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CoapUdpMessaging.class);
-    private final static long TRANSACTION_TIMEOUT_DELAY = 1000;
+    private final static long TRANSACTION_TIMEOUT_DELAY = 10;
+    private final static int TIMING_WHEEL_SIZE = 4096;
     private static final int DEFAULT_DUPLICATION_TIMEOUT = 30000;
     private ScheduledExecutorService scheduledExecutor;
 
     private boolean isSelfCreatedExecutor;
     private final TransactionManager transMgr = new TransactionManager();
     private final DelayedTransactionManager delayedTransMagr = new DelayedTransactionManager();
-    private DuplicationDetector duplicationDetector;
+    private final HashedTimingWheel<CoapTransaction> timeoutWheel = new HashedTimingWheel<>(TRANSACTION_TIMEOUT_DELAY, TIMING_WHEEL_SIZE);
+    private MessageDuplicationDetector duplicationDetector;
+    private long offHeapResponseArenaSize = -1;
     private MessageIdSupplier idContext;
     private ScheduledFuture<?> transactionTimeoutWorkerFut;
     private CoapTransaction.Priority defaultPriority;
+    private OutboundPacer outboundPacer = OutboundPacer.NONE;
     protected long delayedTransactionTimeout;
     protected TransmissionTimeout transmissionTimeout;
     protected DuplicatedCoapMessageCallback duplicatedCoapMessageCallback;
@@ -93,7 +98,9 @@ public class CoapUdpMessaging extends CoapMessaging {
             this.transmissionTimeout = new CoapTimeout();
         }
 
-        if (duplicationListSize > 0) {
+        if (duplicationListSize > 0 && offHeapResponseArenaSize >= 0) {
+            duplicationDetector = new OffHeapDuplicationDetector(TimeUnit.MILLISECONDS, DEFAULT_DUPLICATION_TIMEOUT, duplicationListSize, offHeapResponseArenaSize, scheduledExecutor);
+        } else if (duplicationListSize > 0) {
             duplicationDetector = new DuplicationDetector(TimeUnit.MILLISECONDS, DEFAULT_DUPLICATION_TIMEOUT, duplicationListSize, scheduledExecutor);
         }
     }
@@ -108,6 +115,7 @@ public class CoapUdpMessaging extends CoapMessaging {
             duplicationDetector.start();
         }
         startTransactionTimeoutWorker();
+        outboundPacer.start(scheduledExecutor);
         super.start(coapRequestHandler);
     }
 
@@ -135,6 +143,7 @@ public class CoapUdpMessaging extends CoapMessaging {
         }
 
         stopTransactionTimeoutWorker();
+        outboundPacer.stop();
 
         if (isSelfCreatedExecutor) {
             scheduledExecutor.shutdown();
@@ -152,12 +161,52 @@ public class CoapUdpMessaging extends CoapMessaging {
     }
 
     /**
-     * Returns next CoAP message id
+     * Sets NSTART, maximum number of outstanding transactions per endpoint.
      *
+     * @param nstartSupplier NSTART supplier
+     */
+    public void setNStart(NStartSupplier nstartSupplier) {
+        transMgr.setNStartSupplier(nstartSupplier);
+    }
+
+    /**
+     * Keeps duplication detector data outside of java heap, see {@link OffHeapDuplicationDetector}. Must be called
+     * before init.
+     *
+     * @param responseArenaSize size in bytes of off-heap memory for stored responses
+     */
+    public void setOffHeapDuplicationDetector(long responseArenaSize) {
+        if (responseArenaSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.offHeapResponseArenaSize = responseArenaSize;
+    }
+
+    /**
+     * Sets pacer for outgoing requests, see {@link com.mbed.coap.server.TokenBucketPacer}.
+     *
+     * @param outboundPacer outbound pacer
+     */
+    public void setOutboundPacer(OutboundPacer outboundPacer) {
+        if (outboundPacer == null) {
+            throw new NullPointerException();
+        }
+        this.outboundPacer = outboundPacer;
+    }
+
+    /**
+     * Returns next CoAP message id for endpoint, that is not used by its transactions
+     *
+     * @param endpoint remote endpoint
      * @return message id
      */
-    private int getNextMID() {
-        return idContext.getNextMID();
+    private int getNextMID(InetSocketAddress endpoint) {
+        int mid = idContext.getNextMID(endpoint);
+        //skip message ids still used by transactions to that endpoint
+        for (int i = 0; i < 0xFFFF && transMgr.isMessageIdInUse(endpoint, mid); i++) {
+            mid = idContext.getNextMID(endpoint);
+        }
+        return mid;
     }
 
 
@@ -169,20 +218,21 @@ public class CoapUdpMessaging extends CoapMessaging {
         return transmissionTimeout;
     }
 
+    HashedTimingWheel.Timeout<CoapTransaction> scheduleTimeout(CoapTransaction trans, long timeout) {
+        return timeoutWheel.schedule(trans, timeout);
+    }
+
     @Override
     public void sendResponse(CoapPacket request, CoapPacket resp, TransportContext ctx) {
-        putToDuplicationDetector(request, resp);
-
         if (resp.getMessageType() == MessageType.NonConfirmable || request.getMessageType() == MessageType.NonConfirmable) {
-            resp.setMessageId(getNextMID());
+            resp.setMessageId(getNextMID(request.getRemoteAddress()));
         }
 
-        send(resp, request.getRemoteAddress(), ctx);
-    }
-
-    private final void putToDuplicationDetector(CoapPacket request, CoapPacket response) {
         if (duplicationDetector != null) {
-            duplicationDetector.putResponse(request, response);
+            //serialize once, same bytes are sent and kept for repeated requests
+            sendPacket(resp, request.getRemoteAddress(), ctx, data -> duplicationDetector.putResponse(request, data));
+        } else {
+            send(resp, request.getRemoteAddress(), ctx);
         }
     }
 
@@ -241,7 +291,7 @@ public class CoapUdpMessaging extends CoapMessaging {
         RequestCallback requestCallback = wrapCallback(coapCallback);
 
         //assign new MID
-        packet.setMessageId(getNextMID());
+        packet.setMessageId(getNextMID(packet.getRemoteAddress()));
 
         if (packet.getMustAcknowledge()) {
             CoapTransaction trans = new CoapTransaction(requestCallback, packet, this, transContext, transactionPriority, this::removeCoapTransId);
@@ -259,7 +309,7 @@ public class CoapUdpMessaging extends CoapMessaging {
             //send NON message without waiting for piggy-backed response
             DelayedTransactionId delayedTransactionId = new DelayedTransactionId(packet.getToken(), packet.getRemoteAddress());
             delayedTransMagr.add(delayedTransactionId, new CoapTransaction(requestCallback, packet, this, transContext, transactionPriority, this::removeCoapTransId));
-            this.send(packet, packet.getRemoteAddress(), transContext)
+            this.send(packet, packet.getRemoteAddress(), transContext, transactionPriority, false)
                     .whenComplete((wasSent, maybeError) -> {
                         if (maybeError == null) {
                             requestCallback.onSent();
@@ -279,6 +329,20 @@ public class CoapUdpMessaging extends CoapMessaging {
         return sendPacket(coapPacket, adr, tranContext);
     }
 
+    CompletableFuture<Boolean> send(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, CoapTransaction.Priority priority, boolean isRetransmission) {
+        return outboundPacer.send(adr, priority, isRetransmission, () -> sendPacket(coapPacket, adr, tranContext));
+    }
+
+    /**
+     * @param onRelease called when outbound pacer releases packet to transport
+     */
+    CompletableFuture<Boolean> send(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, CoapTransaction.Priority priority, boolean isRetransmission, Runnable onRelease) {
+        return outboundPacer.send(adr, priority, isRetransmission, () -> {
+            onRelease.run();
+            return sendPacket(coapPacket, adr, tranContext);
+        });
+    }
+
     /**
      * Returns number of waiting transaction.
      *
@@ -290,11 +354,9 @@ public class CoapUdpMessaging extends CoapMessaging {
 
     @Override
     protected boolean handleDelayedResponse(CoapPacket packet) {
-        DelayedTransactionId delayedTransactionId = new DelayedTransactionId(packet.getToken(), packet.getRemoteAddress());
-        CoapTransaction trans = delayedTransMagr.find(delayedTransactionId);
+        CoapTransaction trans = delayedTransMagr.find(packet.getToken(), packet.getRemoteAddress());
 
-        if (trans != null) {
-            delayedTransMagr.remove(delayedTransactionId);
+        if (trans != null && delayedTransMagr.remove(trans.getDelayedTransId(), trans)) {
             if (packet.getMustAcknowledge()) {
                 CoapPacket resp = packet.createResponse();
                 sendResponse(packet, resp);
@@ -358,6 +420,9 @@ public class CoapUdpMessaging extends CoapMessaging {
 
     private boolean handleResponse(CoapTransaction trans, CoapPacket packet) {
         MessageType messageType = packet.getMessageType();
+        if ((messageType == MessageType.Acknowledgement || messageType == MessageType.Reset) && trans.getFirstSendTime() > 0) {
+            transmissionTimeout.onAcknowledged(packet.getRemoteAddress(), System.currentTimeMillis() - trans.getFirstSendTime(), trans.getRetrAttempts());
+        }
         if (packet.getCode() != null || messageType == MessageType.Reset) {
             invokeCallbackAndRemoveTransaction(trans, packet);
             return true;
@@ -382,10 +447,15 @@ public class CoapUdpMessaging extends CoapMessaging {
     protected boolean findDuplicate(CoapPacket request, String message) {
         //request
         if (duplicationDetector != null) {
-            CoapPacket duplResp = duplicationDetector.isMessageRepeated(request);
+            byte[] duplResp = duplicationDetector.isMessageRepeated(request);
             if (duplResp != null) {
-                if (duplResp != DuplicationDetector.EMPTY_COAP_PACKET) {
-                    sendPacket(duplResp, request.getRemoteAddress(), TransportContext.NULL);
+                if (duplResp != DuplicationDetector.NO_RESPONSE) {
+                    coapTransporter.sendEncodedPacket(duplResp, request.getRemoteAddress(), TransportContext.NULL)
+                            .whenComplete((__, maybeError) -> {
+                                if (maybeError != null) {
+                                    LOGGER.warn("[{}] Failed to resend response: {}", request.getRemoteAddress(), maybeError.toString());
+                                }
+                            });
                     LOGGER.debug("{}, resending response [{}]", message, request);
                 } else {
                     LOGGER.debug("{}, no response available [{}]", message, request);
@@ -402,36 +472,49 @@ public class CoapUdpMessaging extends CoapMessaging {
 
     void resendTimeouts() {
         try {
-            //find timeouts
             final long currentTime = System.currentTimeMillis();
-            Collection<CoapTransaction> transTimeOut = transMgr.findTimeoutTransactions(currentTime);
-            for (CoapTransaction trans : transTimeOut) {
-                if (trans.isTimedOut(currentTime)) {
-                    LOGGER.trace("resendTimeouts: try to resend timed out transaction [{}]", trans);
-                    if (!trans.send(currentTime)) {
-                        //final timeout, cannot resend, remove transaction
-                        removeCoapTransId(trans.getTransactionId());
-                        LOGGER.trace("resendTimeouts: CoAP transaction final timeout [{}]", trans);
-                        trans.getCallback().callException(new CoapTimeoutException(trans));
-                    } else {
-                        if (trans.getCallback() instanceof CoapTransactionCallback) {
-                            ((CoapTransactionCallback) trans.getCallback()).messageResent();
-                        }
-                    }
-                }
-            }
-
-            Collection<CoapTransaction> delayedTransTimeOut = delayedTransMagr.findTimeoutTransactions(currentTime);
-            for (CoapTransaction trans : delayedTransTimeOut) {
-                if (trans.isTimedOut(currentTime)) {
-                    //delayed timeout, remove transaction
-                    delayedTransMagr.remove(trans.getDelayedTransId());
-                    LOGGER.trace("CoAP delayed transaction timeout [{}]", trans.getDelayedTransId());
-                    trans.getCallback().callException(new CoapTimeoutException(trans));
+            for (CoapTransaction trans : timeoutWheel.expire(currentTime)) {
+                if (trans.getDelayedTransId() != null) {
+                    delayedTransactionTimeout(trans);
+                } else {
+                    resendTimeout(trans, currentTime);
                 }
             }
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
         }
     }
+
+    private void resendTimeout(CoapTransaction trans, long currentTime) {
+        if (trans.isRemoved()) {
+            //completed after timeout expired
+            return;
+        }
+        if (trans.isSendPending()) {
+            //previous transmission still waits in outbound pacer
+            trans.postponeTimeout(currentTime);
+            return;
+        }
+        LOGGER.trace("resendTimeouts: try to resend timed out transaction [{}]", trans);
+        if (!trans.send(currentTime)) {
+            //final timeout, cannot resend, remove transaction unless it has been just completed
+            if (!transMgr.removeAndLock(trans.getTransactionId()).isPresent()) {
+                return;
+            }
+            removeCoapTransId(trans.getTransactionId());
+            LOGGER.trace("resendTimeouts: CoAP transaction final timeout [{}]", trans);
+            trans.getCallback().callException(new CoapTimeoutException(trans));
+        } else {
+            if (trans.getCallback() instanceof CoapTransactionCallback) {
+                ((CoapTransactionCallback) trans.getCallback()).messageResent();
+            }
+        }
+    }
+
+    private void delayedTransactionTimeout(CoapTransaction trans) {
+        if (delayedTransMagr.remove(trans.getDelayedTransId(), trans)) {
+            LOGGER.trace("CoAP delayed transaction timeout [{}]", trans.getDelayedTransId());
+            trans.getCallback().callException(new CoapTimeoutException(trans));
+        }
+    }
 }
@@ -31,6 +31,14 @@ public class DelayedTransactionId {
         this.source = source;
     }
 
+    public byte[] getToken() {
+        return token;
+    }
+
+    public InetSocketAddress getSource() {
+        return source;
+    }
+
     public boolean hasRemoteAddress(InetSocketAddress adr) {
         return source.equals(adr);
     }
@@ -15,11 +15,8 @@
  */
 package com.mbed.coap.server.internal;
 
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import com.mbed.coap.utils.TokenIndex;
+import java.net.InetSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,32 +26,45 @@ import org.slf4j.LoggerFactory;
 public class DelayedTransactionManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DelayedTransactionManager.class.getName());
-    private final ConcurrentMap<DelayedTransactionId, CoapTransaction> transactions = new ConcurrentHashMap<>();
+    private final TokenIndex<CoapTransaction> transactions = new TokenIndex<>();
 
     public void add(DelayedTransactionId delayedTransactionId, CoapTransaction trans) {
         trans.setDelayedTransId(delayedTransactionId);
-        transactions.put(delayedTransactionId, trans);
+        CoapTransaction prev = transactions.put(delayedTransactionId.getSource(), delayedTransactionId.getToken(), trans);
+        if (prev != null && prev != trans) {
+            prev.cancelTimeout();
+        }
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Added delayed transaction: " + delayedTransactionId);
         }
     }
 
     public CoapTransaction find(DelayedTransactionId delayedTransactionId) {
-        return transactions.get(delayedTransactionId);
+        return find(delayedTransactionId.getToken(), delayedTransactionId.getSource());
+    }
+
+    public CoapTransaction find(byte[] token, InetSocketAddress source) {
+        return transactions.get(source, token);
     }
 
     public void remove(DelayedTransactionId delayedTransactionId) {
-        transactions.remove(delayedTransactionId);
+        CoapTransaction trans = transactions.remove(delayedTransactionId.getSource(), delayedTransactionId.getToken());
+        if (trans != null) {
+            trans.cancelTimeout();
+        }
     }
 
-    public Collection<CoapTransaction> findTimeoutTransactions(final long currentTime) {
-        Collection<CoapTransaction> transTimeOut = new LinkedList<>();
-        for (Map.Entry<DelayedTransactionId, CoapTransaction> trans : transactions.entrySet()) {
-            if (trans.getValue().isTimedOut(currentTime)) {
-                transTimeOut.add(trans.getValue());
-            }
+    /**
+     * Removes transaction only if it is still registered for given id.
+     *
+     * @return true if removed
+     */
+    boolean remove(DelayedTransactionId delayedTransactionId, CoapTransaction trans) {
+        if (transactions.remove(delayedTransactionId.getSource(), delayedTransactionId.getToken(), trans)) {
+            trans.cancelTimeout();
+            return true;
         }
-        return transTimeOut;
+        return false;
     }
 
 }
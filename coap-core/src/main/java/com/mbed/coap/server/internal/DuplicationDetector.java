@@ -17,34 +17,48 @@ package com.mbed.coap.server.internal;
 
 import com.mbed.coap.packet.CoapPacket;
 import java.net.InetSocketAddress;
-import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Checks if incoming request has been repeated
+ * <p>
+ * Responses are kept serialized, as they were sent. Request ids are looked up in a single index, and additionally
+ * linked into a ring of time buckets, one per second of duplication timeout (or finer for short timeouts), that are
+ * used only for expiry. Expired bucket is dropped as a whole, and when maximum size is exceeded, entries are evicted
+ * from the oldest bucket first, in order of adding.
+ * </p>
  *
  * @author szymon
  */
-public class DuplicationDetector implements Runnable {
+public class DuplicationDetector implements MessageDuplicationDetector, Runnable {
 
-    public static final CoapPacket EMPTY_COAP_PACKET = new CoapPacket(null);
+    public static final byte[] NO_RESPONSE = new byte[0];
     private static final Logger LOGGER = LoggerFactory.getLogger(DuplicationDetector.class.getName());
     public static final int WARN_FREQ_MILLI = 10000; //show warning message maximum every 10 seconds
+    private static final long MAX_BUCKET_WIDTH = 1000;
+    private static final int MIN_BUCKETS = 10;
 
     private final Lock REDUCE_LOCK = new ReentrantLock();
-    private final long requestIdTimeout;
+    private final long bucketWidth;
+    private final ConcurrentMap<CoapRequestId, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final AtomicLong size = new AtomicLong();
     private final long maxSize;
-    private final ConcurrentMap<CoapRequestId, CoapPacket> requestMap = new ConcurrentHashMap<>();
     private long cleanDelayMili = 10000;
     private final ScheduledExecutorService scheduledExecutor;
+    private final LongSupplier clock;
     private ScheduledFuture<?> cleanWorkerFut;
     private final long overSizeMargin;
     private long nextWarnMessage;
@@ -54,44 +68,52 @@ public class DuplicationDetector implements Runnable {
     }
 
     public DuplicationDetector(TimeUnit unit, long duplicationTimeout, long maxSize, ScheduledExecutorService scheduledExecutor) {
-        requestIdTimeout = TimeUnit.MILLISECONDS.convert(duplicationTimeout, unit);
+        this(unit, duplicationTimeout, maxSize, scheduledExecutor, System::currentTimeMillis);
+    }
+
+    DuplicationDetector(TimeUnit unit, long duplicationTimeout, long maxSize, ScheduledExecutorService scheduledExecutor, LongSupplier clock) {
+        long requestIdTimeout = TimeUnit.MILLISECONDS.convert(duplicationTimeout, unit);
+        this.bucketWidth = Math.max(1, Math.min(MAX_BUCKET_WIDTH, requestIdTimeout / MIN_BUCKETS));
+        //one extra bucket, so that entry lives at least for duplication timeout
+        this.buckets = new AtomicReferenceArray<>((int) ((requestIdTimeout + bucketWidth - 1) / bucketWidth) + 1);
         this.maxSize = maxSize;
         this.overSizeMargin = maxSize / 100; //1%
         this.scheduledExecutor = scheduledExecutor;
+        this.clock = clock;
         LOGGER.debug("Coap duplicate detector init (max traffic: " + (int) (maxSize / (requestIdTimeout / 1000.0d)) + " msg/sec)");
     }
 
+    @Override
     public void start() {
         cleanWorkerFut = scheduledExecutor.scheduleWithFixedDelay(this, cleanDelayMili, cleanDelayMili, TimeUnit.MILLISECONDS);
     }
 
+    @Override
     public void stop() {
         cleanWorkerFut.cancel(true);
     }
 
-    public CoapPacket isMessageRepeated(CoapPacket request) {
-        CoapRequestId requestId = new CoapRequestId(request.getMessageId(), request.getRemoteAddress(), requestIdTimeout);
+    @Override
+    public byte[] isMessageRepeated(CoapPacket request) {
+        CoapRequestId requestId = new CoapRequestId(request.getMessageId(), request.getRemoteAddress());
+        long slot = clock.getAsLong() / bucketWidth;
 
-        CoapPacket resp = requestMap.putIfAbsent(requestId, EMPTY_COAP_PACKET);
-        if (resp != null) {
-            return resp;
+        Entry entry = index.get(requestId);
+        if (entry != null && isLive(entry, slot)) {
+            return entry.response;
         }
-        if (requestMap.size() > maxSize + overSizeMargin && REDUCE_LOCK.tryLock()) {
+        Entry newEntry = new Entry(requestId, slot, NO_RESPONSE);
+        if (!register(newEntry, slot)) {
+            Entry current = index.get(requestId);
+            return current != null ? current.response : NO_RESPONSE;
+        }
+
+        if (size.get() > maxSize + overSizeMargin && REDUCE_LOCK.tryLock()) {
             try {
-                //reduce map size in bulk
-                Iterator<CoapRequestId> it = requestMap.keySet().iterator();
-                try {
-                    for (int i = 0; i <= overSizeMargin && it.hasNext(); i++) {
-                        it.next();
-                        it.remove();
-                        //requestList.remove(it.next());
-                    }
-                } catch (Exception e) {
-                    LOGGER.error(e.getMessage(), e);
-                }
+                reduce(slot);
 
                 if (nextWarnMessage < System.currentTimeMillis()) {
-                    LOGGER.warn("CoAP request duplicate list has reached max size (" + maxSize + "), reduced by " + overSizeMargin);
+                    LOGGER.warn("CoAP request duplicate list has reached max size (" + maxSize + "), reduced to " + size.get());
                     nextWarnMessage = System.currentTimeMillis() + WARN_FREQ_MILLI;
                 }
             } finally {
@@ -101,20 +123,132 @@ public class DuplicationDetector implements Runnable {
         return null;
     }
 
-    public void putResponse(CoapPacket request, CoapPacket response) {
-        CoapRequestId requestId = new CoapRequestId(request.getMessageId(), request.getRemoteAddress(), requestIdTimeout);
-        requestMap.put(requestId, response);
+    @Override
+    public void putResponse(CoapPacket request, byte[] response) {
+        CoapRequestId requestId = new CoapRequestId(request.getMessageId(), request.getRemoteAddress());
+        long slot = clock.getAsLong() / bucketWidth;
+
+        while (true) {
+            //replace in entry where request was registered
+            Entry entry = index.get(requestId);
+            if (entry != null && isLive(entry, slot)) {
+                entry.response = response;
+                return;
+            }
+            if (register(new Entry(requestId, slot, response), slot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds entry to index, replacing expired one, and to current bucket.
+     *
+     * @return false if there is live entry with the same request id
+     */
+    private boolean register(Entry newEntry, long slot) {
+        while (true) {
+            Entry prev = index.putIfAbsent(newEntry.requestId, newEntry);
+            if (prev == null) {
+                size.incrementAndGet();
+                break;
+            }
+            if (isLive(prev, slot)) {
+                return false;
+            }
+            if (index.replace(newEntry.requestId, prev, newEntry)) {
+                break;
+            }
+        }
+        while (!currentBucket(slot).push(newEntry)) {
+            //bucket has been just dropped, retry with newer one
+        }
+        return true;
+    }
+
+    private boolean isLive(Entry entry, long slot) {
+        return entry.slot > slot - buckets.length();
+    }
+
+    private Bucket liveBucket(long slot) {
+        Bucket bucket = buckets.get(index(slot));
+        return (bucket != null && bucket.slot == slot) ? bucket : null;
+    }
+
+    private Bucket currentBucket(long slot) {
+        int index = index(slot);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.slot >= slot) {
+                return bucket;
+            }
+            Bucket newBucket = new Bucket(slot);
+            if (buckets.compareAndSet(index, bucket, newBucket)) {
+                drop(bucket);
+                return newBucket;
+            }
+        }
+    }
+
+    private int index(long slot) {
+        return (int) (slot % buckets.length());
+    }
+
+    private void drop(Bucket bucket) {
+        if (bucket != null) {
+            for (Entry e = bucket.close(); e != null; e = e.next) {
+                unindex(e);
+            }
+        }
     }
 
+    private int unindex(Entry entry) {
+        if (index.remove(entry.requestId, entry)) {
+            size.decrementAndGet();
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Evicts entries from the oldest buckets, in order of adding, until size is within maximum.
+     */
+    private void reduce(long slot) {
+        for (long s = slot - buckets.length() + 1; s <= slot && size.get() > maxSize; s++) {
+            Bucket bucket = liveBucket(s);
+            if (bucket == null) {
+                continue;
+            }
+            Entry oldest = bucket.takeInOrderOfAdding();
+            while (oldest != null && size.get() > maxSize) {
+                Entry next = oldest.next;
+                unindex(oldest);
+                oldest = next;
+            }
+            //put back the rest
+            while (oldest != null) {
+                Entry next = oldest.next;
+                if (!bucket.push(oldest)) {
+                    unindex(oldest);
+                }
+                oldest = next;
+            }
+        }
+    }
+
+    /**
+     * Drops expired buckets.
+     */
     @Override
     public void run() {
+        long slot = clock.getAsLong() / bucketWidth;
         int removedItems = 0;
-        Iterator<CoapRequestId> it = requestMap.keySet().iterator();
-        final long currentTimeMillis = System.currentTimeMillis();
-        while (it.hasNext()) {
-            if (!it.next().isValid(currentTimeMillis)) {
-                it.remove();
-                removedItems++;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.slot <= slot - buckets.length() && buckets.compareAndSet(i, bucket, null)) {
+                for (Entry e = bucket.close(); e != null; e = e.next) {
+                    removedItems += unindex(e);
+                }
             }
         }
         if (LOGGER.isTraceEnabled() && removedItems > 0) {
@@ -122,16 +256,90 @@ public class DuplicationDetector implements Runnable {
         }
     }
 
+    long size() {
+        return size.get();
+    }
+
+    private static class Entry {
+        private final CoapRequestId requestId;
+        private volatile long slot;
+        private volatile byte[] response;
+        private Entry next; //bucket's list
+
+        Entry(CoapRequestId requestId, long slot, byte[] response) {
+            this.requestId = requestId;
+            this.slot = slot;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Lock-free stack of entries, linked by entries themselves.
+     */
+    private static class Bucket {
+        private static final Entry CLOSED = new Entry(null, 0, null);
+        private final long slot;
+        private final AtomicReference<Entry> head = new AtomicReference<>();
+
+        Bucket(long slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * @return false if bucket has been dropped
+         */
+        boolean push(Entry entry) {
+            entry.slot = slot;
+            while (true) {
+                Entry h = head.get();
+                if (h == CLOSED) {
+                    return false;
+                }
+                entry.next = h;
+                if (head.compareAndSet(h, entry)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Closes bucket for adding and returns its entries.
+         */
+        Entry close() {
+            Entry h = head.getAndSet(CLOSED);
+            return h == CLOSED ? null : h;
+        }
+
+        /**
+         * Takes all entries, first added is returned first.
+         */
+        Entry takeInOrderOfAdding() {
+            Entry h = head.get();
+            while (h != CLOSED && !head.compareAndSet(h, null)) {
+                h = head.get();
+            }
+            if (h == CLOSED) {
+                return null;
+            }
+            Entry reversed = null;
+            while (h != null) {
+                Entry next = h.next;
+                h.next = reversed;
+                reversed = h;
+                h = next;
+            }
+            return reversed;
+        }
+    }
+
     static class CoapRequestId {
 
         private final int mid;
         private final InetSocketAddress sourceAddress;
-        private final transient long validTimeout;
 
-        public CoapRequestId(int mid, InetSocketAddress sourceAddress, long requestIdTimeout) {
+        public CoapRequestId(int mid, InetSocketAddress sourceAddress) {
             this.mid = mid;
             this.sourceAddress = sourceAddress;
-            this.validTimeout = System.currentTimeMillis() + requestIdTimeout;
         }
 
         @Override
@@ -151,10 +359,6 @@ public class DuplicationDetector implements Runnable {
             return sourceAddress != null ? sourceAddress.equals(objRequestId.sourceAddress) : objRequestId.sourceAddress == null;
         }
 
-        public boolean isValid(final long timestamp) {
-            return validTimeout > timestamp;
-        }
-
         @Override
         public int hashCode() {
             int result = mid;
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hashed timing wheel, keeps items scheduled for expiration at given time (in milliseconds). Items are hashed into
+ * buckets by deadline tick, so that scheduling, cancelling and expiring an item is O(1) and expiration does not
+ * scan all scheduled items.
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @param <T> type of scheduled item
+ */
+final class HashedTimingWheel<T> {
+
+    private final long tickMillis;
+    private final Timeout<T>[] buckets;
+    private final int mask;
+    private long currentTick = Long.MIN_VALUE;
+    private int size;
+
+    HashedTimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+        }
+        this.tickMillis = tickMillis;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Timeout<T>[] buckets = new Timeout[wheelSize];
+        this.buckets = buckets;
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedules item to expire at given time.
+     *
+     * @param item item
+     * @param deadline expiration time in milliseconds
+     * @return handle that can be used to cancel
+     */
+    synchronized Timeout<T> schedule(T item, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick);
+        Timeout<T> timeout = new Timeout<>(this, item, deadline, (int) (tick & mask));
+
+        Timeout<T> head = buckets[timeout.bucket];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Removes and returns all items with deadline not later than given time.
+     *
+     * @param currentTime current time in milliseconds
+     * @return expired items, in no particular order
+     */
+    List<T> expire(long currentTime) {
+        List<T> expired = Collections.emptyList();
+        synchronized (this) {
+            long nowTick = currentTime / tickMillis;
+            if (size > 0) {
+                long fromTick = (nowTick - currentTick >= buckets.length || currentTick == Long.MIN_VALUE) ? nowTick - mask : currentTick;
+                for (long tick = fromTick; tick <= nowTick; tick++) {
+                    expired = expireBucket((int) (tick & mask), currentTime, expired);
+                }
+            }
+            //current tick is checked again next time, it may still contain items with later deadline
+            currentTick = nowTick;
+        }
+        return expired;
+    }
+
+    private List<T> expireBucket(int bucket, long currentTime, List<T> expired) {
+        Timeout<T> timeout = buckets[bucket];
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            if (timeout.deadline <= currentTime) {
+                unlink(timeout);
+                if (expired.isEmpty()) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(timeout.item);
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.removed = true;
+        size--;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    static final class Timeout<T> {
+        private final HashedTimingWheel<T> wheel;
+        private final T item;
+        private final long deadline;
+        private final int bucket;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private boolean removed;
+
+        private Timeout(HashedTimingWheel<T> wheel, T item, long deadline, int bucket) {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadline = deadline;
+            this.bucket = bucket;
+        }
+
+        /**
+         * Removes item from timing wheel, does nothing if already expired or cancelled.
+         */
+        void cancel() {
+            synchronized (wheel) {
+                if (!removed) {
+                    wheel.unlink(this);
+                }
+            }
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import com.mbed.coap.packet.CoapPacket;
+
+/**
+ * Detects repeated incoming requests and keeps responses for them.
+ */
+interface MessageDuplicationDetector {
+
+    /**
+     * Registers request if it is seen for the first time.
+     *
+     * @return null when request is new, serialized response for repeated request or
+     * {@link DuplicationDetector#NO_RESPONSE} if there is no response yet
+     */
+    byte[] isMessageRepeated(CoapPacket request);
+
+    /**
+     * Stores response for request, as it was sent.
+     *
+     * @param request request
+     * @param response serialized response
+     */
+    void putResponse(CoapPacket request, byte[] response);
+
+    void start();
+
+    void stop();
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Multiset of message ids, open addressing with linear probing, updated in place. Writers must be serialized by
+ * caller, readers do not block: lookup is done with optimistic read and repeated under read lock only when it
+ * overlapped with modification.
+ */
+final class MessageIdSet {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final StampedLock lock = new StampedLock();
+    private int[] keys = new int[INITIAL_CAPACITY]; //message id + 1, 0 for free slot
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+
+    boolean contains(int messageId) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(keys, messageId) >= 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = find(keys, messageId) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    void add(int messageId) {
+        long stamp = lock.writeLock();
+        try {
+            int i = find(keys, messageId);
+            if (i >= 0) {
+                counts[i]++;
+                return;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            insert(keys, counts, messageId + 1, 1);
+            size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void remove(int messageId) {
+        long stamp = lock.writeLock();
+        try {
+            int i = find(keys, messageId);
+            if (i < 0 || --counts[i] > 0) {
+                return;
+            }
+            //backward shift deletion, keeps probe sequences without tombstones
+            int mask = keys.length - 1;
+            int hole = i;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                int key = keys[j];
+                if (key == 0) {
+                    break;
+                }
+                int home = slot(key - 1, mask);
+                boolean canMove = (j > hole) ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (canMove) {
+                    keys[hole] = key;
+                    counts[hole] = counts[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = 0;
+            counts[hole] = 0;
+            size--;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        int[] newKeys = new int[capacity];
+        int[] newCounts = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                insert(newKeys, newCounts, keys[i], counts[i]);
+            }
+        }
+        keys = newKeys;
+        counts = newCounts;
+    }
+
+    private static void insert(int[] keys, int[] counts, int key, int count) {
+        int mask = keys.length - 1;
+        int i = slot(key - 1, mask);
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        counts[i] = count;
+    }
+
+    //may run concurrently with modification, must not fail or loop forever on inconsistent table
+    private static int find(int[] keys, int messageId) {
+        int mask = keys.length - 1;
+        int i = slot(messageId, mask);
+        for (int n = 0; n < keys.length; n++) {
+            int key = keys[i];
+            if (key == 0) {
+                return -1;
+            }
+            if (key == messageId + 1) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int slot(int messageId, int mask) {
+        int h = messageId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import com.mbed.coap.packet.CoapPacket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Duplication detector that keeps its data outside of java heap, so that it can hold tens of millions of entries
+ * without GC overhead.
+ * <p>
+ * Request ids (IP address, port, message id) are packed into longs and kept in open-addressed tables (linear probing)
+ * in direct buffers. Responses are serialized into circular off-heap arena, when response is overwritten by newer
+ * ones, repeated request is still detected but response is not resent. Tables are split into segments, each guarded
+ * by own lock.
+ * </p>
+ * <p>
+ * When a segment is full, expired entries are removed, and if there is still no space, new request is not
+ * registered.
+ * </p>
+ */
+public class OffHeapDuplicationDetector implements MessageDuplicationDetector, Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapDuplicationDetector.class.getName());
+    private static final int SEGMENTS = 16;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 25;
+    private static final int CLEAN_CHUNK = 4096;
+
+    private final long requestIdTimeout;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ScheduledExecutorService scheduledExecutor;
+    private final LongSupplier clock;
+    private long cleanDelayMili = 10000;
+    private ScheduledFuture<?> cleanWorkerFut;
+    private volatile long nextWarnMessage;
+
+    /**
+     * @param unit time unit of duplication timeout
+     * @param duplicationTimeout time to keep request ids
+     * @param maxSize maximum number of request ids
+     * @param responseArenaSize size in bytes of off-heap memory for responses
+     * @param scheduledExecutor executor for removing expired entries
+     */
+    public OffHeapDuplicationDetector(TimeUnit unit, long duplicationTimeout, long maxSize, long responseArenaSize, ScheduledExecutorService scheduledExecutor) {
+        this(unit, duplicationTimeout, maxSize, responseArenaSize, scheduledExecutor, System::currentTimeMillis);
+    }
+
+    OffHeapDuplicationDetector(TimeUnit unit, long duplicationTimeout, long maxSize, long responseArenaSize, ScheduledExecutorService scheduledExecutor, LongSupplier clock) {
+        if (maxSize <= 0 || responseArenaSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        long segmentEntries = (maxSize + SEGMENTS - 1) / SEGMENTS;
+        //keep load factor below 0.5
+        long capacity = Long.highestOneBit(segmentEntries * 2 - 1) << 1;
+        long arenaSize = responseArenaSize / SEGMENTS;
+        if (capacity > MAX_SEGMENT_CAPACITY || arenaSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Maximum size of off-heap duplication detector exceeded");
+        }
+
+        this.requestIdTimeout = TimeUnit.MILLISECONDS.convert(duplicationTimeout, unit);
+        this.scheduledExecutor = scheduledExecutor;
+        this.clock = clock;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment((int) capacity, (int) segmentEntries, (int) arenaSize);
+        }
+        LOGGER.debug("Coap off-heap duplicate detector init (entries: " + maxSize + ", table: "
+                + (capacity * Segment.SLOT_SIZE * SEGMENTS) + "B, responses: " + responseArenaSize + "B)");
+    }
+
+    public void setCleanDelayMili(long cleanDelayMili) {
+        this.cleanDelayMili = cleanDelayMili;
+    }
+
+    @Override
+    public void start() {
+        cleanWorkerFut = scheduledExecutor.scheduleWithFixedDelay(this, cleanDelayMili, cleanDelayMili, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        cleanWorkerFut.cancel(true);
+    }
+
+    @Override
+    public byte[] isMessageRepeated(CoapPacket request) {
+        InetSocketAddress adr = request.getRemoteAddress();
+        long addrHi = addressHi(adr);
+        long addrLo = addressLo(adr);
+        long portMid = portMid(adr, request.getMessageId());
+        long hash = hash(addrHi, addrLo, portMid);
+
+        Segment segment = segments[(int) (hash >>> 60)];
+        byte[] resp;
+        synchronized (segment) {
+            resp = segment.findOrAdd(addrHi, addrLo, portMid, hash, clock.getAsLong(), requestIdTimeout);
+        }
+
+        if (resp == Segment.FULL) {
+            warnFull();
+            return null;
+        }
+        return resp;
+    }
+
+    @Override
+    public void putResponse(CoapPacket request, byte[] response) {
+        InetSocketAddress adr = request.getRemoteAddress();
+        long addrHi = addressHi(adr);
+        long addrLo = addressLo(adr);
+        long portMid = portMid(adr, request.getMessageId());
+        long hash = hash(addrHi, addrLo, portMid);
+
+        Segment segment = segments[(int) (hash >>> 60)];
+        boolean added;
+        synchronized (segment) {
+            added = segment.putResponse(addrHi, addrLo, portMid, hash, response, clock.getAsLong(), requestIdTimeout);
+        }
+        if (!added) {
+            warnFull();
+        }
+    }
+
+    /**
+     * Removes expired entries, segment is locked only for a chunk of slots at a time.
+     */
+    @Override
+    public void run() {
+        int removedItems = 0;
+        for (Segment segment : segments) {
+            for (int from = 0; from < segment.capacity; from += CLEAN_CHUNK) {
+                synchronized (segment) {
+                    removedItems += segment.removeExpired(from, Math.min(from + CLEAN_CHUNK, segment.capacity), clock.getAsLong());
+                }
+            }
+        }
+        if (LOGGER.isTraceEnabled() && removedItems > 0) {
+            LOGGER.trace("CoAP request duplicate list, non valid items removed: " + removedItems + " ");
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private void warnFull() {
+        if (nextWarnMessage < System.currentTimeMillis()) {
+            LOGGER.warn("CoAP request duplicate list is full, request not registered");
+            nextWarnMessage = System.currentTimeMillis() + DuplicationDetector.WARN_FREQ_MILLI;
+        }
+    }
+
+    static long addressHi(InetSocketAddress adr) {
+        InetAddress address = adr.getAddress();
+        if (address == null) {
+            //unresolved
+            return Long.MIN_VALUE;
+        }
+        if (address instanceof Inet4Address) {
+            return 0;
+        }
+        return ByteBuffer.wrap(address.getAddress()).getLong(0);
+    }
+
+    static long addressLo(InetSocketAddress adr) {
+        InetAddress address = adr.getAddress();
+        if (address == null) {
+            return adr.getHostString().hashCode();
+        }
+        byte[] raw = address.getAddress();
+        if (raw.length == 4) {
+            //IPv4-mapped IPv6 address
+            return 0xFFFF_0000_0000L | (ByteBuffer.wrap(raw).getInt(0) & 0xFFFF_FFFFL);
+        }
+        return ByteBuffer.wrap(raw).getLong(8);
+    }
+
+    static long portMid(InetSocketAddress adr, int mid) {
+        return Segment.USED | ((long) adr.getPort() << 16) | (mid & 0xFFFF);
+    }
+
+    static long hash(long addrHi, long addrLo, long portMid) {
+        long h = addrHi * 0x9E3779B97F4A7C15L + addrLo;
+        h = h * 0x9E3779B97F4A7C15L + portMid;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Open-addressed table with slots: address high bits, address low bits, used flag | port | mid, expiration time,
+     * response reference (arena position and length). Not thread safe.
+     */
+    static class Segment {
+        static final int SLOT_SIZE = 40;
+        static final long USED = 1L << 48;
+        static final byte[] FULL = new byte[0];
+        private static final byte[] NO_RESPONSE = DuplicationDetector.NO_RESPONSE;
+        private static final int ADDR_HI = 0;
+        private static final int ADDR_LO = 8;
+        private static final int PORT_MID = 16;
+        private static final int EXPIRATION = 24;
+        private static final int RESPONSE = 32;
+        private static final long FULL_CLEANUP_DELAY = 100;
+
+        private final int capacity;
+        private final int mask;
+        private final int maxEntries;
+        private final ByteBuffer table;
+        private final ByteBuffer arena;
+        private long arenaWritePosition;
+        private int size;
+        private long nextFullCleanup;
+
+        Segment(int capacity, int maxEntries, int arenaSize) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxEntries = maxEntries;
+            this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            this.arena = ByteBuffer.allocateDirect(arenaSize);
+        }
+
+        /**
+         * @return null if request is new, NO_RESPONSE when repeated without response, FULL if not added
+         */
+        byte[] findOrAdd(long addrHi, long addrLo, long portMid, long hash, long now, long timeout) {
+            int index = find(addrHi, addrLo, portMid, hash);
+            if (index >= 0) {
+                int offset = index * SLOT_SIZE;
+                if (table.getLong(offset + EXPIRATION) > now) {
+                    return readResponse(table.getLong(offset + RESPONSE));
+                }
+                //expired, register again
+                table.putLong(offset + EXPIRATION, now + timeout);
+                table.putLong(offset + RESPONSE, 0);
+                return null;
+            }
+            return add(addrHi, addrLo, portMid, hash, now, timeout, 0) ? null : FULL;
+        }
+
+        boolean putResponse(long addrHi, long addrLo, long portMid, long hash, byte[] response, long now, long timeout) {
+            long responseRef = writeResponse(response);
+            int index = find(addrHi, addrLo, portMid, hash);
+            if (index >= 0) {
+                table.putLong(index * SLOT_SIZE + RESPONSE, responseRef);
+                return true;
+            }
+            return add(addrHi, addrLo, portMid, hash, now, timeout, responseRef);
+        }
+
+        private boolean add(long addrHi, long addrLo, long portMid, long hash, long now, long timeout, long responseRef) {
+            if (size >= maxEntries) {
+                //avoid scanning full table for every request when nothing expires
+                if (now < nextFullCleanup || removeExpired(0, capacity, now) == 0) {
+                    nextFullCleanup = now + FULL_CLEANUP_DELAY;
+                    return false;
+                }
+            }
+            int index = (int) hash & mask;
+            while ((table.getLong(index * SLOT_SIZE + PORT_MID) & USED) != 0) {
+                index = (index + 1) & mask;
+            }
+            int offset = index * SLOT_SIZE;
+            table.putLong(offset + ADDR_HI, addrHi);
+            table.putLong(offset + ADDR_LO, addrLo);
+            table.putLong(offset + PORT_MID, portMid);
+            table.putLong(offset + EXPIRATION, now + timeout);
+            table.putLong(offset + RESPONSE, responseRef);
+            size++;
+            return true;
+        }
+
+        private int find(long addrHi, long addrLo, long portMid, long hash) {
+            int index = (int) hash & mask;
+            while (true) {
+                int offset = index * SLOT_SIZE;
+                long slotPortMid = table.getLong(offset + PORT_MID);
+                if ((slotPortMid & USED) == 0) {
+                    return -1;
+                }
+                if (slotPortMid == portMid && table.getLong(offset + ADDR_LO) == addrLo && table.getLong(offset + ADDR_HI) == addrHi) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        int removeExpired(int from, int to, long now) {
+            int removed = 0;
+            for (int index = from; index < to; index++) {
+                //deleting shifts following entries back, check the same slot again
+                while ((table.getLong(index * SLOT_SIZE + PORT_MID) & USED) != 0 && table.getLong(index * SLOT_SIZE + EXPIRATION) <= now) {
+                    delete(index);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        private void delete(int index) {
+            int hole = index;
+            int next = index;
+            while (true) {
+                next = (next + 1) & mask;
+                int offset = next * SLOT_SIZE;
+                long portMid = table.getLong(offset + PORT_MID);
+                if ((portMid & USED) == 0) {
+                    break;
+                }
+                int home = (int) hash(table.getLong(offset + ADDR_HI), table.getLong(offset + ADDR_LO), portMid) & mask;
+                //move back if home slot is not cyclically between hole and next
+                boolean movable = (hole <= next) ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    copySlot(next, hole);
+                    hole = next;
+                }
+            }
+            table.putLong(hole * SLOT_SIZE + PORT_MID, 0);
+            size--;
+        }
+
+        private void copySlot(int from, int to) {
+            for (int i = 0; i < SLOT_SIZE; i += 8) {
+                table.putLong(to * SLOT_SIZE + i, table.getLong(from * SLOT_SIZE + i));
+            }
+        }
+
+        /**
+         * @return reference: arena position (upper 48 bits) and length (lower 16 bits), or 0 if not stored
+         */
+        private long writeResponse(byte[] response) {
+            int length = response.length;
+            int arenaSize = arena.capacity();
+            if (length == 0 || length > 0xFFFF || length > arenaSize) {
+                return 0;
+            }
+            long position = arenaWritePosition;
+            int offset = (int) (position % arenaSize);
+            if (offset + length > arenaSize) {
+                //do not wrap, start from arena beginning
+                position += arenaSize - offset;
+                offset = 0;
+            }
+            ByteBuffer buf = arena.duplicate();
+            buf.position(offset);
+            buf.put(response);
+            arenaWritePosition = position + length;
+            return (position << 16) | length;
+        }
+
+        private byte[] readResponse(long responseRef) {
+            if (responseRef == 0) {
+                return NO_RESPONSE;
+            }
+            long position = responseRef >>> 16;
+            int length = (int) (responseRef & 0xFFFF);
+            if (position < arenaWritePosition - arena.capacity()) {
+                //overwritten
+                return NO_RESPONSE;
+            }
+            byte[] data = new byte[length];
+            ByteBuffer buf = arena.duplicate();
+            buf.position((int) (position % arena.capacity()));
+            buf.get(data);
+            return data;
+        }
+    }
+}
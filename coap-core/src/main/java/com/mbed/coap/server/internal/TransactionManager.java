@@ -18,14 +18,14 @@ package com.mbed.coap.server.internal;
 import com.mbed.coap.exception.TooManyRequestsForEndpointException;
 import com.mbed.coap.packet.CoapPacket;
 import com.mbed.coap.packet.MessageType;
-import com.mbed.coap.server.internal.TransactionQueue.QueueUpdateResult;
+import com.mbed.coap.server.NStartSupplier;
+import com.mbed.coap.utils.TokenIndex;
 import java.net.InetSocketAddress;
-import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +36,9 @@ public class TransactionManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TransactionManager.class.getName());
     private final ConcurrentHashMap<InetSocketAddress, TransactionQueue> transactionQueues = new ConcurrentHashMap<>();
+    private final TokenIndex<CoapTransaction> tokenIndex = new TokenIndex<>();
     private int maximumEndpointQueueSize = 100;
+    private NStartSupplier nstartSupplier = NStartSupplier.DEFAULT;
 
 
     public void setMaximumEndpointQueueSize(int maximumEndpointQueueSize) {
@@ -46,53 +48,77 @@ public class TransactionManager {
         this.maximumEndpointQueueSize = maximumEndpointQueueSize;
     }
 
+    public void setNStartSupplier(NStartSupplier nstartSupplier) {
+        if (nstartSupplier == null) {
+            throw new NullPointerException();
+        }
+        this.nstartSupplier = nstartSupplier;
+    }
+
     boolean addTransactionAndGetReadyToSend(CoapTransaction transaction) throws TooManyRequestsForEndpointException {
         return addTransactionAndGetReadyToSend(transaction, false);
     }
 
-    @SuppressWarnings("PMD.PrematureDeclaration") //false positive
     public boolean addTransactionAndGetReadyToSend(CoapTransaction transaction, boolean forceAdd) throws TooManyRequestsForEndpointException {
         AtomicBoolean queueOverflow = new AtomicBoolean(false);
+        AtomicBoolean readyToSend = new AtomicBoolean(false);
 
-        TransactionQueue inserted = transactionQueues.compute(transaction.getTransactionId().getAddress(), (address, coapTransactions) -> {
-            if (coapTransactions == null) {
-                return TransactionQueue.of(transaction);
-            } else {
-                return coapTransactions.add(transaction, forceAdd, maximumEndpointQueueSize, queueOverflow);
+        transactionQueues.compute(transaction.getTransactionId().getAddress(), (address, coapTransactions) -> {
+            TransactionQueue queue = coapTransactions != null ? coapTransactions : new TransactionQueue(tokenIndex, nstartSupplier.getNStart(address));
+            if (!queue.add(transaction, forceAdd, maximumEndpointQueueSize)) {
+                queueOverflow.set(true);
+                return coapTransactions;
             }
+            readyToSend.set(queue.releaseIfReady(transaction));
+            return queue;
         });
 
         if (queueOverflow.get()) {
             throw new TooManyRequestsForEndpointException("TOO_MANY_REQUESTS maximum allowed per endpoint " + maximumEndpointQueueSize);
         }
 
-        return inserted.size() == 1 && inserted.notLocked();
+        return readyToSend.get();
     }
 
     public Optional<CoapTransaction> removeAndLock(CoapTransactionId transId) {
         AtomicReference<Optional<CoapTransaction>> transactionFound = new AtomicReference<>(Optional.empty());
 
         transactionQueues.computeIfPresent(transId.getAddress(), (address, coapTransactions) -> {
-            QueueUpdateResult result = coapTransactions.removeAndLock(transId);
-
-            transactionFound.set(result.coapTransaction);
-            return result.transactionQueue;
+            transactionFound.set(coapTransactions.removeAndLock(transId));
+            return coapTransactions;
         });
 
         return transactionFound.get();
     }
 
     public Optional<CoapTransaction> unlockOrRemoveAndGetNext(CoapTransactionId transId) {
+        AtomicReference<Optional<CoapTransaction>> next = new AtomicReference<>(Optional.empty());
+
+        transactionQueues.computeIfPresent(transId.getAddress(), (address, coapTransactions) -> {
+            next.set(coapTransactions.unlockOrRemove(transId));
+            return coapTransactions.isEmpty() ? null : coapTransactions;
+        });
 
-        return Optional.ofNullable(
-                transactionQueues.computeIfPresent(transId.getAddress(),
-                        (address, coapTransactions) -> coapTransactions.unlockOrRemove(transId).orElse(null)
-                )
-        ).flatMap(TransactionQueue::head);
+        return next.get();
+    }
+
+    /**
+     * @return true if message id is used by a transaction to given endpoint
+     */
+    public boolean isMessageIdInUse(InetSocketAddress endpoint, int messageId) {
+        TransactionQueue queue = transactionQueues.get(endpoint);
+        return queue != null && queue.containsMessageId(messageId);
     }
 
     public int getNumberOfTransactions() {
-        return transactionQueues.values().stream().mapToInt(TransactionQueue::size).sum();
+        AtomicInteger counter = new AtomicInteger();
+        for (InetSocketAddress address : transactionQueues.keySet()) {
+            transactionQueues.computeIfPresent(address, (adr, coapTransactions) -> {
+                counter.addAndGet(coapTransactions.size());
+                return coapTransactions;
+            });
+        }
+        return counter.get();
     }
 
 
@@ -103,10 +129,8 @@ public class TransactionManager {
             AtomicReference<Optional<CoapTransaction>> transactionFound = new AtomicReference<>(Optional.empty());
 
             transactionQueues.computeIfPresent(req.getRemoteAddress(), (address, coapTransactions) -> {
-                QueueUpdateResult result = coapTransactions.findAndRemoveSeparateResponse(req);
-
-                transactionFound.set(result.coapTransaction);
-                return result.transactionQueue;
+                transactionFound.set(coapTransactions.findAndRemoveSeparateResponse(req));
+                return coapTransactions.isEmpty() ? null : coapTransactions;
             });
 
             return transactionFound.get();
@@ -118,12 +142,4 @@ public class TransactionManager {
         }
     }
 
-    public Collection<CoapTransaction> findTimeoutTransactions(final long currentTime) {
-        Collection<CoapTransaction> ret = transactionQueues.values().stream()
-                .flatMap(TransactionQueue::stream)
-                .filter(trans -> trans.isTimedOut(currentTime))
-                .collect(Collectors.toList());
-        return ret;
-    }
-
 }
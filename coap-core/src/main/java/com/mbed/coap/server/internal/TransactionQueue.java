@@ -17,190 +17,300 @@ package com.mbed.coap.server.internal;
 
 import com.mbed.coap.packet.CoapPacket;
 import com.mbed.coap.packet.MessageType;
+import com.mbed.coap.utils.TokenIndex;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 /**
- * Immutable object that holds transaction queue.
- *
+ * Mutable transaction queue for single endpoint. Transactions are kept in ring buffers, one per priority,
+ * in order of adding. Transactions with token are also registered in token index, used to match separate responses.
+ * When there are more transactions with the same token, only the first one is indexed, others are found by scanning
+ * the queue.
+ * <p>
+ * Up to NSTART transactions are released for sending at the same time, a transaction that is being handled after
+ * response (locked) also counts as in-flight.
+ * </p>
+ * <p>
+ * Not thread safe, all access must be guarded by caller (TransactionManager uses ConcurrentHashMap.compute lock),
+ * except {@link #containsMessageId(int)} that reads message ids in use without blocking.
+ * </p>
  * Created by szymon
  */
 public class TransactionQueue {
-    private static final TransactionQueue EMPTY = new TransactionQueue(Collections.emptyList(), Optional.empty());
 
-    public static TransactionQueue of() {
-        return EMPTY;
-    }
+    private final TransactionRing[] rings = new TransactionRing[CoapTransaction.Priority.values().length];
+    private int size;
+    private int released;
+    private final List<CoapTransactionId> lockedTransactions = new ArrayList<>(1);
+    private final TokenIndex<CoapTransaction> tokenIndex;
+    private final int nstart;
+    private final MessageIdSet messageIds = new MessageIdSet();
 
-    public static TransactionQueue of(CoapTransaction trans) {
-        return new TransactionQueue(Collections.singletonList(trans), Optional.empty());
+    public TransactionQueue() {
+        this(new TokenIndex<>(), 1);
     }
 
-    //DO NOT EXPOSE THIS:
-    private final List<CoapTransaction> transactions;
-    private final Optional<CoapTransactionId> lockedTransaction;
-
-    //KEEP PRIVATE
-    private TransactionQueue(List<CoapTransaction> transactions, Optional<CoapTransactionId> lockedTransaction) {
-        this.transactions = transactions;
-        this.lockedTransaction = lockedTransaction;
+    TransactionQueue(TokenIndex<CoapTransaction> tokenIndex, int nstart) {
+        if (nstart < 1) {
+            throw new IllegalArgumentException("NSTART must be positive");
+        }
+        this.tokenIndex = tokenIndex;
+        this.nstart = nstart;
     }
 
     public Optional<CoapTransaction> head() {
-        if (transactions.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(transactions.get(0));
+        for (TransactionRing ring : rings) {
+            if (ring != null && ring.size > 0) {
+                return Optional.of(ring.get(0));
+            }
         }
+        return Optional.empty();
     }
 
-
-    //TODO: return option
-    public TransactionQueue add(CoapTransaction transaction, boolean forceAdd, int maximumSize, AtomicBoolean queueOverflow) {
-        int lockedNum = lockedTransaction.isPresent() ? 1 : 0;
-
-        if (!forceAdd && (transactions.size() + lockedNum) >= maximumSize) {
-            queueOverflow.set(true);
-            return this;
-        } else {
-            queueOverflow.set(false);
-            return add(transaction);
+    /**
+     * Adds transaction to the end of queue with same priority.
+     *
+     * @return false if queue is full and transaction was not added
+     */
+    public boolean add(CoapTransaction transaction, boolean forceAdd, int maximumSize) {
+        if (!forceAdd && (size + lockedTransactions.size()) >= maximumSize) {
+            return false;
         }
-    }
-
-    private TransactionQueue add(CoapTransaction transaction) {
-        List<CoapTransaction> ret = new ArrayList<>(transactions.size() + 1);
 
-        CoapTransaction last = null;
-        boolean added = false;
-
-        for (CoapTransaction existing : transactions) {
-            if (!added &&
-                    (last == null || last.getTransactionPriority().ordinal() == transaction.getTransactionPriority().ordinal())
-                    && existing.getTransactionPriority().ordinal() > transaction.getTransactionPriority().ordinal()) {
-                ret.add(transaction);
-                added = true;
-            }
-            ret.add(existing);
-            last = existing;
+        int priority = transaction.getTransactionPriority().ordinal();
+        if (rings[priority] == null) {
+            rings[priority] = new TransactionRing();
         }
+        rings[priority].add(transaction);
+        size++;
+        messageIds.add(transaction.getCoapRequest().getMessageId());
 
-        if (!added) {
-            ret.add(transaction);
+        CoapPacket request = transaction.getCoapRequest();
+        if (request.getToken().length > 0) {
+            tokenIndex.putIfAbsent(request.getRemoteAddress(), request.getToken(), transaction);
         }
+        return true;
+    }
 
-        return new TransactionQueue(ret, lockedTransaction);
+    /**
+     * Releases just added transaction for sending, if there is free in-flight slot and no other transaction is
+     * waiting.
+     *
+     * @return true if transaction should be sent
+     */
+    public boolean releaseIfReady(CoapTransaction transaction) {
+        if (released + lockedTransactions.size() < nstart && size - released == 1 && !transaction.isReleased()) {
+            transaction.setReleased(true);
+            released++;
+            return true;
+        }
+        return false;
     }
 
-    private int findPosition(Predicate<CoapTransaction> predicate) {
-        int i = 0;
-        for (CoapTransaction trans : transactions) {
-            if (predicate.test(trans)) {
-                return i;
-            }
-            i++;
+    /**
+     * Unlocks or removes transaction and releases next waiting one if there is free in-flight slot.
+     *
+     * @return transaction to be sent
+     */
+    public Optional<CoapTransaction> unlockOrRemove(CoapTransactionId transId) {
+        if (lockedTransactions.remove(transId)) {
+            messageIds.remove(transId.getMessageId());
+        } else {
+            remove(transId::matches, true);
         }
-        return -1;
+        return releaseNext();
     }
 
-    public Optional<TransactionQueue> unlockOrRemove(CoapTransactionId transId) {
-        if (lockedTransaction.filter(transId::equals).isPresent()) {
-            if (transactions.isEmpty()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(new TransactionQueue(transactions, Optional.empty()));
+    private Optional<CoapTransaction> releaseNext() {
+        if (released + lockedTransactions.size() >= nstart || released == size) {
+            return Optional.empty();
+        }
+        for (TransactionRing ring : rings) {
+            if (ring == null) {
+                continue;
             }
-        } else {
-            int pos = findPosition(transId::matches);
-
-            if (pos >= 0) {
-                List<CoapTransaction> newTransactions = removeFromTransactionList(pos);
-                if (newTransactions.isEmpty() && !lockedTransaction.isPresent()) {
-                    return Optional.empty();
-                } else {
-                    return Optional.of(new TransactionQueue(newTransactions, lockedTransaction));
+            for (int i = 0; i < ring.size; i++) {
+                CoapTransaction trans = ring.get(i);
+                if (!trans.isReleased()) {
+                    trans.setReleased(true);
+                    released++;
+                    return Optional.of(trans);
                 }
             }
-            return Optional.of(this);
         }
+        return Optional.empty();
     }
 
-    private List<CoapTransaction> removeFromTransactionList(int removePos) {
-        List<CoapTransaction> newTransList = new ArrayList<>(transactions.size() - 1);
+    public Optional<CoapTransaction> removeAndLock(CoapTransactionId transId) {
+        //locked transaction keeps its message id
+        CoapTransaction removedTransaction = remove(transId::matches, false);
+        if (removedTransaction != null) {
+            lockedTransactions.add(transId);
+        }
+        return Optional.ofNullable(removedTransaction);
+    }
 
-        for (int i = 0; i < transactions.size(); i++) {
-            if (i != removePos) {
-                newTransList.add(transactions.get(i));
-            }
+    void lock(CoapTransactionId transId) {
+        if (lockedTransactions.size() >= nstart) {
+            throw new IllegalStateException();
         }
-        return newTransList;
+        lockedTransactions.add(transId);
+        messageIds.add(transId.getMessageId());
     }
 
-    public QueueUpdateResult removeAndLock(CoapTransactionId transId) {
-        int pos = findPosition(transId::matches);
-        if (pos < 0) {
-            return new QueueUpdateResult(this, Optional.empty());
+    public Optional<CoapTransaction> findAndRemoveSeparateResponse(CoapPacket req) {
+        CoapTransaction trans = tokenIndex.get(req.getRemoteAddress(), req.getToken());
+        if (trans == null) {
+            return Optional.empty();
+        }
+        if (!isMatchForSeparateResponse(trans, req)) {
+            //only first transaction with the same token is indexed, look for other active one
+            trans = findActive(req.getToken());
+            if (trans == null || !isMatchForSeparateResponse(trans, req)) {
+                return Optional.empty();
+            }
         }
 
-        CoapTransaction removedTransaction = transactions.get(pos);
-        return new QueueUpdateResult(new TransactionQueue(removeFromTransactionList(pos), Optional.of(transId)), Optional.of(removedTransaction));
+        //note, not locking!
+        remove(trans::equals, true);
+        return Optional.of(trans);
     }
 
-    TransactionQueue lock(CoapTransactionId transId) {
-        if (lockedTransaction.isPresent()) {
-            throw new IllegalStateException();
+    private CoapTransaction findActive(byte[] token) {
+        for (TransactionRing ring : rings) {
+            if (ring == null) {
+                continue;
+            }
+            for (int i = 0; i < ring.size; i++) {
+                CoapTransaction trans = ring.get(i);
+                if (trans.isActive() && Arrays.equals(trans.getCoapRequest().getToken(), token)) {
+                    return trans;
+                }
+            }
         }
-
-        return new TransactionQueue(this.transactions, Optional.of(transId));
+        return null;
     }
 
-    public QueueUpdateResult findAndRemoveSeparateResponse(CoapPacket req) {
-        int pos = findPosition(trans -> isMatchForSeparateResponse(trans, req));
+    private CoapTransaction remove(Predicate<CoapTransaction> predicate, boolean releaseMessageId) {
+        for (TransactionRing ring : rings) {
+            if (ring == null) {
+                continue;
+            }
+            for (int i = 0; i < ring.size; i++) {
+                if (predicate.test(ring.get(i))) {
+                    size--;
+                    CoapTransaction removed = ring.remove(i);
+                    if (removed.isReleased()) {
+                        released--;
+                    }
+                    removed.markRemoved();
+                    if (releaseMessageId) {
+                        messageIds.remove(removed.getCoapRequest().getMessageId());
+                    }
+                    unindex(removed);
+                    return removed;
+                }
+            }
+        }
+        return null;
+    }
 
-        if (pos < 0) {
-            return new QueueUpdateResult(this, Optional.empty());
-        } else {
-            CoapTransaction removedTransaction = transactions.get(pos);
-            //note, not locking!
-            return new QueueUpdateResult(new TransactionQueue(removeFromTransactionList(pos), Optional.empty()), Optional.of(removedTransaction));
+    private void unindex(CoapTransaction removed) {
+        CoapPacket request = removed.getCoapRequest();
+        if (request.getToken().length == 0 || !tokenIndex.remove(request.getRemoteAddress(), request.getToken(), removed)) {
+            return;
+        }
+        //index next transaction with the same token, if any
+        for (TransactionRing ring : rings) {
+            if (ring == null) {
+                continue;
+            }
+            for (int i = 0; i < ring.size; i++) {
+                CoapTransaction trans = ring.get(i);
+                if (Arrays.equals(trans.getCoapRequest().getToken(), request.getToken())) {
+                    tokenIndex.putIfAbsent(request.getRemoteAddress(), request.getToken(), trans);
+                    return;
+                }
+            }
         }
     }
 
     private static boolean isMatchForSeparateResponse(CoapTransaction trans, CoapPacket packet) {
         return trans.isActive() &&
                 (packet.getMessageType() == MessageType.Confirmable || packet.getMessageType() == MessageType.NonConfirmable)
-                && packet.getCode() != null
-                && trans.coapRequest.getRemoteAddress().equals(packet.getRemoteAddress())
-                && Arrays.equals(trans.coapRequest.getToken(), packet.getToken());
+                && packet.getCode() != null;
     }
 
+    /**
+     * @return true if message id is used by queued or locked transaction, can be called without lock
+     */
+    public boolean containsMessageId(int messageId) {
+        return messageIds.contains(messageId);
+    }
 
     public int size() {
-        return transactions.size();
+        return size;
     }
 
-    public Stream<CoapTransaction> stream() {
-        return transactions.stream();
+    public boolean notLocked() {
+        return lockedTransactions.isEmpty();
     }
 
-    public boolean notLocked() {
-        return !lockedTransaction.isPresent();
+    /**
+     * @return true if queue has no transactions and is not locked, so that it can be dropped
+     */
+    public boolean isEmpty() {
+        return size == 0 && lockedTransactions.isEmpty();
     }
 
-    public static class QueueUpdateResult {
-        final TransactionQueue transactionQueue;
-        final Optional<CoapTransaction> coapTransaction;
+    private static class TransactionRing {
+        private CoapTransaction[] elements = new CoapTransaction[4];
+        private int first;
+        private int size;
+
+        CoapTransaction get(int i) {
+            return elements[(first + i) & (elements.length - 1)];
+        }
 
-        public QueueUpdateResult(TransactionQueue transactionQueue, Optional<CoapTransaction> coapTransaction) {
-            this.transactionQueue = transactionQueue;
-            this.coapTransaction = coapTransaction;
+        void add(CoapTransaction transaction) {
+            if (size == elements.length) {
+                grow();
+            }
+            elements[(first + size) & (elements.length - 1)] = transaction;
+            size++;
+        }
+
+        CoapTransaction remove(int i) {
+            int mask = elements.length - 1;
+            CoapTransaction removed = get(i);
+            if (i < size / 2) {
+                //shift preceding elements forward
+                for (int j = i; j > 0; j--) {
+                    elements[(first + j) & mask] = elements[(first + j - 1) & mask];
+                }
+                elements[first] = null;
+                first = (first + 1) & mask;
+            } else {
+                //shift following elements back
+                for (int j = i; j < size - 1; j++) {
+                    elements[(first + j) & mask] = elements[(first + j + 1) & mask];
+                }
+                elements[(first + size - 1) & mask] = null;
+            }
+            size--;
+            return removed;
+        }
+
+        private void grow() {
+            CoapTransaction[] newElements = new CoapTransaction[elements.length * 2];
+            for (int i = 0; i < size; i++) {
+                newElements[i] = get(i);
+            }
+            elements = newElements;
+            first = 0;
         }
     }
 }
-
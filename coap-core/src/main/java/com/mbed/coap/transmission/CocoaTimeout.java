@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transmission;
+
+import com.mbed.coap.CoapConstants;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive transmission timeout, based on CoCoA (CoAP Simple Congestion Control/Advanced, draft-ietf-core-cocoa).
+ * For every endpoint it keeps strong RTO estimator, updated from exchanges acknowledged without retransmission, and
+ * weak one, updated from exchanges acknowledged after one or two retransmissions. Backoff factor depends on RTO.
+ * <p>
+ * Estimators are kept in LRU maps with bounded size, least recently used endpoints are evicted and fall back to
+ * default RTO.
+ * </p>
+ */
+public class CocoaTimeout implements TransmissionTimeout {
+
+    static final long DEFAULT_RTO = CoapConstants.ACK_TIMEOUT;
+    static final long MIN_RTO = 100;
+    static final long MAX_RTO = 60000;
+    private static final int SEGMENTS = 16;
+
+    private final int maxRetransmit;
+    private final LongSupplier clock;
+    private final EstimatorSegment[] segments = new EstimatorSegment[SEGMENTS];
+
+    public CocoaTimeout() {
+        this(CoapConstants.MAX_RETRANSMIT, 100_000);
+    }
+
+    /**
+     * @param maxRetransmit maximum number of retransmissions
+     * @param maxEndpoints maximum number of endpoints with kept RTT estimators
+     */
+    public CocoaTimeout(int maxRetransmit, int maxEndpoints) {
+        this(maxRetransmit, maxEndpoints, System::currentTimeMillis);
+    }
+
+    CocoaTimeout(int maxRetransmit, int maxEndpoints, LongSupplier clock) {
+        if (maxEndpoints < SEGMENTS) {
+            throw new IllegalArgumentException("Maximum number of endpoints must be at least " + SEGMENTS);
+        }
+        this.maxRetransmit = maxRetransmit;
+        this.clock = clock;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new EstimatorSegment(maxEndpoints / SEGMENTS);
+        }
+    }
+
+    @Override
+    public long getTimeout(int attemptCounter) {
+        return getTimeout(DEFAULT_RTO, attemptCounter);
+    }
+
+    @Override
+    public long getTimeout(InetSocketAddress endpoint, int attemptCounter) {
+        RtoEstimator estimator = segment(endpoint).get(endpoint);
+        return getTimeout(estimator != null ? estimator.getRto(clock.getAsLong()) : DEFAULT_RTO, attemptCounter);
+    }
+
+    private long getTimeout(double rto, int attemptCounter) {
+        if (attemptCounter > maxRetransmit + 1) {
+            return -1;
+        }
+        if (attemptCounter <= 0) {
+            throw new IllegalArgumentException("attempt can not be less than 0");
+        }
+        double timeout = rto * (1 + (CoapConstants.ACK_RANDOM_FACTOR - 1) * ThreadLocalRandom.current().nextDouble());
+        timeout *= Math.pow(backoffFactor(rto), attemptCounter - 1);
+        return (long) Math.min(timeout, MAX_RTO);
+    }
+
+    /**
+     * Variable backoff factor: faster backoff for small RTO, slower for large one.
+     */
+    static double backoffFactor(double rto) {
+        if (rto < 1000) {
+            return 3;
+        } else if (rto > 3000) {
+            return 1.5;
+        }
+        return 2;
+    }
+
+    @Override
+    public long getMulticastTimeout(int attempt) {
+        if (attempt == 1) {
+            return CoapTimeout.MULTICAST_TIMEOUT;
+        }
+        return -1;
+    }
+
+    @Override
+    public void onAcknowledged(InetSocketAddress endpoint, long rtt, int attemptCounter) {
+        if (attemptCounter <= 0 || attemptCounter > 3 || rtt < 0) {
+            //RTT is ambiguous after more than two retransmissions
+            return;
+        }
+        segment(endpoint).getOrCreate(endpoint).update(rtt, attemptCounter == 1, clock.getAsLong());
+    }
+
+    long getRto(InetSocketAddress endpoint) {
+        RtoEstimator estimator = segment(endpoint).get(endpoint);
+        return (long) (estimator != null ? estimator.getRto(clock.getAsLong()) : DEFAULT_RTO);
+    }
+
+    int numberOfEndpoints() {
+        int size = 0;
+        for (EstimatorSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private EstimatorSegment segment(InetSocketAddress endpoint) {
+        int h = endpoint.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static class EstimatorSegment extends LinkedHashMap<InetSocketAddress, RtoEstimator> {
+        private final int maxSize;
+
+        EstimatorSegment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, RtoEstimator> eldest) {
+            return size() > maxSize;
+        }
+
+        synchronized RtoEstimator get(InetSocketAddress endpoint) {
+            return super.get(endpoint);
+        }
+
+        synchronized RtoEstimator getOrCreate(InetSocketAddress endpoint) {
+            return computeIfAbsent(endpoint, adr -> new RtoEstimator());
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+    }
+
+    static class RtoEstimator {
+        private static final double ALPHA = 0.25;
+        private static final double BETA = 0.125;
+        private static final int STRONG_K = 4;
+        private static final int WEAK_K = 1;
+
+        private double strongSrtt = -1;
+        private double strongRttvar;
+        private double weakSrtt = -1;
+        private double weakRttvar;
+        private double rto = DEFAULT_RTO;
+        private long lastUpdate;
+
+        synchronized void update(long rtt, boolean strong, long currentTime) {
+            if (strong) {
+                double strongRto = estimate(rtt, true, STRONG_K);
+                rto = 0.5 * strongRto + 0.5 * rto;
+            } else {
+                double weakRto = estimate(rtt, false, WEAK_K);
+                rto = 0.25 * weakRto + 0.75 * rto;
+            }
+            rto = Math.max(MIN_RTO, Math.min(rto, MAX_RTO));
+            lastUpdate = currentTime;
+        }
+
+        private double estimate(long rtt, boolean strong, int k) {
+            double srtt = strong ? strongSrtt : weakSrtt;
+            double rttvar = strong ? strongRttvar : weakRttvar;
+            if (srtt < 0) {
+                srtt = rtt;
+                rttvar = rtt / 2.0;
+            } else {
+                rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+                srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+            }
+            if (strong) {
+                strongSrtt = srtt;
+                strongRttvar = rttvar;
+            } else {
+                weakSrtt = srtt;
+                weakRttvar = rttvar;
+            }
+            return srtt + k * rttvar;
+        }
+
+        /**
+         * Returns RTO, aged towards default if it was not updated for a long time.
+         */
+        synchronized double getRto(long currentTime) {
+            if (rto < 1000) {
+                while (rto < 1000 && currentTime - lastUpdate > 16 * rto) {
+                    lastUpdate += (long) (16 * rto);
+                    rto = Math.min(2 * rto, DEFAULT_RTO);
+                }
+            } else if (rto > 3000) {
+                while (rto > 3000 && currentTime - lastUpdate > 4 * rto) {
+                    lastUpdate += (long) (4 * rto);
+                    rto = (DEFAULT_RTO + rto) / 2;
+                }
+            }
+            return rto;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.mbed.coap.transmission;
 
+import java.net.InetSocketAddress;
+
 /**
  * @author szymon
  */
@@ -31,4 +33,26 @@ public interface TransmissionTimeout {
 
     long getMulticastTimeout(int attempt);
 
+    /**
+     * Calculates timeout for given endpoint and sending attempt counter. By default, endpoint is ignored.
+     *
+     * @param endpoint remote endpoint address
+     * @param attemptCounter attempt counter
+     * @return timeout in milliseconds
+     */
+    default long getTimeout(InetSocketAddress endpoint, int attemptCounter) {
+        return getTimeout(attemptCounter);
+    }
+
+    /**
+     * Called when acknowledgement is received, can be used to adapt timeouts to measured round trip time.
+     *
+     * @param endpoint remote endpoint address
+     * @param rtt round trip time in milliseconds, measured from first transmission
+     * @param attemptCounter number of transmissions made
+     */
+    default void onAcknowledged(InetSocketAddress endpoint, long rtt, int attemptCounter) {
+        //ignore by default
+    }
+
 }
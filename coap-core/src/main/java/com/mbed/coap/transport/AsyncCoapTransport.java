@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport;
+
+import com.mbed.coap.exception.OutboundQueueFullException;
+import com.mbed.coap.packet.CoapPacket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport decorator that moves writing to a socket out of caller thread. Outgoing packets are queued and written by
+ * a dedicated writer thread, returned future completes once underlying transport accepts the packet.
+ * <p>
+ * Queue is bounded, when it is full, sendPacket returns failed future with {@link OutboundQueueFullException}, so that
+ * a slow socket never blocks caller (for example scheduler thread that handles retransmissions).
+ * </p>
+ */
+public class AsyncCoapTransport implements CoapTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncCoapTransport.class.getName());
+    private final CoapTransport transport;
+    private final BlockingQueue<OutboundPacket> queue;
+    private volatile Thread writerThread;
+
+    public AsyncCoapTransport(CoapTransport transport, int maxQueueSize) {
+        if (maxQueueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+        this.transport = transport;
+        this.queue = new ArrayBlockingQueue<>(maxQueueSize);
+    }
+
+    @Override
+    public void start(CoapReceiver coapReceiver) throws IOException {
+        transport.start(coapReceiver);
+
+        writerThread = new Thread(this::writingLoop, "coap-transport-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = writerThread;
+        writerThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        failQueued();
+        transport.stop();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendPacket(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext) {
+        return enqueue(new OutboundPacket(coapPacket, null, adr, tranContext, new CompletableFuture<>()));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendEncodedPacket(byte[] data, InetSocketAddress adr, TransportContext tranContext) {
+        return enqueue(new OutboundPacket(null, data, adr, tranContext, new CompletableFuture<>()));
+    }
+
+    private CompletableFuture<Boolean> enqueue(OutboundPacket outboundPacket) {
+        CompletableFuture<Boolean> promise = outboundPacket.promise;
+        if (writerThread == null) {
+            promise.completeExceptionally(new IllegalStateException("Transport is not running"));
+        } else if (!queue.offer(outboundPacket)) {
+            promise.completeExceptionally(new OutboundQueueFullException("Outbound queue is full"));
+        } else if (writerThread == null) {
+            //stopped in the meantime
+            failQueued();
+        }
+        return promise;
+    }
+
+    private void writingLoop() {
+        try {
+            while (writerThread != null) {
+                OutboundPacket p = queue.take();
+                write(p);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Writer thread interrupted");
+        }
+    }
+
+    private void write(OutboundPacket p) {
+        try {
+            CompletableFuture<Boolean> sent = p.coapPacket != null
+                    ? transport.sendPacket(p.coapPacket, p.adr, p.tranContext)
+                    : transport.sendEncodedPacket(p.data, p.adr, p.tranContext);
+            sent.whenComplete((wasSent, maybeError) -> {
+                if (maybeError == null) {
+                    p.promise.complete(wasSent);
+                } else {
+                    p.promise.completeExceptionally(maybeError);
+                }
+            });
+        } catch (Exception ex) {
+            p.promise.completeExceptionally(ex);
+        }
+    }
+
+    private void failQueued() {
+        List<OutboundPacket> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (OutboundPacket p : remaining) {
+            p.promise.completeExceptionally(new IOException("Transport stopped"));
+        }
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return transport.getLocalSocketAddress();
+    }
+
+    private static class OutboundPacket {
+        private final CoapPacket coapPacket;
+        private final byte[] data;
+        private final InetSocketAddress adr;
+        private final TransportContext tranContext;
+        private final CompletableFuture<Boolean> promise;
+
+        OutboundPacket(CoapPacket coapPacket, byte[] data, InetSocketAddress adr, TransportContext tranContext, CompletableFuture<Boolean> promise) {
+            this.coapPacket = coapPacket;
+            this.data = data;
+            this.adr = adr;
+            this.tranContext = tranContext;
+            this.promise = promise;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.mbed.coap.packet.CoapPacket;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Created by szymon
@@ -42,4 +43,49 @@ public abstract class BlockingCoapTransport implements CoapTransport {
 
     public abstract void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext) throws CoapException, IOException;
 
+    @Override
+    public final CompletableFuture<Boolean> sendEncodedPacket(byte[] data, InetSocketAddress adr, TransportContext tranContext) {
+        CompletableFuture<Boolean> objectCompletableFuture = new CompletableFuture<>();
+
+        try {
+            sendEncodedPacket0(data, adr, tranContext);
+            objectCompletableFuture.complete(true);
+        } catch (Exception ex) {
+            objectCompletableFuture.completeExceptionally(ex);
+        }
+
+        return objectCompletableFuture;
+    }
+
+    @Override
+    public final CompletableFuture<Boolean> sendPacket(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, Consumer<byte[]> encodedPacketConsumer) {
+        CompletableFuture<Boolean> objectCompletableFuture = new CompletableFuture<>();
+
+        try {
+            sendPacket0(coapPacket, adr, tranContext, encodedPacketConsumer);
+            objectCompletableFuture.complete(true);
+        } catch (Exception ex) {
+            objectCompletableFuture.completeExceptionally(ex);
+        }
+
+        return objectCompletableFuture;
+    }
+
+    /**
+     * Sends packet and passes its serialized form to consumer, override when transport serializes into its own
+     * buffers.
+     */
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, Consumer<byte[]> encodedPacketConsumer) throws CoapException, IOException {
+        byte[] data = coapPacket.toByteArray();
+        encodedPacketConsumer.accept(data);
+        sendEncodedPacket0(data, adr, tranContext);
+    }
+
+    /**
+     * Sends already serialized packet, override when transport can write raw data directly.
+     */
+    public void sendEncodedPacket0(byte[] data, InetSocketAddress adr, TransportContext tranContext) throws CoapException, IOException {
+        sendPacket0(CoapPacket.read(adr, data), adr, tranContext);
+    }
+
 }
@@ -15,10 +15,12 @@
  */
 package com.mbed.coap.transport;
 
+import com.mbed.coap.exception.CoapException;
 import com.mbed.coap.packet.CoapPacket;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Created by szymon
@@ -30,5 +32,37 @@ public interface CoapTransport {
 
     CompletableFuture<Boolean> sendPacket(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext);
 
+    /**
+     * Sends already serialized packet, for example response resent for repeated request. Default implementation
+     * parses data and calls {@link #sendPacket(CoapPacket, InetSocketAddress, TransportContext)}.
+     *
+     * @param data serialized CoAP packet
+     * @param adr destination address
+     * @param tranContext transport context
+     * @return future that completes when packet is sent
+     */
+    default CompletableFuture<Boolean> sendEncodedPacket(byte[] data, InetSocketAddress adr, TransportContext tranContext) {
+        try {
+            return sendPacket(CoapPacket.read(adr, data), adr, tranContext);
+        } catch (CoapException e) {
+            CompletableFuture<Boolean> promise = new CompletableFuture<>();
+            promise.completeExceptionally(e);
+            return promise;
+        }
+    }
+
+    /**
+     * Sends packet and passes its serialized form to given consumer before it is written, for example to keep
+     * response for repeated requests. Default implementation serializes packet into byte array and calls
+     * {@link #sendEncodedPacket(byte[], InetSocketAddress, TransportContext)}.
+     *
+     * @param encodedPacketConsumer receives serialized packet, array is not used by transport afterwards
+     */
+    default CompletableFuture<Boolean> sendPacket(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, Consumer<byte[]> encodedPacketConsumer) {
+        byte[] data = coapPacket.toByteArray();
+        encodedPacketConsumer.accept(data);
+        return sendEncodedPacket(data, adr, tranContext);
+    }
+
     InetSocketAddress getLocalSocketAddress();
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CoAP over TCP client transport that keeps a pool of connections, one per destination. Connection is opened lazily,
+ * with first message sent to a destination, and served by one of shared event loops, see {@link NioTcpTransport}.
+ * Messages sent while connecting are queued and written after CSM, that is sent by CoapTcpMessaging when connection is
+ * reported as connected. Closed connection is reported as disconnected, so that its pending transactions fail and
+ * stored capabilities are removed.
+ * <p>
+ * Connections without traffic are closed after idle timeout. After failed connection attempt, next attempt to the same
+ * destination is made no sooner than after backoff time, which doubles with every consecutive failure.
+ * </p>
+ */
+public class NioTcpClientTransport extends NioTcpTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTcpClientTransport.class.getName());
+    private static final long DEFAULT_IDLE_TIMEOUT = 300_000; //5 minutes
+    private static final long DEFAULT_MIN_RECONNECT_DELAY = 1_000;
+    private static final long DEFAULT_MAX_RECONNECT_DELAY = 60_000;
+
+    private final ConcurrentMap<InetSocketAddress, Backoff> backoffs = new ConcurrentHashMap<>();
+    private long minReconnectDelay = DEFAULT_MIN_RECONNECT_DELAY;
+    private long maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+
+    public NioTcpClientTransport(int eventLoopCount, Executor receivedMessageWorker) {
+        super("coap-tcp-client-loop", eventLoopCount, receivedMessageWorker);
+        this.idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    }
+
+    public NioTcpClientTransport(int eventLoopCount) {
+        this(eventLoopCount, Runnable::run);
+    }
+
+    public NioTcpClientTransport() {
+        this(1);
+    }
+
+    /**
+     * Enables TLS.
+     *
+     * @param sslContext SSL context used to create client mode SSLEngine for every connection
+     */
+    public void setSslContext(SSLContext sslContext) {
+        assertNotStarted();
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Sets delay before reconnecting after failed connection attempt, it doubles with every consecutive failure up to
+     * given maximum.
+     */
+    public void setReconnectDelay(long minReconnectDelayMillis, long maxReconnectDelayMillis) {
+        assertNotStarted();
+        if (minReconnectDelayMillis < 0 || maxReconnectDelayMillis < minReconnectDelayMillis) {
+            throw new IllegalArgumentException();
+        }
+        this.minReconnectDelay = minReconnectDelayMillis;
+        this.maxReconnectDelay = maxReconnectDelayMillis;
+    }
+
+    @Override
+    void configure(SSLEngine engine) {
+        engine.setUseClientMode(true);
+    }
+
+    @Override
+    Connection connectionFor(InetSocketAddress adr) throws IOException {
+        Connection connection = connections.get(adr);
+        if (connection != null) {
+            return connection;
+        }
+        if (!isRunning()) {
+            throw new IOException("Transport is not running");
+        }
+        if (adr.isUnresolved()) {
+            throw new IOException("Unresolved address: " + adr);
+        }
+        assertReconnectAllowed(adr);
+
+        SocketChannel channel = SocketChannel.open();
+        EventLoop eventLoop = nextEventLoop();
+        Connection newConnection = new Connection(eventLoop, channel, adr);
+        connection = connections.putIfAbsent(adr, newConnection);
+        if (connection != null) {
+            closeQuietly(channel);
+            return connection;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean isConnected = channel.connect(adr);
+            LOGGER.debug("[{}] Connecting", adr);
+            eventLoop.execute(() -> eventLoop.register(newConnection, !isConnected));
+        } catch (IOException e) {
+            newConnection.close();
+            throw e;
+        }
+        return newConnection;
+    }
+
+    private void assertReconnectAllowed(InetSocketAddress adr) throws ConnectException {
+        Backoff backoff = backoffs.get(adr);
+        if (backoff != null) {
+            long delay = backoff.nextAttempt - System.nanoTime();
+            if (delay > 0) {
+                throw new ConnectException("Connection to " + adr + " failed, next attempt in " + TimeUnit.NANOSECONDS.toMillis(delay) + " ms");
+            }
+        }
+    }
+
+    @Override
+    void onClosed(Connection connection) {
+        if (connection.isConnected()) {
+            backoffs.remove(connection.remoteAddress);
+            return;
+        }
+        Backoff backoff = backoffs.compute(connection.remoteAddress, (adr, prev) -> {
+            long delay = prev == null ? minReconnectDelay : Math.min(prev.delay * 2, maxReconnectDelay);
+            return new Backoff(delay, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        });
+        LOGGER.debug("[{}] Connection failed, next attempt in {} ms", connection.remoteAddress, backoff.delay);
+    }
+
+    /**
+     * Returns null, every connection has own local address.
+     */
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    private static final class Backoff {
+        private final long delay;
+        private final long nextAttempt;
+
+        Backoff(long delay, long nextAttempt) {
+            this.delay = delay;
+            this.nextAttempt = nextAttempt;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import com.mbed.coap.transport.CoapReceiver;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CoAP over TCP server transport based on non-blocking SocketChannels. Accepted connections are distributed between
+ * fixed number of event loops, see {@link NioTcpTransport}.
+ */
+public class NioTcpServerTransport extends NioTcpTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTcpServerTransport.class.getName());
+    private static final int DEFAULT_BACKLOG = 1024;
+
+    private final InetSocketAddress bindSocket;
+    private int backlog = DEFAULT_BACKLOG;
+    private boolean needClientAuth;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptorThread;
+
+    public NioTcpServerTransport(InetSocketAddress bindSocket, int eventLoopCount, Executor receivedMessageWorker) {
+        super("coap-tcp-loop", eventLoopCount, receivedMessageWorker);
+        this.bindSocket = bindSocket;
+    }
+
+    public NioTcpServerTransport(int localPort, int eventLoopCount) {
+        this(new InetSocketAddress(localPort), eventLoopCount, Runnable::run);
+    }
+
+    public NioTcpServerTransport(int localPort) {
+        this(localPort, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void setBacklog(int backlog) {
+        assertNotStarted();
+        this.backlog = backlog;
+    }
+
+    /**
+     * Enables TLS.
+     *
+     * @param sslContext SSL context used to create SSLEngine for every connection
+     * @param needClientAuth require client authentication
+     */
+    public void setSslContext(SSLContext sslContext, boolean needClientAuth) {
+        assertNotStarted();
+        this.sslContext = sslContext;
+        this.needClientAuth = needClientAuth;
+    }
+
+    @Override
+    void configure(SSLEngine engine) {
+        engine.setUseClientMode(false);
+        engine.setNeedClientAuth(needClientAuth);
+    }
+
+    @Override
+    public void start(CoapReceiver coapReceiver) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(bindSocket, backlog);
+        super.start(coapReceiver);
+
+        acceptorThread = new Thread(this::acceptLoop, "coap-tcp-acceptor");
+        acceptorThread.start();
+        LOGGER.info("CoAP server binds on " + serverChannel.getLocalAddress());
+    }
+
+    private void acceptLoop() {
+        try {
+            while (isRunning()) {
+                SocketChannel channel = serverChannel.accept();
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    EventLoop eventLoop = nextEventLoop();
+                    Connection connection = new Connection(eventLoop, channel, (InetSocketAddress) channel.getRemoteAddress());
+                    eventLoop.execute(() -> eventLoop.register(connection, false));
+                } catch (IOException e) {
+                    LOGGER.warn("Could not register connection: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            }
+        } catch (ClosedChannelException ex) {
+            LOGGER.debug("Server channel closed");
+        } catch (IOException ex) {
+            LOGGER.warn(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+        acceptorThread.interrupt();
+    }
+
+    @Override
+    Connection connectionFor(InetSocketAddress adr) throws IOException {
+        Connection connection = connections.get(adr);
+        if (connection == null) {
+            throw new IOException("No connection with: " + adr);
+        }
+        return connection;
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,777 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.exception.OutboundQueueFullException;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.CoapTcpFrameDecoder;
+import com.mbed.coap.packet.CoapTcpPacketSerializer;
+import com.mbed.coap.transport.BlockingCoapTransport;
+import com.mbed.coap.transport.CoapReceiver;
+import com.mbed.coap.transport.CoapReceiverForTcp;
+import com.mbed.coap.transport.TransportContext;
+import com.mbed.coap.utils.ByteBufferPool;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base of CoAP over TCP transports based on non-blocking SocketChannels. Connections are distributed between fixed
+ * number of event loops, each with own selector and thread, so that number of threads does not depend on number of
+ * connections.
+ * <p>
+ * Every event loop reads into one shared buffer, only incomplete frames are copied into connection's own buffer.
+ * Frames are decoded with {@link CoapTcpFrameDecoder}, frame larger than maximum message size is rejected as soon as
+ * its header is received.
+ * Outgoing messages are queued per connection, up to configured limit, and written by event loop once per loop
+ * iteration: all messages queued for a connection are sent with one gathering write, or for TLS, coalesced into as
+ * few TLS records as possible. Size of a batch is limited by maximum write batch size.
+ * </p>
+ * <p>
+ * With default, same-thread executor, received messages are handled by event loop thread, keeping order of messages
+ * within a connection.
+ * </p>
+ * When SSLContext is set, connections are secured with TLS using SSLEngine. Handshake delegated tasks are run by
+ * bounded handshake executor, so that TLS connection does not require a thread, connection is reported as connected
+ * after handshake is finished.
+ */
+public abstract class NioTcpTransport extends BlockingCoapTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTcpTransport.class.getName());
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_OUTBOUND_BYTES = 256 * 1024;
+    private static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 64 * 1024;
+    private static final long DEFAULT_CONNECT_TIMEOUT = 10_000;
+    private static final long MAX_TIMEOUT_CHECK_INTERVAL = 1_000;
+    private static final int MAX_TLS_RECORD_PLAINTEXT = 16 * 1024;
+    private static final int MAX_GATHERING_BUFFERS = 64;
+    private static final int DEFAULT_NET_BUFFER_POOL_SIZE = 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final String threadName;
+    private final Executor receivedMessageWorker;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    final ConcurrentMap<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+    private int maxOutboundBytes = DEFAULT_MAX_OUTBOUND_BYTES;
+    private int maxWriteBatchSize = DEFAULT_MAX_WRITE_BATCH_SIZE;
+    private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    long idleTimeout;
+    SSLContext sslContext;
+    private Executor handshakeExecutor;
+    private ExecutorService ownHandshakeExecutor;
+    private ByteBufferPool netBufferPool;
+    CoapReceiverForTcp coapReceiver;
+    private volatile boolean isRunning;
+    private boolean isStarted;
+
+    NioTcpTransport(String threadName, int eventLoopCount, Executor receivedMessageWorker) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("Event loop count must be positive");
+        }
+        this.threadName = threadName;
+        this.receivedMessageWorker = receivedMessageWorker;
+        this.eventLoops = new EventLoop[eventLoopCount];
+    }
+
+    /**
+     * Sets maximum size of received message, connection that sends bigger message is closed.
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        assertNotStarted();
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Sets maximum number of bytes queued for sending, per connection.
+     */
+    public void setMaxOutboundBytes(int maxOutboundBytes) {
+        assertNotStarted();
+        this.maxOutboundBytes = maxOutboundBytes;
+    }
+
+    /**
+     * Sets maximum number of bytes written to socket with one (gathering) write. For TLS, it also limits size of
+     * plain data coalesced into TLS records at once.
+     */
+    public void setMaxWriteBatchSize(int maxWriteBatchSize) {
+        assertNotStarted();
+        if (maxWriteBatchSize <= 0) {
+            throw new IllegalArgumentException("Write batch size must be positive");
+        }
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
+    /**
+     * Sets maximum time to establish connection, including TLS handshake.
+     */
+    public void setConnectTimeout(long connectTimeoutMillis) {
+        assertNotStarted();
+        this.connectTimeout = connectTimeoutMillis;
+    }
+
+    /**
+     * Sets time after which connection without any traffic is closed, zero disables closing idle connections.
+     */
+    public void setIdleTimeout(long idleTimeoutMillis) {
+        assertNotStarted();
+        this.idleTimeout = idleTimeoutMillis;
+    }
+
+    /**
+     * Sets executor for TLS handshake delegated tasks. By default, bounded thread pool is created.
+     */
+    public void setHandshakeExecutor(Executor handshakeExecutor) {
+        assertNotStarted();
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    final void assertNotStarted() {
+        if (isStarted) {
+            throw new IllegalStateException();
+        }
+    }
+
+    @Override
+    public void start(CoapReceiver coapReceiver) throws IOException {
+        isStarted = true;
+        this.coapReceiver = CoapReceiverForTcp.from(coapReceiver);
+        isRunning = true;
+
+        int appBufferSize = READ_BUFFER_SIZE;
+        int netBufferSize = READ_BUFFER_SIZE;
+        if (sslContext != null) {
+            SSLSession session = sslContext.createSSLEngine().getSession();
+            appBufferSize = session.getApplicationBufferSize();
+            netBufferSize = session.getPacketBufferSize();
+            netBufferPool = new ByteBufferPool(DEFAULT_NET_BUFFER_POOL_SIZE, netBufferSize, true);
+            if (handshakeExecutor == null) {
+                ownHandshakeExecutor = createHandshakeExecutor();
+                handshakeExecutor = ownHandshakeExecutor;
+            }
+        }
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open(), appBufferSize, netBufferSize);
+            eventLoops[i].thread = new Thread(eventLoops[i]::run, threadName + "-" + i);
+            eventLoops[i].thread.start();
+        }
+    }
+
+    private static ExecutorService createHandshakeExecutor() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(4096), r -> {
+            Thread thread = new Thread(r, "coap-tls-handshake-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void stop() {
+        isRunning = false;
+        if (ownHandshakeExecutor != null) {
+            ownHandshakeExecutor.shutdown();
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+    }
+
+    final boolean isRunning() {
+        return isRunning;
+    }
+
+    final EventLoop nextEventLoop() {
+        return eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+
+    /**
+     * Returns connection for sending to given address.
+     *
+     * @throws IOException if there is no connection and it can not be established
+     */
+    abstract Connection connectionFor(InetSocketAddress adr) throws IOException;
+
+    /**
+     * Configures SSLEngine created for a new connection.
+     */
+    abstract void configure(SSLEngine engine);
+
+    /**
+     * Called when connection is closed, before it is reported as disconnected.
+     */
+    void onClosed(Connection connection) {
+        //no-op by default
+    }
+
+    @Override
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext) throws CoapException, IOException {
+        connectionFor(adr).write(ByteBuffer.wrap(CoapTcpPacketSerializer.serialize(coapPacket)));
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    final class EventLoop {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer;
+        private final ByteBuffer netReadBuffer;
+        private final ByteBuffer coalesceBuffer;
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHERING_BUFFERS];
+        private final ArrayDeque<Connection> pendingWrites = new ArrayDeque<>();
+        private final long timeoutCheckInterval;
+        private long lastTimeoutCheck = System.nanoTime();
+        private Thread thread;
+
+        EventLoop(Selector selector, int appBufferSize, int netBufferSize) {
+            this.selector = selector;
+            this.readBuffer = ByteBuffer.allocate(appBufferSize);
+            this.netReadBuffer = sslContext != null ? ByteBuffer.allocateDirect(netBufferSize) : null;
+            this.coalesceBuffer = sslContext != null ? ByteBuffer.allocate(Math.min(maxWriteBatchSize, MAX_TLS_RECORD_PLAINTEXT)) : null;
+            long minTimeout = idleTimeout > 0 ? Math.min(idleTimeout, connectTimeout) : connectTimeout;
+            this.timeoutCheckInterval = Math.max(1, Math.min(MAX_TIMEOUT_CHECK_INTERVAL, minTimeout / 2));
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Schedules writing of connection's queued messages at the end of current loop iteration.
+         */
+        void scheduleWrite(Connection connection) {
+            if (Thread.currentThread() == thread) {
+                pendingWrites.add(connection);
+            } else {
+                execute(() -> pendingWrites.add(connection));
+            }
+        }
+
+        void run() {
+            try {
+                while (isRunning) {
+                    selector.select(timeoutCheckInterval);
+                    runTasks();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                    writePending();
+                    closeTimedOut();
+                }
+            } catch (ClosedSelectorException ex) {
+                LOGGER.debug("Selector closed");
+            } catch (Exception ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+            closeAll();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void writePending() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.writeQueued();
+                } catch (CancelledKeyException | IOException ex) {
+                    LOGGER.debug("[{}] {}", connection.remoteAddress, ex.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void closeTimedOut() {
+            long now = System.nanoTime();
+            if (now - lastTimeoutCheck < TimeUnit.MILLISECONDS.toNanos(timeoutCheckInterval)) {
+                return;
+            }
+            lastTimeoutCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (!connection.isConnected && now - connection.createdAt > TimeUnit.MILLISECONDS.toNanos(connectTimeout)) {
+                    LOGGER.debug("[{}] Connect timeout", connection.remoteAddress);
+                    connection.close();
+                } else if (idleTimeout > 0 && connection.isConnected && now - connection.lastActivity > TimeUnit.MILLISECONDS.toNanos(idleTimeout)
+                        && !connection.hasQueuedData()) {
+                    LOGGER.debug("[{}] Closing idle connection", connection.remoteAddress);
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Registers connected or connecting channel.
+         */
+        void register(Connection connection, boolean isConnectPending) {
+            try {
+                connection.key = connection.channel.register(selector, isConnectPending ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, connection);
+                if (!isConnectPending) {
+                    established(connection);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("[{}] Could not register connection: {}", connection.remoteAddress, e.getMessage());
+                connection.close();
+            }
+        }
+
+        private void established(Connection connection) throws IOException {
+            connection.lastActivity = System.nanoTime();
+            if (sslContext == null) {
+                connection.connected();
+            } else {
+                SSLEngine engine = sslContext.createSSLEngine(connection.remoteAddress.getHostString(), connection.remoteAddress.getPort());
+                configure(engine);
+                connection.tls = new TlsSession(engine, netBufferPool);
+                unwrap(connection, EMPTY);
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    connection.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    established(connection);
+                    return;
+                }
+                if (key.isWritable()) {
+                    connection.flushOutbound();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.lastActivity = System.nanoTime();
+                    if (connection.tls == null) {
+                        read(connection);
+                    } else {
+                        readTls(connection);
+                    }
+                }
+            } catch (CancelledKeyException | IOException ex) {
+                LOGGER.debug("[{}] {}", connection.remoteAddress, ex.getMessage());
+                connection.close();
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            readBuffer.clear();
+            if (connection.channel.read(readBuffer) < 0) {
+                connection.close();
+                return;
+            }
+            readBuffer.flip();
+            receive(connection, readBuffer);
+        }
+
+        private void readTls(Connection connection) throws IOException {
+            ByteBuffer netData = connection.tls.readBuffer(netReadBuffer);
+            if (connection.channel.read(netData) < 0) {
+                connection.close();
+                return;
+            }
+            netData.flip();
+            unwrap(connection, netData);
+        }
+
+        /**
+         * Progresses TLS handshake and decrypts received data, till all data is consumed or delegated tasks are
+         * needed.
+         */
+        private void unwrap(Connection connection, ByteBuffer netData) throws IOException {
+            TlsSession tls = connection.tls;
+            while (!connection.isClosed()) {
+                SSLEngineResult.HandshakeStatus handshakeStatus = tls.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks(connection);
+                    break;
+                }
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    connection.writeHandshake(tls.wrap(EMPTY));
+                    connection.connectedIfHandshakeFinished();
+                    continue;
+                }
+                if (!netData.hasRemaining()) {
+                    break;
+                }
+
+                readBuffer.clear();
+                SSLEngineResult result = tls.unwrap(netData, readBuffer);
+                readBuffer.flip();
+                connection.connectedIfHandshakeFinished();
+                if (readBuffer.hasRemaining()) {
+                    receive(connection, readBuffer);
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    connection.close();
+                    return;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+            }
+            tls.keepRemaining(netData);
+        }
+
+        private void runDelegatedTasks(Connection connection) {
+            List<Runnable> delegatedTasks = connection.tls.delegatedTasks();
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            try {
+                handshakeExecutor.execute(() -> {
+                    delegatedTasks.forEach(Runnable::run);
+                    execute(() -> resumeAfterTasks(connection));
+                });
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("[{}] TLS handshake rejected, executor is overloaded", connection.remoteAddress);
+                connection.close();
+            }
+        }
+
+        private void resumeAfterTasks(Connection connection) {
+            if (connection.isClosed()) {
+                return;
+            }
+            try {
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+                unwrap(connection, connection.tls.storedData());
+            } catch (CancelledKeyException | IOException ex) {
+                LOGGER.debug("[{}] {}", connection.remoteAddress, ex.getMessage());
+                connection.close();
+            }
+        }
+
+        /**
+         * Decodes CoAP messages from received plain data, incomplete message is kept in connection's buffer.
+         */
+        private void receive(Connection connection, ByteBuffer data) throws IOException {
+            if (connection.inbound == null) {
+                decode(connection, data);
+                if (data.hasRemaining()) {
+                    connection.inbound = ByteBuffer.allocate(Math.max(data.remaining() + connection.decoder.getBytesNeeded(), 256));
+                    connection.inbound.put(data);
+                }
+            } else {
+                connection.append(data);
+                connection.inbound.flip();
+                decode(connection, connection.inbound);
+                if (connection.inbound.hasRemaining()) {
+                    connection.inbound.compact();
+                } else {
+                    connection.inbound = null;
+                }
+            }
+        }
+
+        private void decode(Connection connection, ByteBuffer buffer) throws IOException {
+            try {
+                CoapPacket packet;
+                while ((packet = connection.decoder.decode(connection.remoteAddress, buffer)) != null) {
+                    CoapPacket coapPacket = packet;
+                    receivedMessageWorker.execute(() -> coapReceiver.handle(coapPacket, TransportContext.NULL));
+                }
+            } catch (CoapException e) {
+                throw new IOException("Closing connection, due to parsing error: " + e.getMessage(), e);
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    final class Connection {
+        private final EventLoop loop;
+        final SocketChannel channel;
+        final InetSocketAddress remoteAddress;
+        private final CoapTcpFrameDecoder decoder = new CoapTcpFrameDecoder(maxMessageSize);
+        private TlsSession tls; //set by event loop thread before connection is reported
+        private SelectionKey key;
+        private ByteBuffer inbound; //only accessed by event loop thread
+        private final long createdAt = System.nanoTime();
+        private long lastActivity = createdAt; //only accessed by event loop thread
+        private boolean isConnected; //only accessed by event loop thread
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(4); //guarded by this
+        private int pendingBytes; //guarded by this
+        private boolean isWriteScheduled; //guarded by this
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>(4); //guarded by this
+        private int outboundBytes; //guarded by this
+        private boolean isClosed; //guarded by this
+
+        Connection(EventLoop loop, SocketChannel channel, InetSocketAddress remoteAddress) {
+            this.loop = loop;
+            this.channel = channel;
+            this.remoteAddress = remoteAddress;
+        }
+
+        EventLoop loop() {
+            return loop;
+        }
+
+        boolean isConnected() {
+            return isConnected;
+        }
+
+        /**
+         * Reports connection to receiver. Messages queued while connecting are sent after the ones sent by receiver
+         * when connection is reported (CSM).
+         */
+        private void connected() {
+            isConnected = true;
+            Connection prev = connections.put(remoteAddress, this);
+            if (prev != null && prev != this) {
+                prev.loop.execute(prev::close);
+            }
+
+            List<ByteBuffer> queuedWhileConnecting;
+            synchronized (this) {
+                queuedWhileConnecting = new ArrayList<>(pending);
+                pending.clear();
+                pendingBytes = 0;
+            }
+            coapReceiver.onConnected(remoteAddress);
+            synchronized (this) {
+                for (ByteBuffer buffer : queuedWhileConnecting) {
+                    pending.add(buffer);
+                    pendingBytes += buffer.remaining();
+                }
+                if (pending.isEmpty() || isWriteScheduled) {
+                    return;
+                }
+                isWriteScheduled = true;
+            }
+            loop.scheduleWrite(this);
+        }
+
+        private void connectedIfHandshakeFinished() {
+            if (!isConnected && tls.isHandshakeFinished()) {
+                LOGGER.debug("[{}] TLS handshake finished", remoteAddress);
+                connected();
+            }
+        }
+
+        private void append(ByteBuffer data) {
+            if (inbound.remaining() < data.remaining()) {
+                int required = inbound.position() + data.remaining();
+                ByteBuffer newInbound = ByteBuffer.allocate(Math.max(required + decoder.getBytesNeeded(), inbound.capacity() * 2));
+                inbound.flip();
+                newInbound.put(inbound);
+                inbound = newInbound;
+            }
+            inbound.put(data);
+        }
+
+        /**
+         * Queues message for sending, it is written by event loop together with other queued messages.
+         */
+        void write(ByteBuffer buffer) throws IOException, OutboundQueueFullException {
+            synchronized (this) {
+                assertNotClosed();
+                if (pendingBytes + outboundBytes > 0 && pendingBytes + outboundBytes + buffer.remaining() > maxOutboundBytes) {
+                    throw new OutboundQueueFullException("Outbound queue is full for: " + remoteAddress);
+                }
+                pending.add(buffer);
+                pendingBytes += buffer.remaining();
+                if (isWriteScheduled) {
+                    return;
+                }
+                isWriteScheduled = true;
+            }
+            loop.scheduleWrite(this);
+        }
+
+        private synchronized void writeHandshake(List<ByteBuffer> netData) throws IOException {
+            assertNotClosed();
+            addOutbound(netData);
+            flushOutbound();
+        }
+
+        /**
+         * Moves queued messages to outbound queue, for TLS coalescing them into records, and writes them. Called by
+         * event loop thread, messages are kept queued till connection is established.
+         */
+        private synchronized void writeQueued() throws IOException {
+            isWriteScheduled = false;
+            if (isClosed || !isConnected || pending.isEmpty()) {
+                return;
+            }
+            lastActivity = System.nanoTime();
+            if (tls == null) {
+                outbound.addAll(pending);
+                outboundBytes += pendingBytes;
+            } else {
+                coalesce(loop.coalesceBuffer);
+            }
+            pending.clear();
+            pendingBytes = 0;
+            flushOutbound();
+        }
+
+        private void coalesce(ByteBuffer coalesceBuffer) throws IOException {
+            ByteBuffer head;
+            while ((head = pending.peek()) != null) {
+                if (head.remaining() >= coalesceBuffer.capacity()) {
+                    addOutbound(tls.wrap(pending.poll()));
+                    continue;
+                }
+                coalesceBuffer.clear();
+                while ((head = pending.peek()) != null && head.remaining() <= coalesceBuffer.remaining()) {
+                    coalesceBuffer.put(pending.poll());
+                }
+                coalesceBuffer.flip();
+                addOutbound(tls.wrap(coalesceBuffer));
+            }
+        }
+
+        private void addOutbound(List<ByteBuffer> netData) {
+            for (ByteBuffer buffer : netData) {
+                outbound.add(buffer);
+                outboundBytes += buffer.remaining();
+            }
+        }
+
+        private void assertNotClosed() throws IOException {
+            if (isClosed) {
+                throw new IOException("No connection with: " + remoteAddress);
+            }
+        }
+
+        /**
+         * Writes outbound queue with gathering writes, till it is empty or socket is not writable.
+         */
+        private synchronized void flushOutbound() throws IOException {
+            ByteBuffer[] buffers = loop.gatherBuffers;
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                int batchSize = 0;
+                for (ByteBuffer buffer : outbound) {
+                    if (count == buffers.length || (count > 0 && batchSize + buffer.remaining() > maxWriteBatchSize)) {
+                        break;
+                    }
+                    buffers[count++] = buffer;
+                    batchSize += buffer.remaining();
+                }
+
+                long len = channel.write(buffers, 0, count);
+                outboundBytes -= len;
+                Arrays.fill(buffers, 0, count, null);
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    release(outbound.poll());
+                }
+                if (len < batchSize) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        private synchronized boolean hasQueuedData() {
+            return !pending.isEmpty() || !outbound.isEmpty();
+        }
+
+        private void release(ByteBuffer buffer) {
+            if (tls != null) {
+                tls.release(buffer);
+            }
+        }
+
+        synchronized boolean isClosed() {
+            return isClosed;
+        }
+
+        void close() {
+            synchronized (this) {
+                if (isClosed) {
+                    return;
+                }
+                isClosed = true;
+                outbound.forEach(this::release);
+                outbound.clear();
+                pending.clear();
+                if (tls != null) {
+                    tls.close();
+                }
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            onClosed(this);
+            if (connections.remove(remoteAddress, this)) {
+                coapReceiver.onDisconnected(remoteAddress);
+            }
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import com.mbed.coap.utils.ByteBufferPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * TLS state of a single non-blocking connection, wraps SSLEngine. Network buffers are taken from a pool and held only
+ * while needed: for incomplete received TLS record and for encrypted data that is not yet written to socket.
+ * <p>
+ * Unwrapping is done by connection's event loop thread only, wrapping is synchronized, so it can be called from any
+ * thread.
+ * </p>
+ */
+final class TlsSession {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final ByteBufferPool netBufferPool;
+    private ByteBuffer netIn; //incomplete TLS record, in write mode
+    private boolean isHandshakeFinished;
+
+    TlsSession(SSLEngine engine, ByteBufferPool netBufferPool) throws SSLException {
+        this.engine = engine;
+        this.netBufferPool = netBufferPool;
+        engine.beginHandshake();
+    }
+
+    /**
+     * Returns buffer to read network data into: connection's own buffer when it holds incomplete record, otherwise
+     * given shared buffer.
+     */
+    ByteBuffer readBuffer(ByteBuffer sharedBuffer) {
+        if (netIn != null) {
+            return netIn;
+        }
+        sharedBuffer.clear();
+        return sharedBuffer;
+    }
+
+    /**
+     * Returns network data left from previous read, in read mode.
+     */
+    ByteBuffer storedData() {
+        if (netIn == null) {
+            return EMPTY;
+        }
+        netIn.flip();
+        return netIn;
+    }
+
+    /**
+     * Keeps not unwrapped network data (incomplete record) till next read.
+     */
+    void keepRemaining(ByteBuffer netData) throws IOException {
+        if (netData == netIn) {
+            if (!netIn.hasRemaining()) {
+                netBufferPool.release(netIn);
+                netIn = null;
+            } else {
+                netIn.compact();
+                if (!netIn.hasRemaining()) {
+                    throw new IOException("TLS record too large");
+                }
+            }
+        } else if (netData.hasRemaining()) {
+            netIn = netBufferPool.acquire();
+            netIn.put(netData);
+        }
+    }
+
+    SSLEngineResult unwrap(ByteBuffer netData, ByteBuffer appOut) throws SSLException {
+        SSLEngineResult result = engine.unwrap(netData, appOut);
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+            isHandshakeFinished = true;
+        }
+        return result;
+    }
+
+    /**
+     * Encrypts application data (or produces handshake data when given buffer is empty).
+     *
+     * @return pooled buffers with encrypted data, in read mode
+     */
+    synchronized List<ByteBuffer> wrap(ByteBuffer appData) throws IOException {
+        List<ByteBuffer> netData = new ArrayList<>(1);
+        do {
+            ByteBuffer netOut = netBufferPool.acquire();
+            SSLEngineResult result = engine.wrap(appData, netOut);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                netBufferPool.release(netOut);
+                throw new IOException("TLS wrap failed: " + result.getStatus());
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                isHandshakeFinished = true;
+            }
+            netOut.flip();
+            netData.add(netOut);
+        } while (appData.hasRemaining());
+        return netData;
+    }
+
+    SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        return engine.getHandshakeStatus();
+    }
+
+    /**
+     * @return true when initial handshake is finished
+     */
+    boolean isHandshakeFinished() {
+        return isHandshakeFinished;
+    }
+
+    List<Runnable> delegatedTasks() {
+        List<Runnable> tasks = new ArrayList<>(1);
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    void release(ByteBuffer netData) {
+        netBufferPool.release(netData);
+    }
+
+    void close() {
+        engine.closeOutbound();
+        if (netIn != null) {
+            netBufferPool.release(netIn);
+            netIn = null;
+        }
+    }
+}
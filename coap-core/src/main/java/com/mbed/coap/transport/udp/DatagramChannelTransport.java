@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.udp;
+
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.transport.BlockingCoapTransport;
+import com.mbed.coap.transport.CoapReceiver;
+import com.mbed.coap.transport.TransportContext;
+import com.mbed.coap.utils.ByteBufferPool;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Datagram transport based on non-blocking DatagramChannel. Received datagrams are read into pooled direct buffers,
+ * so that reading loop does not allocate per packet.
+ */
+public class DatagramChannelTransport extends BlockingCoapTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatagramChannelTransport.class.getName());
+    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private static final int DEFAULT_BUFFER_POOL_SIZE = 1024;
+
+    private final InetSocketAddress bindSocket;
+    private final Executor receivedMessageWorker;
+    private final ByteBufferPool bufferPool;
+    private DatagramChannel channel;
+    private Selector selector;
+    private int socketBufferSize = -1;
+    private boolean reuseAddress;
+    private boolean reusePort;
+    private Thread readerThread;
+
+    public DatagramChannelTransport(InetSocketAddress bindSocket, Executor receivedMessageWorker, int bufferPoolSize) {
+        this.bindSocket = bindSocket;
+        this.receivedMessageWorker = receivedMessageWorker;
+        this.bufferPool = new ByteBufferPool(bufferPoolSize, MAX_DATAGRAM_SIZE, true);
+    }
+
+    public DatagramChannelTransport(InetSocketAddress bindSocket, Executor receivedMessageWorker) {
+        this(bindSocket, receivedMessageWorker, DEFAULT_BUFFER_POOL_SIZE);
+    }
+
+    public DatagramChannelTransport(int localPort, Executor receivedMessageWorker) {
+        this(new InetSocketAddress(localPort), receivedMessageWorker);
+    }
+
+    public DatagramChannelTransport(int localPort) {
+        this(localPort, Runnable::run);
+    }
+
+    public void setSocketBufferSize(int socketBufferSize) {
+        if (channel != null) {
+            throw new IllegalStateException();
+        }
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public void setReuseAddress(boolean reuseAddress) {
+        if (channel != null) {
+            throw new IllegalStateException();
+        }
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * Enables SO_REUSEPORT, that allows to bind multiple sockets to the same port. Requires JVM 9 or newer.
+     *
+     * @param reusePort enable SO_REUSEPORT
+     */
+    public void setReusePort(boolean reusePort) {
+        if (channel != null) {
+            throw new IllegalStateException();
+        }
+        this.reusePort = reusePort;
+    }
+
+    @Override
+    public void start(CoapReceiver coapReceiver) throws IOException {
+        channel = createChannel();
+        if (socketBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, socketBufferSize);
+        }
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+        if (reusePort) {
+            channel.setOption(reusePortOption(), true);
+        }
+        channel.bind(bindSocket);
+        channel.configureBlocking(false);
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        LOGGER.info("CoAP server binds on " + channel.getLocalAddress());
+
+        readerThread = new Thread(() -> readingLoop(coapReceiver), "udp-channel-reader");
+        readerThread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    static SocketOption<Boolean> reusePortOption() throws IOException {
+        //StandardSocketOptions.SO_REUSEPORT is available since java 9
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IOException("SO_REUSEPORT is not supported by this JVM", e);
+        }
+    }
+
+    static boolean isReusePortSupported() {
+        try {
+            reusePortOption();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    protected DatagramChannel createChannel() throws IOException {
+        return DatagramChannel.open();
+    }
+
+    private void readingLoop(CoapReceiver coapReceiver) {
+        try {
+            while (channel.isOpen()) {
+                if (selector.select() > 0) {
+                    selector.selectedKeys().clear();
+                    receiveAll(coapReceiver);
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException ex) {
+            LOGGER.debug("Channel closed");
+        } catch (Exception ex) {
+            LOGGER.warn(ex.getMessage(), ex);
+        }
+    }
+
+    private void receiveAll(CoapReceiver coapReceiver) throws IOException {
+        while (true) {
+            final ByteBuffer buffer = bufferPool.acquire();
+            final InetSocketAddress remoteAddress = (InetSocketAddress) channel.receive(buffer);
+            if (remoteAddress == null) {
+                bufferPool.release(buffer);
+                return;
+            }
+            buffer.flip();
+
+            receivedMessageWorker.execute(() -> handle(coapReceiver, remoteAddress, buffer));
+        }
+    }
+
+    private void handle(CoapReceiver coapReceiver, InetSocketAddress remoteAddress, ByteBuffer buffer) {
+        final CoapPacket coapPacket;
+        try {
+            coapPacket = CoapPacket.read(remoteAddress, buffer);
+        } catch (CoapException e) {
+            LOGGER.warn(e.getMessage());
+            return;
+        } finally {
+            bufferPool.release(buffer);
+        }
+        coapReceiver.handle(coapPacket, TransportContext.NULL);
+    }
+
+    @Override
+    public void stop() {
+        if (channel != null) {
+            try {
+                channel.close();
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+            if (readerThread != null) {
+                readerThread.interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext transContext) throws CoapException, IOException {
+        send(coapPacket, adr, transContext, null);
+    }
+
+    /**
+     * Serializes into pooled buffer, only copy passed to consumer is allocated on heap.
+     */
+    @Override
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext transContext, Consumer<byte[]> encodedPacketConsumer) throws CoapException, IOException {
+        send(coapPacket, adr, transContext, encodedPacketConsumer);
+    }
+
+    private void send(CoapPacket coapPacket, InetSocketAddress adr, TransportContext transContext, Consumer<byte[]> encodedPacketConsumer) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException();
+        }
+        int size = coapPacket.encodedSize();
+        ByteBuffer buffer = size <= bufferPool.getBufferSize() ? bufferPool.acquire() : ByteBuffer.allocate(size);
+        try {
+            coapPacket.writeTo(buffer);
+            buffer.flip();
+            if (encodedPacketConsumer != null) {
+                byte[] data = new byte[buffer.remaining()];
+                buffer.duplicate().get(data);
+                encodedPacketConsumer.accept(data);
+            }
+            send(buffer, adr, transContext);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void sendEncodedPacket0(byte[] data, InetSocketAddress adr, TransportContext transContext) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException();
+        }
+        send(ByteBuffer.wrap(data), adr, transContext);
+    }
+
+    private void send(ByteBuffer buffer, InetSocketAddress adr, TransportContext transContext) throws IOException {
+        Integer tc = transContext != null ? TrafficClassTransportContext.readFrom(transContext) : null;
+        if (tc != null && tc > 0) {
+            synchronized (this) {
+                channel.setOption(StandardSocketOptions.IP_TOS, tc);
+                send(buffer, adr);
+                channel.setOption(StandardSocketOptions.IP_TOS, 0);
+            }
+        } else {
+            send(buffer, adr);
+        }
+    }
+
+    private void send(ByteBuffer buffer, InetSocketAddress adr) throws IOException {
+        if (channel.send(buffer, adr) == 0) {
+            throw new IOException("Socket send buffer is full, datagram dropped");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected DatagramChannel getChannel() {
+        return channel;
+    }
+
+}
@@ -140,11 +140,14 @@ public class DatagramSocketTransport extends BlockingCoapTransport {
 
     @Override
     public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext transContext) throws CoapException, IOException {
+        sendEncodedPacket0(coapPacket.toByteArray(), adr, transContext);
+    }
+
+    @Override
+    public void sendEncodedPacket0(byte[] data, InetSocketAddress adr, TransportContext transContext) throws IOException {
         if (socket == null) {
             throw new IllegalStateException();
         }
-        byte[] data = coapPacket.toByteArray();
-
         DatagramPacket datagramPacket = new DatagramPacket(data, data.length, adr);
 
         if (transContext != null) {
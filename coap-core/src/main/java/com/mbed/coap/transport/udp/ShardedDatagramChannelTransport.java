@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.udp;
+
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.transport.BlockingCoapTransport;
+import com.mbed.coap.transport.CoapReceiver;
+import com.mbed.coap.transport.TransportContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Datagram transport that binds multiple sockets (shards) to the same port using SO_REUSEPORT. Every shard has its own
+ * reading thread, kernel distributes incoming datagrams between shards by hashing 4-tuple, so that every remote
+ * endpoint is consistently handled by one shard.
+ * <p>
+ * With default, same-thread executor, each shard reading thread runs whole receiving pipeline, which makes
+ * receiving throughput scale with number of cores.
+ * </p>
+ * <p>
+ * Outgoing packet is sent from the shard that last received datagram from its destination, so that replies leave
+ * through socket that owns peer's flow. Receiving shard is stamped per peer in bounded, direct-mapped table, peers
+ * never heard from (or evicted by collision) fall back to shard chosen by hash of address.
+ * </p>
+ * Sharding (shardCount &gt; 1) requires SO_REUSEPORT support, available with JVM 9 or newer on Linux.
+ */
+public class ShardedDatagramChannelTransport extends BlockingCoapTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedDatagramChannelTransport.class.getName());
+    private final InetSocketAddress bindSocket;
+    private final Executor receivedMessageWorker;
+    private static final int PEER_SLOTS = 1 << 16;
+    final DatagramChannelTransport[] shards;
+    private final AtomicReferenceArray<PeerShard> peerShards;
+
+    public ShardedDatagramChannelTransport(InetSocketAddress bindSocket, int shardCount, Executor receivedMessageWorker) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        this.bindSocket = bindSocket;
+        this.receivedMessageWorker = receivedMessageWorker;
+        this.shards = new DatagramChannelTransport[shardCount];
+        this.peerShards = shardCount > 1 ? new AtomicReferenceArray<>(PEER_SLOTS) : null;
+    }
+
+    public ShardedDatagramChannelTransport(int localPort, int shardCount) {
+        this(new InetSocketAddress(localPort), shardCount, Runnable::run);
+    }
+
+    @Override
+    public void start(CoapReceiver coapReceiver) throws IOException {
+        InetSocketAddress sharedBindSocket;
+        try {
+            shards[0] = createShard(bindSocket);
+            shards[0].start(shardReceiver(coapReceiver, 0));
+
+            //when binding to ephemeral port, rest of shards must bind to the same one
+            sharedBindSocket = shards[0].getLocalSocketAddress();
+            for (int i = 1; i < shards.length; i++) {
+                shards[i] = createShard(sharedBindSocket);
+                shards[i].start(shardReceiver(coapReceiver, i));
+            }
+        } catch (IOException | RuntimeException ex) {
+            stop();
+            throw ex;
+        }
+        LOGGER.info("CoAP server started with {} shards on {}", shards.length, sharedBindSocket);
+    }
+
+    CoapReceiver shardReceiver(CoapReceiver coapReceiver, int shard) {
+        if (peerShards == null) {
+            return coapReceiver;
+        }
+        return (packet, transportContext) -> {
+            onReceived(packet.getRemoteAddress(), shard);
+            coapReceiver.handle(packet, transportContext);
+        };
+    }
+
+    private void onReceived(InetSocketAddress peer, int shard) {
+        int slot = peerSlot(peer);
+        PeerShard current = peerShards.get(slot);
+        //allocate only when peer's flow moves to other shard or slot is taken by other peer
+        if (current == null || current.shard != shard || !current.peer.equals(peer)) {
+            peerShards.set(slot, new PeerShard(peer, shard));
+        }
+    }
+
+    private DatagramChannelTransport createShard(InetSocketAddress bindAddress) {
+        DatagramChannelTransport shard = new DatagramChannelTransport(bindAddress, receivedMessageWorker);
+        if (shards.length > 1) {
+            shard.setReusePort(true);
+        }
+        return shard;
+    }
+
+    @Override
+    public void stop() {
+        for (DatagramChannelTransport shard : shards) {
+            if (shard != null) {
+                shard.stop();
+            }
+        }
+    }
+
+    @Override
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext) throws CoapException, IOException {
+        DatagramChannelTransport shard = shards[shardIndex(adr)];
+        if (shard == null) {
+            throw new IllegalStateException();
+        }
+        shard.sendPacket0(coapPacket, adr, tranContext);
+    }
+
+    @Override
+    public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext, Consumer<byte[]> encodedPacketConsumer) throws CoapException, IOException {
+        DatagramChannelTransport shard = shards[shardIndex(adr)];
+        if (shard == null) {
+            throw new IllegalStateException();
+        }
+        shard.sendPacket0(coapPacket, adr, tranContext, encodedPacketConsumer);
+    }
+
+    @Override
+    public void sendEncodedPacket0(byte[] data, InetSocketAddress adr, TransportContext tranContext) throws IOException {
+        DatagramChannelTransport shard = shards[shardIndex(adr)];
+        if (shard == null) {
+            throw new IllegalStateException();
+        }
+        shard.sendEncodedPacket0(data, adr, tranContext);
+    }
+
+    /**
+     * @return shard that last received datagram from given address, or shard chosen by hash of address
+     */
+    int shardIndex(InetSocketAddress adr) {
+        if (peerShards != null) {
+            PeerShard peerShard = peerShards.get(peerSlot(adr));
+            if (peerShard != null && peerShard.peer.equals(adr)) {
+                return peerShard.shard;
+            }
+        }
+        return (adr.hashCode() & 0x7FFFFFFF) % shards.length;
+    }
+
+    private static int peerSlot(InetSocketAddress adr) {
+        int h = adr.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (PEER_SLOTS - 1);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return shards[0].getLocalSocketAddress();
+    }
+
+    private static final class PeerShard {
+        private final InetSocketAddress peer;
+        private final int shard;
+
+        PeerShard(InetSocketAddress peer, int shard) {
+            this.peer = peer;
+            this.shard = shard;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of equally sized byte buffers. When pool is exhausted, new buffer is allocated,
+ * buffers released above pool size are dropped. Thread-safe.
+ */
+public class ByteBufferPool {
+
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final int bufferSize;
+    private final boolean direct;
+
+    public ByteBufferPool(int poolSize, int bufferSize, boolean direct) {
+        if (poolSize <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.buffers = new ArrayBlockingQueue<>(poolSize);
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns cleared buffer, taken from the pool or newly allocated if the pool is empty.
+     *
+     * @return byte buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = buffers.poll();
+        if (buf == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        return buf;
+    }
+
+    /**
+     * Returns buffer to the pool. Buffer must not be used by caller afterwards.
+     *
+     * @param buf byte buffer
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || buf.capacity() != bufferSize || buf.isDirect() != direct) {
+            return;
+        }
+        buf.clear();
+        buffers.offer(buf);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    int pooled() {
+        return buffers.size();
+    }
+}
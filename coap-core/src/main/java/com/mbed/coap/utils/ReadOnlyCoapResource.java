@@ -17,7 +17,10 @@ package com.mbed.coap.utils;
 
 import com.mbed.coap.exception.CoapCodeException;
 import com.mbed.coap.packet.Code;
+import com.mbed.coap.packet.HeaderOptions;
+import com.mbed.coap.packet.ResponseTemplate;
 import com.mbed.coap.server.CoapExchange;
+import java.util.Objects;
 import java.util.function.Supplier;
 
 /**
@@ -28,6 +31,7 @@ public class ReadOnlyCoapResource extends CoapResource {
     private Supplier<String> payloadSupplier;
     private final Integer maxAgeSeconds;
     private final Short contentType;
+    private volatile CachedResponse cachedResponse;
 
     public void setResourceBody(String resourceBody) {
         this.payloadSupplier = () -> resourceBody;
@@ -65,14 +69,33 @@ public class ReadOnlyCoapResource extends CoapResource {
 
     @Override
     public void get(CoapExchange ex) throws CoapCodeException {
-        ex.setResponseBody(payloadSupplier.get());
-        ex.setResponseCode(Code.C205_CONTENT);
-        if (contentType != null) {
-            ex.setResponseContentType(contentType);
+        responseTemplate(payloadSupplier.get()).applyTo(ex.getResponse());
+        ex.sendResponse();
+    }
+
+    private ResponseTemplate responseTemplate(String body) {
+        CachedResponse cached = cachedResponse;
+        if (cached == null || cached.body != body && !Objects.equals(cached.body, body)) {
+            HeaderOptions headers = new HeaderOptions();
+            if (contentType != null) {
+                headers.setContentFormat(contentType);
+            }
+            if (maxAgeSeconds != null) {
+                headers.setMaxAge((long) maxAgeSeconds);
+            }
+            cached = new CachedResponse(body, new ResponseTemplate(Code.C205_CONTENT, headers, body));
+            cachedResponse = cached;
         }
-        if (maxAgeSeconds != null) {
-            ex.getResponseHeaders().setMaxAge((long) maxAgeSeconds);
+        return cached.template;
+    }
+
+    private static class CachedResponse {
+        private final String body;
+        private final ResponseTemplate template;
+
+        CachedResponse(String body, ResponseTemplate template) {
+            this.body = body;
+            this.template = template;
         }
-        ex.sendResponse();
     }
 }
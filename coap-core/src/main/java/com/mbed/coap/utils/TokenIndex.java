@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.utils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash map keyed on (endpoint address, token). Token (up to 8 bytes) is packed into a long, entries are kept in
+ * parallel arrays with open addressing, so that lookups do not allocate. Endpoint address can be null if only token
+ * is relevant. Thread-safe.
+ * <p>
+ * Table is split into stripes, selected by endpoint address, each guarded by own lock, so that operations for
+ * different endpoints do not contend. Entries of the same endpoint are additionally linked together, so that
+ * {@link #removeAll(InetSocketAddress)} touches only entries of that endpoint.
+ * </p>
+ * Token longer than 8 bytes can not be a key, lookups for it return nothing.
+ *
+ * @param <V> value type
+ */
+public class TokenIndex<V> {
+
+    private static final int DEFAULT_STRIPES = 32;
+    private static final int MAX_TOKEN_LENGTH = 8;
+
+    private final Stripe[] stripes;
+
+    public TokenIndex() {
+        this(DEFAULT_STRIPES);
+    }
+
+    TokenIndex(int stripeCount) {
+        if (Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be power of two");
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripe(InetSocketAddress address) {
+        int h = address != null ? address.hashCode() : 0;
+        h ^= (h >>> 16);
+        return stripes[(h * 0x9E3779B9 >>> 16) & (stripes.length - 1)];
+    }
+
+    public V get(InetSocketAddress address, byte[] token) {
+        if (isTooLong(token)) {
+            return null;
+        }
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            int i = stripe.indexOf(address, token);
+            return i < 0 ? null : value(stripe, i);
+        }
+    }
+
+    public boolean containsKey(InetSocketAddress address, byte[] token) {
+        return get(address, token) != null;
+    }
+
+    /**
+     * Associates value with key, replacing previous one.
+     *
+     * @return previous value or null
+     * @throws IllegalArgumentException if token is longer than 8 bytes
+     */
+    public V put(InetSocketAddress address, byte[] token, V value) {
+        return put(address, token, value, true);
+    }
+
+    /**
+     * Associates value with key only if there is no value yet.
+     *
+     * @return current value or null if value was added
+     * @throws IllegalArgumentException if token is longer than 8 bytes
+     */
+    public V putIfAbsent(InetSocketAddress address, byte[] token, V value) {
+        return put(address, token, value, false);
+    }
+
+    private V put(InetSocketAddress address, byte[] token, V value, boolean replace) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (isTooLong(token)) {
+            throw new IllegalArgumentException("Token too long: " + token.length);
+        }
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            int i = stripe.indexOf(address, token);
+            if (i >= 0) {
+                V prev = value(stripe, i);
+                if (replace) {
+                    stripe.values[i] = value;
+                }
+                return prev;
+            }
+            stripe.add(address, pack(token), length(token), value);
+            return null;
+        }
+    }
+
+    public V remove(InetSocketAddress address, byte[] token) {
+        if (isTooLong(token)) {
+            return null;
+        }
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            int i = stripe.indexOf(address, token);
+            if (i < 0) {
+                return null;
+            }
+            V prev = value(stripe, i);
+            stripe.removeAt(i);
+            return prev;
+        }
+    }
+
+    /**
+     * Removes entry only if it is associated with given value (compared by identity).
+     *
+     * @return true if removed
+     */
+    public boolean remove(InetSocketAddress address, byte[] token, V value) {
+        if (isTooLong(token)) {
+            return false;
+        }
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            int i = stripe.indexOf(address, token);
+            if (i < 0 || stripe.values[i] != value) {
+                return false;
+            }
+            stripe.removeAt(i);
+            return true;
+        }
+    }
+
+    /**
+     * Removes all entries for given address.
+     *
+     * @return removed values
+     */
+    public List<V> removeAll(InetSocketAddress address) {
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            Chain chain = stripe.chains.get(address);
+            if (chain == null) {
+                return new ArrayList<>(0);
+            }
+            List<V> removed = new ArrayList<>(chain.size);
+            while (chain.head >= 0) {
+                removed.add(value(stripe, chain.head));
+                stripe.removeAt(chain.head);
+            }
+            return removed;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(Stripe stripe, int i) {
+        return (V) stripe.values[i];
+    }
+
+    private static boolean isTooLong(byte[] token) {
+        return token != null && token.length > MAX_TOKEN_LENGTH;
+    }
+
+    private static int length(byte[] token) {
+        return token == null ? 0 : token.length;
+    }
+
+    static long pack(byte[] token) {
+        if (token == null) {
+            return 0;
+        }
+        if (token.length > MAX_TOKEN_LENGTH) {
+            throw new IllegalArgumentException("Token too long: " + token.length);
+        }
+        long packed = 0;
+        for (byte b : token) {
+            packed = (packed << 8) | (b & 0xFF);
+        }
+        return packed;
+    }
+
+    private static int hash(InetSocketAddress address, long packedToken, int tokenLength) {
+        long h = (packedToken + tokenLength) * 0x9E3779B97F4A7C15L;
+        h ^= (address != null ? address.hashCode() : 0) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Entries of one endpoint, doubly linked through slot indexes.
+     */
+    private static final class Chain {
+        private int head = -1;
+        private int size;
+    }
+
+    /**
+     * Open addressing table, guarded by its own monitor.
+     */
+    private static final class Stripe {
+        private static final int MIN_CAPACITY = 8;
+
+        private long[] tokens;
+        private byte[] tokenLengths;
+        private InetSocketAddress[] addresses;
+        private Object[] values;
+        private int[] next;
+        private int[] prev;
+        private final Map<InetSocketAddress, Chain> chains = new HashMap<>();
+        private int size;
+
+        Stripe() {
+            allocate(MIN_CAPACITY);
+        }
+
+        int indexOf(InetSocketAddress address, byte[] token) {
+            long packedToken = pack(token);
+            int tokenLength = length(token);
+            int mask = values.length - 1;
+            int i = hash(address, packedToken, tokenLength) & mask;
+            while (values[i] != null) {
+                if (matches(i, address, packedToken, tokenLength)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean matches(int i, InetSocketAddress address, long packedToken, int tokenLength) {
+            return tokens[i] == packedToken && tokenLengths[i] == tokenLength
+                    && (addresses[i] == address || (address != null && address.equals(addresses[i])));
+        }
+
+        void add(InetSocketAddress address, long packedToken, int tokenLength, Object value) {
+            int mask = values.length - 1;
+            int i = hash(address, packedToken, tokenLength) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            tokens[i] = packedToken;
+            tokenLengths[i] = (byte) tokenLength;
+            addresses[i] = address;
+            values[i] = value;
+            Chain chain = chains.get(address);
+            if (chain == null) {
+                chain = new Chain();
+                chains.put(address, chain);
+            }
+            link(chain, i);
+
+            if (++size > values.length / 2) {
+                resize(values.length * 2);
+            }
+        }
+
+        private void link(Chain chain, int i) {
+            prev[i] = -1;
+            next[i] = chain.head;
+            if (chain.head >= 0) {
+                prev[chain.head] = i;
+            }
+            chain.head = i;
+            chain.size++;
+        }
+
+        private void unlink(int i) {
+            Chain chain = chains.get(addresses[i]);
+            if (prev[i] >= 0) {
+                next[prev[i]] = next[i];
+            } else {
+                chain.head = next[i];
+            }
+            if (next[i] >= 0) {
+                prev[next[i]] = prev[i];
+            }
+            if (--chain.size == 0) {
+                chains.remove(addresses[i]);
+            }
+        }
+
+        void removeAt(int i) {
+            int mask = values.length - 1;
+            unlink(i);
+            clear(i);
+            size--;
+
+            //shift back following entries from the same probe sequence
+            int j = (i + 1) & mask;
+            while (values[j] != null) {
+                int home = hash(addresses[j], tokens[j], tokenLengths[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    move(j, i);
+                    i = j;
+                }
+                j = (j + 1) & mask;
+            }
+        }
+
+        private void move(int from, int to) {
+            tokens[to] = tokens[from];
+            tokenLengths[to] = tokenLengths[from];
+            addresses[to] = addresses[from];
+            values[to] = values[from];
+            //relink moved entry
+            prev[to] = prev[from];
+            next[to] = next[from];
+            if (prev[to] >= 0) {
+                next[prev[to]] = to;
+            } else {
+                chains.get(addresses[to]).head = to;
+            }
+            if (next[to] >= 0) {
+                prev[next[to]] = to;
+            }
+            clear(from);
+        }
+
+        private void clear(int i) {
+            addresses[i] = null;
+            values[i] = null;
+        }
+
+        private void resize(int capacity) {
+            long[] oldTokens = tokens;
+            byte[] oldTokenLengths = tokenLengths;
+            InetSocketAddress[] oldAddresses = addresses;
+            Object[] oldValues = values;
+
+            allocate(capacity);
+            for (Chain chain : chains.values()) {
+                chain.head = -1;
+                chain.size = 0;
+            }
+            int mask = capacity - 1;
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = hash(oldAddresses[j], oldTokens[j], oldTokenLengths[j]) & mask;
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    tokens[i] = oldTokens[j];
+                    tokenLengths[i] = oldTokenLengths[j];
+                    addresses[i] = oldAddresses[j];
+                    values[i] = oldValues[j];
+                    link(chains.get(oldAddresses[j]), i);
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            tokens = new long[capacity];
+            tokenLengths = new byte[capacity];
+            addresses = new InetSocketAddress[capacity];
+            values = new Object[capacity];
+            next = new int[capacity];
+            prev = new int[capacity];
+        }
+    }
+}
@@ -35,8 +35,6 @@ import com.mbed.coap.utils.FutureCallbackAdapter;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
-import nl.jqno.equalsverifier.EqualsVerifier;
-import nl.jqno.equalsverifier.Warning;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -46,7 +44,8 @@ import protocolTests.utils.CoapPacketBuilder;
  * Created by szymon
  */
 public class CoapClientTest {
-    private final BlockingCoapTransport coapTransport = mock(BlockingCoapTransport.class);
+    //real sendEncodedPacket0, passes to sendPacket0
+    private final BlockingCoapTransport coapTransport = mock(BlockingCoapTransport.class, Mockito.CALLS_REAL_METHODS);
     private ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class, Mockito.RETURNS_DEEP_STUBS);
     private int mid = 100;
     private final MessageIdSupplier midSupplier = () -> mid++;
@@ -242,11 +241,6 @@ public class CoapClientTest {
         assertSent(newCoapPacket(LOCAL_5683).mid(200).ack(Code.C500_INTERNAL_SERVER_ERROR));
     }
 
-    @Test
-    public void equalsAndHashTest() throws Exception {
-        EqualsVerifier.forClass(ObservationHandlerImpl.Token.class).suppress(Warning.NONFINAL_FIELDS).usingGetClass().verify();
-    }
-
 
     private void assertSent(CoapPacketBuilder coapPacketBuilder) throws CoapException, IOException {
         assertSent(coapPacketBuilder.build());
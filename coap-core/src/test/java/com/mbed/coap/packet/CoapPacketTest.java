@@ -19,13 +19,17 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static protocolTests.utils.CoapPacketBuilder.*;
 import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.exception.CoapMessageFormatException;
 import com.mbed.coap.linkformat.LinkFormat;
 import com.mbed.coap.linkformat.LinkFormatBuilder;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -89,6 +93,89 @@ public class CoapPacketTest extends CoapPacketTestBase {
         assertSimilar(cp, cp2);
     }
 
+    @Test
+    public void readFromByteBufferGiveBackSameCoapPacket() throws CoapException {
+        InetSocketAddress addr = InetSocketAddress.createUnresolved("some.host", 1234);
+        CoapPacket cp = newCoapPacket(addr).mid(13).token(0x1234).con().get().uriPath("/3/0/1").obs(0).build();
+        CoapPacket notif = newCoapPacket(addr).mid(14).token(0x1234).non(Code.C205_CONTENT).obs(12).etag(1).contFormat(MediaTypes.CT_APPLICATION_LWM2M_TLV)
+                .maxAge(3600).payload("test-payload").build();
+
+        for (CoapPacket packet : Arrays.asList(cp, notif)) {
+            byte[] rawCp = CoapPacket.serialize(packet);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(rawCp.length + 10);
+            buffer.position(5);
+            buffer.put(rawCp).flip().position(5);
+
+            CoapPacket cp2 = CoapPacket.read(addr, buffer);
+
+            assertEquals(packet, cp2);
+            assertEquals(CoapPacket.read(addr, rawCp), cp2);
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void readFromByteBuffer_withBigOptions() throws CoapException {
+        CoapPacket cp = newCoapPacket(LOCAL_5683).mid(1).put().uriPath("/" + new String(new char[300]).replace('\0', 'a')).build();
+        cp.headers().put(1000, new byte[]{1, 2, 3});
+        byte[] rawCp = CoapPacket.serialize(cp);
+
+        CoapPacket cp2 = CoapPacket.read(LOCAL_5683, ByteBuffer.wrap(rawCp));
+
+        assertEquals(cp.headers().getUriPath(), cp2.headers().getUriPath());
+        assertArrayEquals(new byte[]{1, 2, 3}, cp2.headers().getCustomOption(1000));
+    }
+
+    @Test(expected = CoapMessageFormatException.class)
+    public void readFromByteBuffer_failWhenTruncated() throws CoapException {
+        byte[] rawCp = CoapPacket.serialize(newCoapPacket(LOCAL_5683).mid(1).token(0x1234).get().uriPath("/test").build());
+
+        CoapPacket.read(LOCAL_5683, ByteBuffer.wrap(rawCp, 0, rawCp.length - 2));
+    }
+
+    @Test(expected = CoapMessageFormatException.class)
+    public void read_failWhenTokenLengthIsReserved() throws CoapException {
+        //TKL 9, GET, MID 1
+        CoapPacket.read(LOCAL_5683, ByteBuffer.wrap(new byte[]{0x49, 0x01, 0, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+    }
+
+    @Test(expected = CoapMessageFormatException.class)
+    public void readFromStream_failWhenTokenLengthIsReserved() throws CoapException {
+        CoapPacket.read(LOCAL_5683, new byte[]{0x49, 0x01, 0, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+    }
+
+    @Test(expected = CoapException.class)
+    public void readFromByteBuffer_versionTest() throws CoapException {
+        CoapPacket.read(null, ByteBuffer.wrap(new byte[]{(byte) 0x85, 0, 0, 0}));
+    }
+
+    @Test
+    public void writeToByteBuffer() throws CoapException {
+        CoapPacket bigOptions = newCoapPacket(LOCAL_5683).mid(1).put().uriPath("/" + new String(new char[300]).replace('\0', 'a')).payload("test").build();
+        bigOptions.headers().put(1000, new byte[]{1, 2, 3});
+
+        for (CoapPacket cp : Arrays.asList(bigOptions, newCoapPacket(LOCAL_5683).mid(2).ack(null).build(),
+                newCoapPacket(LOCAL_5683).mid(3).token(123).non(Code.C205_CONTENT).obs(2).maxAge(100).payload("dupa").build())) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            cp.writeTo(os);
+
+            ByteBuffer buffer = ByteBuffer.allocate(cp.encodedSize() + 10);
+            buffer.position(10);
+            cp.writeTo(buffer);
+
+            assertFalse(buffer.hasRemaining());
+            assertArrayEquals(os.toByteArray(), Arrays.copyOfRange(buffer.array(), 10, buffer.capacity()));
+            assertArrayEquals(os.toByteArray(), cp.toByteArray());
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void writeToByteBuffer_failWhenTooSmall() throws CoapException {
+        CoapPacket cp = newCoapPacket(LOCAL_5683).mid(1).get().uriPath("/test").build();
+
+        cp.writeTo(ByteBuffer.allocate(cp.encodedSize() - 1));
+    }
+
     @Test
     public void coapPacketTest3() throws CoapException {
         CoapPacket cp = new CoapPacket(Method.PUT, MessageType.Confirmable, "", null);
@@ -324,6 +411,23 @@ public class CoapPacketTest extends CoapPacketTestBase {
         new CoapPacket(null).readFrom(inputStream);
     }
 
+    @Test
+    public void compactCopy() throws Exception {
+        CoapPacket cp = newCoapPacket(new InetSocketAddress(5683)).mid(12).token(0x1234).con().get().uriPath("/test").obs(1).payload("abc").build();
+        byte[] serialized = cp.toByteArray();
+
+        CoapPacket copy = cp.compactCopy();
+
+        assertArrayEquals(serialized, copy.toByteArray());
+        assertEquals(cp, copy);
+        assertEquals("/test", copy.headers().getUriPath());
+
+        //original is not affected by copy modification
+        copy.headers().setUriPath("/other");
+        assertEquals("/test", cp.headers().getUriPath());
+        assertArrayEquals(serialized, cp.toByteArray());
+    }
+
     @Test
     public void equalsAndHashTest() throws Exception {
         EqualsVerifier.forClass(CoapPacket.class).suppress(Warning.NONFINAL_FIELDS).usingGetClass().verify();
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.Assert.*;
+import com.mbed.coap.exception.CoapMessageFormatException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import protocolTests.utils.CoapPacketBuilder;
+
+public class CoapTcpFrameDecoderTest {
+
+    private final CoapTcpFrameDecoder decoder = new CoapTcpFrameDecoder(100_000);
+
+    @Test
+    public void shouldDecodeTricklingFrame() throws Exception {
+        byte[] frame = CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(1234L).code(Code.C205_CONTENT).uriPath("/test").payload(new byte[300]).build());
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length);
+
+        //header: Len=14, extended length on 2 bytes
+        buffer.put(frame[0]).flip();
+        assertNull(decoder.decode(null, buffer));
+        assertEquals(2, decoder.getBytesNeeded());
+        assertEquals(0, buffer.position());
+
+        for (int i = 1; i < frame.length - 1; i++) {
+            buffer.compact().put(frame[i]).flip();
+            assertNull(decoder.decode(null, buffer));
+            assertEquals(0, buffer.position());
+        }
+        assertEquals(1, decoder.getBytesNeeded());
+
+        buffer.compact().put(frame[frame.length - 1]).flip();
+        CoapPacket packet = decoder.decode(null, buffer);
+
+        assertNotNull(packet);
+        assertFalse(buffer.hasRemaining());
+        assertEquals("/test", packet.headers().getUriPath());
+        assertEquals(300, packet.getPayload().length);
+        assertArrayEquals(frame, CoapTcpPacketSerializer.serialize(packet));
+    }
+
+    @Test
+    public void shouldDecodeMultipleFramesFromBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        for (int i = 0; i < 5; i++) {
+            buffer.put(CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(i).get().uriPath("/" + i).build()));
+        }
+        buffer.put((byte) 0x12); //start of next frame
+        buffer.flip();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("/" + i, decoder.decode(null, buffer).headers().getUriPath());
+        }
+        assertNull(decoder.decode(null, buffer));
+        assertEquals(1, buffer.remaining());
+        assertEquals(4, decoder.getBytesNeeded());
+    }
+
+    @Test
+    public void shouldDecodeEmptyAndSignalingFrames() throws Exception {
+        CoapPacket csm = new CoapPacket(null);
+        csm.setCode(Code.C701_CSM);
+        csm.setMessageType(null);
+        csm.headers().putSignallingOptions(SignalingOptions.capabilities(2000, true));
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.put(new byte[]{0x00, 0x00}); //empty ping
+        buffer.put(CoapTcpPacketSerializer.serialize(csm));
+        buffer.flip();
+
+        CoapPacket ping = decoder.decode(null, buffer);
+        assertNull(ping.getCode());
+        assertNull(ping.getMethod());
+        assertEquals(0, ping.getToken().length);
+
+        CoapPacket csm2 = decoder.decode(null, buffer);
+        assertEquals(Code.C701_CSM, csm2.getCode());
+        assertEquals(2000, csm2.headers().toSignallingOptions(Code.C701_CSM).getMaxMessageSize().intValue());
+        assertTrue(csm2.headers().toSignallingOptions(Code.C701_CSM).getBlockWiseTransfer());
+    }
+
+    @Test
+    public void shouldFailWhenFrameTooLarge_beforeWholeFrameIsReceived() throws Exception {
+        CoapTcpFrameDecoder smallDecoder = new CoapTcpFrameDecoder(100);
+        byte[] frame = CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(1).put().uriPath("/test").payload(new byte[500]).build());
+
+        assertThatThrownBy(() -> smallDecoder.decode(null, ByteBuffer.wrap(frame, 0, 10)))
+                .isExactlyInstanceOf(CoapMessageFormatException.class)
+                .hasMessage("Frame too large: " + frame.length);
+    }
+}
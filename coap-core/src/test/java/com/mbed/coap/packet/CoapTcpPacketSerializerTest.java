@@ -27,6 +27,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.Random;
@@ -53,6 +54,25 @@ public class CoapTcpPacketSerializerTest extends CoapPacketTestBase {
         assertSimilar(cp, cp2);
     }
 
+    @Test
+    public void writeToByteBuffer() throws CoapException, IOException {
+        for (int payloadSize : new int[]{0, 5, 57, 666, 65807}) {
+            CoapPacket cp = CoapPacketBuilder.newCoapPacket().token(1234L).code(Code.C205_CONTENT).uriPath("/test").payload(new byte[payloadSize]).build();
+            cp.setMessageType(null);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            CoapTcpPacketSerializer.writeTo(os, cp);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CoapTcpPacketSerializer.encodedSize(cp));
+            CoapTcpPacketSerializer.writeTo(buffer, cp);
+
+            assertFalse(buffer.hasRemaining());
+            buffer.flip();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            assertArrayEquals(os.toByteArray(), data);
+        }
+    }
+
     @Test
     public void simpleNoPayload() throws CoapException, IOException {
         byte[] simpleBytes = new byte[]{0x01, 0x43, 0x7f};
@@ -215,6 +235,48 @@ public class CoapTcpPacketSerializerTest extends CoapPacketTestBase {
     }
 
 
+    @Test
+    public void readFromByteBuffer() throws CoapException, IOException {
+        for (int payloadSize : new int[]{0, 5, 57, 666, 65807}) {
+            CoapPacket cp = CoapPacketBuilder.newCoapPacket().token(1234L).code(Code.C205_CONTENT).uriPath("/test").payload(new byte[payloadSize]).build();
+            cp.setMessageType(null);
+            byte[] rawCp = CoapTcpPacketSerializer.serialize(cp);
+            ByteBuffer buffer = ByteBuffer.allocate(rawCp.length + 3);
+            buffer.put(rawCp).put(new byte[]{1, 2, 3}).flip();
+
+            assertEquals(rawCp.length, CoapTcpPacketSerializer.frameSize(buffer));
+            CoapPacket cp2 = CoapTcpPacketSerializer.read(null, buffer);
+
+            assertEquals(rawCp.length, buffer.position());
+            assertEquals(3, buffer.remaining());
+            assertArrayEquals(rawCp, CoapTcpPacketSerializer.serialize(cp2));
+            assertSimilar(cp, cp2);
+        }
+    }
+
+    @Test
+    public void frameSizeShouldReturnMissingHeaderBytes() throws CoapException {
+        assertEquals(-1, CoapTcpPacketSerializer.frameSize(ByteBuffer.allocate(0)));
+        assertEquals(-4, CoapTcpPacketSerializer.frameSize(ByteBuffer.wrap(new byte[]{(byte) 0xF0})));
+        assertEquals(-1, CoapTcpPacketSerializer.frameSize(ByteBuffer.wrap(new byte[]{(byte) 0xE0, 0x01})));
+        assertEquals(2 + 1 + 8 + 13 + 7, CoapTcpPacketSerializer.frameSize(ByteBuffer.wrap(new byte[]{(byte) 0xD8, 0x07})));
+        assertEquals(2 + 4, CoapTcpPacketSerializer.frameSize(ByteBuffer.wrap(new byte[]{(byte) 0x40})));
+    }
+
+    @Test
+    public void readShouldFailWithIncompleteOrInvalidFrame() throws Exception {
+        CoapPacket cp = CoapPacketBuilder.newCoapPacket().token(1234L).code(Code.C204_CHANGED).uriPath("/test").payload("some test payload").build();
+        byte[] rawCp = CoapTcpPacketSerializer.serialize(cp);
+
+        assertThatThrownBy(() -> CoapTcpPacketSerializer.read(null, ByteBuffer.wrap(rawCp, 0, rawCp.length - 1)))
+                .isExactlyInstanceOf(CoapMessageFormatException.class);
+
+        byte[] invalidToken = createRawPacketHeader(0, 9, null, Code.C201_CREATED.getCoapCode(), new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8}).toByteArray();
+        assertThatThrownBy(() -> CoapTcpPacketSerializer.read(null, ByteBuffer.wrap(invalidToken)))
+                .isExactlyInstanceOf(CoapMessageFormatException.class)
+                .hasMessage("Token length invalid, should be in range 0..8");
+    }
+
     private void assertSimplePacketSerializationAndDeserilization(byte[] token, byte[] payload) throws CoapException, IOException {
         CoapPacket cp = new CoapPacket(null, null, "", null);
         cp.setToken(token);
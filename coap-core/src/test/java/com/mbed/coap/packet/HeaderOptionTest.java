@@ -25,7 +25,10 @@ import com.mbed.coap.utils.HexArray;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
@@ -486,11 +489,230 @@ public class HeaderOptionTest {
 
     @Test
     public void equalsAndHashTest() throws Exception {
-        EqualsVerifier.forClass(HeaderOptions.class).suppress(Warning.NONFINAL_FIELDS).usingGetClass().verify();
+        EqualsVerifier.forClass(HeaderOptions.class).suppress(Warning.NONFINAL_FIELDS).usingGetClass()
+                .withPrefabValues(EncodedOptions.class, new EncodedOptions(Code.C205_CONTENT), new EncodedOptions(null))
+                .verify();
 
         assertFalse(new BasicHeaderOptions().equals(null));
     }
 
+    @Test
+    public void lazyDecoding() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setUriPath("/3/0/1");
+        hdr.setObserve(0);
+        hdr.setContentFormat(MediaTypes.CT_APPLICATION_LWM2M_TLV);
+        hdr.put(100, new byte[]{1, 2});
+        byte[] raw = serialize(hdr);
+
+        HeaderOptions lazyHdr = new HeaderOptions();
+        assertFalse(lazyHdr.deserialize(ByteBuffer.wrap(raw), null, true));
+
+        assertEquals("/3/0/1", lazyHdr.getUriPath());
+        assertEquals(0, lazyHdr.getObserve().intValue());
+        assertNull(lazyHdr.getBlock2Res());
+        assertArrayEquals(raw, serialize(lazyHdr));
+
+        assertEquals(hdr, lazyHdr);
+        assertEquals(hdr.hashCode(), lazyHdr.hashCode());
+        assertArrayEquals(new byte[]{1, 2}, lazyHdr.getCustomOption(100));
+    }
+
+    @Test
+    public void lazyDecoding_reEncodeAsReceived() throws Exception {
+        //max-age with default value is not encoded by serializer
+        byte[] raw = new byte[]{(byte) 0xB1, 'a', 0x31, 60};
+
+        HeaderOptions lazyHdr = new HeaderOptions();
+        lazyHdr.deserialize(ByteBuffer.wrap(raw), null, true);
+        assertEquals("/a", lazyHdr.getUriPath());
+
+        assertArrayEquals(raw, serialize(lazyHdr));
+    }
+
+    @Test
+    public void lazyDecoding_modify() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setUriPath("/3/0/1");
+        hdr.setEtag(new byte[]{1});
+
+        HeaderOptions lazyHdr = new HeaderOptions();
+        lazyHdr.deserialize(ByteBuffer.wrap(serialize(hdr)), null, true);
+        lazyHdr.setObserve(12);
+
+        hdr.setObserve(12);
+        assertArrayEquals(serialize(hdr), serialize(lazyHdr));
+        assertEquals("/3/0/1", lazyHdr.getUriPath());
+        assertArrayEquals(new byte[]{1}, lazyHdr.getEtag());
+    }
+
+    @Test
+    public void lazyDecoding_criticalOptTest() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setUriPath("/test");
+        hdr.put(1001, new byte[]{1});
+
+        HeaderOptions lazyHdr = new HeaderOptions();
+        lazyHdr.deserialize(ByteBuffer.wrap(serialize(hdr)), null, true);
+
+        assertThatThrownBy(lazyHdr::criticalOptTest).isExactlyInstanceOf(CoapUnknownOptionException.class);
+
+        hdr = new HeaderOptions();
+        hdr.setUriPath("/test");
+        hdr.put(1000, new byte[]{1});
+        lazyHdr = new HeaderOptions();
+        lazyHdr.deserialize(ByteBuffer.wrap(serialize(hdr)), null, true);
+
+        lazyHdr.criticalOptTest();
+    }
+
+    @Test
+    public void lazyDecoding_javaSerialization() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setUriPath("/test");
+        HeaderOptions lazyHdr = new HeaderOptions();
+        lazyHdr.deserialize(ByteBuffer.wrap(serialize(hdr)), null, true);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream(baos).writeObject(lazyHdr);
+        HeaderOptions hdr2 = (HeaderOptions) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+
+        assertEquals("/test", hdr2.getUriPath());
+    }
+
+    @Test
+    public void compact() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setUriPath("/3/0/1");
+        hdr.setUriQuery("par1=1&par2=2");
+        hdr.setBlock2Res(new BlockOption(1, BlockSize.S_256, true));
+        hdr.setEtag(new byte[]{1, 2});
+        hdr.put(1000, new byte[]{3});
+        byte[] raw = serialize(hdr);
+
+        HeaderOptions compacted = new HeaderOptions();
+        compacted.setUriPath("/3/0/1");
+        compacted.setUriQuery("par1=1&par2=2");
+        compacted.setBlock2Res(new BlockOption(1, BlockSize.S_256, true));
+        compacted.setEtag(new byte[]{1, 2});
+        compacted.put(1000, new byte[]{3});
+        compacted = compact(compacted);
+
+        assertArrayEquals(raw, serialize(compacted));
+        assertEquals("/3/0/1", compacted.getUriPath());
+        assertEquals(new BlockOption(1, BlockSize.S_256, true), compacted.getBlock2Res());
+        assertEquals(hdr, compacted);
+
+        //modify after compacting
+        compacted.setObserve(1);
+        hdr.setObserve(1);
+        assertArrayEquals(serialize(hdr), serialize(compacted));
+    }
+
+    @Test
+    public void compact_decodeAllOptionTypes() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.setContentFormat((short) 11542);
+        hdr.setMaxAge(0xFFFFFFFFL);
+        hdr.setUriHost("arm.com");
+        hdr.setUriPort(5683);
+        hdr.setLocationPath("/a/b");
+        hdr.setLocationQuery("x=1&y=2");
+        hdr.setProxyUri("coap://proxy");
+        hdr.setProxyScheme("coaps");
+        hdr.setIfNonMatch(true);
+        hdr.setSize1(1024);
+        hdr.setObserve(0xFFFFFF);
+        hdr.setSize2Res(300);
+
+        HeaderOptions compacted = compact(deserialize(serialize(hdr), (byte) 0));
+
+        assertEquals(hdr.getContentFormat(), compacted.getContentFormat());
+        assertEquals(hdr.getMaxAge(), compacted.getMaxAge());
+        assertEquals("/a/b", compacted.getLocationPath());
+        assertEquals("x=1&y=2", compacted.getLocationQuery());
+        assertEquals(Integer.valueOf(0xFFFFFF), compacted.getObserve());
+        assertEquals(hdr, compacted);
+    }
+
+    @Test
+    public void customOptionParser_usedForStreamAndLazyDecoding() throws Exception {
+        HeaderOptions hdr = new HeaderOptions();
+        hdr.put(1000, new byte[]{0x01, 0x02});
+        hdr.setUriPath("/test");
+        byte[] raw = serialize(hdr);
+
+        CustomHeaderOptions fromStream = new CustomHeaderOptions();
+        fromStream.deserialize(new ByteArrayInputStream(raw), null);
+        CustomHeaderOptions lazy = new CustomHeaderOptions();
+        lazy.deserialize(ByteBuffer.wrap(raw), null, true);
+
+        assertEquals(0x0102, fromStream.getCustom());
+        assertEquals("/test", lazy.getUriPath());
+        assertEquals(0x0102, lazy.getCustom());
+    }
+
+    private static class CustomHeaderOptions extends HeaderOptions {
+        private long custom;
+
+        @Override
+        public boolean parseOption(int type, OptionValue value, Code code) {
+            if (type == 1000) {
+                custom = value.toLong();
+                return true;
+            }
+            return super.parseOption(type, value, code);
+        }
+
+        long getCustom() {
+            materialize();
+            return custom;
+        }
+    }
+
+    @Test
+    public void compact_empty() throws Exception {
+        HeaderOptions hdr = compact(new HeaderOptions());
+
+        assertEquals(0, serialize(hdr).length);
+        assertEquals(new HeaderOptions(), hdr);
+    }
+
+    @Test
+    public void mergeEncoded() throws Exception {
+        HeaderOptions hdr1 = new HeaderOptions();
+        hdr1.setObserve(1);
+        hdr1.setUriPath("/a/very-long-path-segment");
+        hdr1.put(2000, new byte[300]);
+        HeaderOptions hdr2 = new HeaderOptions();
+        hdr2.setContentFormat((short) 40);
+        hdr2.setUriQuery("p=1&q=2");
+        hdr2.put(1000, new byte[]{7});
+
+        EncodedOptions merged = EncodedOptions.merge(hdr1.toEncoded(null), hdr2.toEncoded(null), null);
+
+        HeaderOptions expected = new HeaderOptions();
+        expected.setObserve(1);
+        expected.setUriPath("/a/very-long-path-segment");
+        expected.put(2000, new byte[300]);
+        expected.setContentFormat((short) 40);
+        expected.setUriQuery("p=1&q=2");
+        expected.put(1000, new byte[]{7});
+        assertArrayEquals(serialize(expected), merged.getData());
+        HeaderOptions decoded = new HeaderOptions();
+        decoded.putEncoded(merged);
+        assertEquals(expected, decoded);
+    }
+
+    private static HeaderOptions compact(HeaderOptions hdr) {
+        HeaderOptions compacted = new HeaderOptions();
+        EncodedOptions encodedOptions = hdr.toEncoded(null);
+        if (encodedOptions != null) {
+            compacted.putEncoded(encodedOptions);
+        }
+        return compacted;
+    }
+
     private static byte[] serialize(BasicHeaderOptions hdr) throws IOException, CoapException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         hdr.serialize(baos);
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.packet;
+
+import static org.junit.Assert.*;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class ResponseTemplateTest {
+
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 5683);
+
+    @Test
+    public void shouldCreateResponseSameAsBuiltManually() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        headers.setMaxAge(120L);
+        headers.setEtag(new byte[]{1, 2});
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "dupa");
+
+        CoapPacket response = newPacket(MessageType.Acknowledgement, 321);
+        response.setToken(new byte[]{7, 8});
+        template.applyTo(response);
+
+        CoapPacket expected = newPacket(MessageType.Acknowledgement, 321);
+        expected.setCode(Code.C205_CONTENT);
+        expected.setToken(new byte[]{7, 8});
+        expected.headers().setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        expected.headers().setMaxAge(120L);
+        expected.headers().setEtag(new byte[]{1, 2});
+        expected.setPayload("dupa");
+
+        assertArrayEquals(expected.toByteArray(), response.toByteArray());
+        assertEquals(expected, response);
+    }
+
+    @Test
+    public void shouldMergeWithOptionsAlreadyInResponse() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setContentFormat(MediaTypes.CT_APPLICATION_JSON);
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "{}");
+
+        CoapPacket response = newPacket(MessageType.Confirmable, 1);
+        response.headers().setObserve(12);
+        template.applyTo(response);
+
+        CoapPacket decoded = CoapPacket.read(ADDRESS, response.toByteArray());
+        assertEquals(12, decoded.headers().getObserve().intValue());
+        assertEquals(MediaTypes.CT_APPLICATION_JSON, decoded.headers().getContentFormat().shortValue());
+        assertEquals("{}", decoded.getPayloadString());
+    }
+
+    @Test
+    public void shouldMergeEncodedOptions_withoutDecodingTemplate() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        headers.setEtag(new byte[]{1, 2, 3});
+        headers.setMaxAge(600L);
+        headers.setSize1(300);
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "abc");
+
+        CoapPacket response = newPacket(MessageType.NonConfirmable, 2);
+        response.headers().setObserve(1000);
+        response.headers().setBlock2Res(new BlockOption(1, BlockSize.S_256, true));
+        template.applyTo(response);
+
+        //kept in encoded form
+        assertSame(response.headers().toEncoded(null), response.headers().toEncoded(null));
+
+        CoapPacket expected = newPacket(MessageType.NonConfirmable, 2);
+        expected.setCode(Code.C205_CONTENT);
+        expected.headers().setObserve(1000);
+        expected.headers().setBlock2Res(new BlockOption(1, BlockSize.S_256, true));
+        expected.headers().setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        expected.headers().setEtag(new byte[]{1, 2, 3});
+        expected.headers().setMaxAge(600L);
+        expected.headers().setSize1(300);
+        expected.setPayload("abc");
+
+        assertArrayEquals(expected.toByteArray(), response.toByteArray());
+        assertEquals(expected, response);
+        assertEquals(1000, response.headers().getObserve().intValue());
+        assertEquals(600L, response.headers().getMaxAgeValue());
+    }
+
+    @Test
+    public void shouldOverrideResponseOption_withSameOptionFromTemplate() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setContentFormat(MediaTypes.CT_APPLICATION_JSON);
+        headers.setMaxAge(60L);
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "{}");
+
+        CoapPacket response = newPacket(MessageType.Confirmable, 1);
+        response.headers().setObserve(3);
+        response.headers().setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        template.applyTo(response);
+
+        CoapPacket decoded = CoapPacket.read(ADDRESS, response.toByteArray());
+        assertEquals(3, decoded.headers().getObserve().intValue());
+        assertEquals(MediaTypes.CT_APPLICATION_JSON, decoded.headers().getContentFormat().shortValue());
+        assertEquals(60L, decoded.headers().getMaxAgeValue());
+    }
+
+    @Test
+    public void shouldShareTemplateOptions_whenResponseHasNoOptions() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setContentFormat(MediaTypes.CT_TEXT_PLAIN);
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "abc");
+
+        CoapPacket response1 = newPacket(MessageType.Acknowledgement, 1);
+        template.applyTo(response1);
+        CoapPacket response2 = newPacket(MessageType.Acknowledgement, 2);
+        template.applyTo(response2);
+
+        assertSame(response1.headers().toEncoded(null), response2.headers().toEncoded(null));
+    }
+
+    @Test
+    public void shouldNotChangeTemplateWhenResponseIsModified() throws Exception {
+        HeaderOptions headers = new HeaderOptions();
+        headers.setMaxAge(30L);
+        ResponseTemplate template = new ResponseTemplate(Code.C205_CONTENT, headers, "abc");
+
+        CoapPacket response1 = newPacket(MessageType.Acknowledgement, 1);
+        template.applyTo(response1);
+        response1.headers().setMaxAge(5L);
+        response1.headers().setLocationPath("/changed");
+
+        CoapPacket response2 = newPacket(MessageType.Acknowledgement, 2);
+        template.applyTo(response2);
+
+        assertEquals(30L, response2.headers().getMaxAgeValue());
+        assertNull(response2.headers().getLocationPath());
+        assertEquals(5L, response1.headers().getMaxAgeValue());
+    }
+
+    @Test
+    public void shouldCreateTemplateWithoutOptions() throws Exception {
+        ResponseTemplate template = new ResponseTemplate(Code.C404_NOT_FOUND, null, (byte[]) null);
+
+        CoapPacket response = newPacket(MessageType.Acknowledgement, 1);
+        template.applyTo(response);
+
+        assertEquals(Code.C404_NOT_FOUND, response.getCode());
+        assertTrue(response.headers().getRawOptions().isEmpty());
+        assertEquals(Code.C404_NOT_FOUND, CoapPacket.read(ADDRESS, response.toByteArray()).getCode());
+    }
+
+    private static CoapPacket newPacket(MessageType messageType, int messageId) {
+        CoapPacket packet = new CoapPacket(ADDRESS);
+        packet.setMessageType(messageType);
+        packet.setMessageId(messageId);
+        return packet;
+    }
+}
@@ -51,6 +51,13 @@ public class CoapServerBuilderTest {
         newBuilder().duplicatedCoapMessageCallback(null);
     }
 
+    @Test
+    public void offHeapDuplicateMsgCache() throws Exception {
+        CoapServer server = newBuilder().transport(0).duplicateMsgCacheSize(100_000).offHeapDuplicateMsgCache(1024 * 1024).build();
+
+        assertNotNull(server);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldFail_whenIllegalTimeoutValue() throws Exception {
         newBuilder().delayedTimeout(-1L);
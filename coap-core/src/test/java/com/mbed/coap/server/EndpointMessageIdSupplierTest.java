@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import static org.junit.Assert.*;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class EndpointMessageIdSupplierTest {
+
+    private static final InetSocketAddress DEVICE_1 = new InetSocketAddress("10.0.0.1", 5683);
+    private static final InetSocketAddress DEVICE_2 = new InetSocketAddress("10.0.0.2", 5683);
+
+    @Test
+    public void shouldGenerateSequentialMidsPerEndpoint() throws Exception {
+        EndpointMessageIdSupplier supplier = new EndpointMessageIdSupplier();
+
+        int mid = supplier.getNextMID(DEVICE_1);
+        for (int i = 1; i < 100_000; i++) {
+            int next = supplier.getNextMID(DEVICE_1);
+            assertEquals((mid + 1) & 0xFFFF, next);
+            mid = next;
+        }
+    }
+
+    @Test
+    public void shouldNotRepeatWithin16bitSpace_whenOtherEndpointsAreBusy() throws Exception {
+        EndpointMessageIdSupplier supplier = new EndpointMessageIdSupplier(1024);
+        assertNotEquals(supplier.stripe(DEVICE_1), supplier.stripe(DEVICE_2));
+
+        Set<Integer> mids = new HashSet<>();
+        for (int i = 0; i < 0x10000; i++) {
+            assertTrue(mids.add(supplier.getNextMID(DEVICE_1)));
+            //traffic to other endpoint does not consume device's MID space
+            supplier.getNextMID(DEVICE_2);
+            supplier.getNextMID(DEVICE_2);
+        }
+    }
+
+    @Test
+    public void shouldLimitTo16bits() throws Exception {
+        EndpointMessageIdSupplier supplier = new EndpointMessageIdSupplier(1);
+        for (int i = 0; i < 0x20000; i++) {
+            int mid = supplier.getNextMID(DEVICE_1);
+            assertTrue(mid >= 0 && mid <= 0xFFFF);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFail_whenStripesNotPowerOfTwo() throws Exception {
+        new EndpointMessageIdSupplier(1000);
+    }
+}
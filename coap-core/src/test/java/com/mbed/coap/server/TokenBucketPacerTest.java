@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import com.mbed.coap.exception.OutboundQueueFullException;
+import com.mbed.coap.server.internal.CoapTransaction.Priority;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketPacerTest {
+
+    private static final InetSocketAddress DEVICE_1 = new InetSocketAddress("10.0.0.1", 5683);
+    private static final InetSocketAddress DEVICE_2 = new InetSocketAddress("10.0.0.2", 5683);
+    private long currentNanos = 1_000_000_000L;
+    private final ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class);
+    private final List<String> sent = new ArrayList<>();
+    private TokenBucketPacer pacer;
+
+    @Before
+    public void setUp() throws Exception {
+        when(scheduledExecutor.schedule(any(Runnable.class), anyLong(), any())).then(__ -> mock(ScheduledFuture.class));
+        //10 packets per second, burst 2
+        pacer = new TokenBucketPacer(10, 2, () -> currentNanos);
+        pacer.start(scheduledExecutor);
+    }
+
+    @Test
+    public void shouldSendImmediately_whenTokensAvailable() throws Exception {
+        assertTrue(send(DEVICE_1, Priority.NORMAL, false, "1").isDone());
+        assertTrue(send(DEVICE_1, Priority.NORMAL, false, "2").isDone());
+
+        assertEquals(0, pacer.getQueueSize());
+        assertEquals("[1, 2]", sent.toString());
+        verify(scheduledExecutor, never()).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    public void shouldQueueAndDrain_whenGlobalBucketIsEmpty() throws Exception {
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        CompletableFuture<Boolean> resp3 = send(DEVICE_2, Priority.NORMAL, false, "3");
+        CompletableFuture<Boolean> resp4 = send(DEVICE_2, Priority.NORMAL, false, "4");
+
+        assertFalse(resp3.isDone());
+        assertEquals(2, pacer.getQueueSize());
+        verify(scheduledExecutor).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.MILLISECONDS));
+
+        //too early for a new token
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(50);
+        pacer.drain();
+        assertEquals("[1, 2]", sent.toString());
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(50);
+        pacer.drain();
+        assertEquals("[1, 2, 3]", sent.toString());
+        assertTrue(resp3.get());
+        assertFalse(resp4.isDone());
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        pacer.drain();
+        assertEquals("[1, 2, 3, 4]", sent.toString());
+        assertEquals(0, pacer.getQueueSize());
+    }
+
+    @Test
+    public void shouldNotDelay_highPriorityAndRetransmissions() throws Exception {
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        send(DEVICE_1, Priority.NORMAL, false, "3");
+
+        assertTrue(send(DEVICE_1, Priority.HIGH, false, "high").isDone());
+        assertTrue(send(DEVICE_1, Priority.LOW, true, "retransmission").isDone());
+        assertEquals("[1, 2, high, retransmission]", sent.toString());
+
+        //tokens taken by urgent packets pre-empt queued traffic
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(200);
+        pacer.drain();
+        assertEquals("[1, 2, high, retransmission]", sent.toString());
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        pacer.drain();
+        assertEquals("[1, 2, high, retransmission, 3]", sent.toString());
+    }
+
+    @Test
+    public void shouldDrainInPriorityOrder() throws Exception {
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        send(DEVICE_1, Priority.LOW, false, "low");
+        send(DEVICE_1, Priority.NORMAL, false, "normal");
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        pacer.drain();
+        assertEquals("[1, 2, normal]", sent.toString());
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        pacer.drain();
+        assertEquals("[1, 2, normal, low]", sent.toString());
+    }
+
+    @Test
+    public void shouldLimitPerEndpoint_withoutBlockingOtherEndpoints() throws Exception {
+        pacer = new TokenBucketPacer(1000, 100, () -> currentNanos).endpointLimit(1, 1, 100);
+        pacer.start(scheduledExecutor);
+
+        send(DEVICE_1, Priority.NORMAL, false, "1a");
+        send(DEVICE_1, Priority.NORMAL, false, "1b");
+        send(DEVICE_2, Priority.NORMAL, false, "2a");
+        assertEquals("[1a]", sent.toString());
+
+        currentNanos += TimeUnit.MILLISECONDS.toNanos(10);
+        pacer.drain();
+        assertEquals("[1a, 2a]", sent.toString());
+
+        currentNanos += TimeUnit.SECONDS.toNanos(1);
+        pacer.drain();
+        assertEquals("[1a, 2a, 1b]", sent.toString());
+    }
+
+    @Test
+    public void shouldLimitPerPriority() throws Exception {
+        pacer = new TokenBucketPacer(1000, 100, () -> currentNanos).priorityLimit(Priority.LOW, 1, 1);
+        pacer.start(scheduledExecutor);
+
+        send(DEVICE_1, Priority.LOW, false, "low1");
+        send(DEVICE_1, Priority.LOW, false, "low2");
+        send(DEVICE_1, Priority.NORMAL, false, "normal");
+        assertEquals("[low1, normal]", sent.toString());
+
+        currentNanos += TimeUnit.SECONDS.toNanos(1);
+        pacer.drain();
+        assertEquals("[low1, normal, low2]", sent.toString());
+    }
+
+    @Test
+    public void shouldFail_whenQueueIsFull() throws Exception {
+        pacer.maxQueueSize(1);
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        send(DEVICE_1, Priority.NORMAL, false, "3");
+
+        assertException(send(DEVICE_1, Priority.NORMAL, false, "4"), OutboundQueueFullException.class);
+    }
+
+    @Test
+    public void shouldFailQueued_whenStopped() throws Exception {
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        CompletableFuture<Boolean> resp = send(DEVICE_1, Priority.NORMAL, false, "3");
+
+        pacer.stop();
+
+        assertException(resp, IOException.class);
+        assertEquals(0, pacer.getQueueSize());
+    }
+
+    @Test
+    public void shouldPassSendingFailure() throws Exception {
+        send(DEVICE_1, Priority.NORMAL, false, "1");
+        send(DEVICE_1, Priority.NORMAL, false, "2");
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException());
+        CompletableFuture<Boolean> resp = pacer.send(DEVICE_1, Priority.NORMAL, false, () -> failed);
+
+        currentNanos += TimeUnit.SECONDS.toNanos(1);
+        pacer.drain();
+
+        assertException(resp, IOException.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFail_whenIllegalRate() throws Exception {
+        new TokenBucketPacer(0, 1);
+    }
+
+    private CompletableFuture<Boolean> send(InetSocketAddress destination, Priority priority, boolean urgent, String name) {
+        Supplier<CompletableFuture<Boolean>> sender = () -> {
+            sent.add(name);
+            return CompletableFuture.completedFuture(true);
+        };
+        return pacer.send(destination, priority, urgent, sender);
+    }
+
+    private static void assertException(CompletableFuture<Boolean> resp, Class<? extends Exception> expected) throws InterruptedException {
+        try {
+            resp.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(expected.isInstance(e.getCause()));
+        }
+    }
+}
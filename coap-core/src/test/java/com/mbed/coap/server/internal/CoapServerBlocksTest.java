@@ -51,7 +51,8 @@ import protocolTests.utils.CoapPacketBuilder;
 public class CoapServerBlocksTest {
 
 
-    private final CoapTransport coapTransport = mock(CoapTransport.class);
+    //real default methods, sendEncodedPacket is passed to sendPacket
+    private final CoapTransport coapTransport = mock(CoapTransport.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
     private int mid = 100;
     private final MessageIdSupplier midSupplier = () -> mid++;
     private CoapServerBlocks server;
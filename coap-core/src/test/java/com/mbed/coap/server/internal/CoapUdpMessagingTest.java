@@ -54,7 +54,8 @@ import protocolTests.utils.CoapPacketBuilder;
  */
 public class CoapUdpMessagingTest {
 
-    private final CoapTransport coapTransport = mock(CoapTransport.class);
+    //real default methods, sendEncodedPacket is passed to sendPacket
+    private final CoapTransport coapTransport = mock(CoapTransport.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
     private CoapRequestHandler requestHandler = mock(CoapRequestHandler.class);
     private int mid = 100;
     private final MessageIdSupplier midSupplier = () -> mid++;
@@ -180,6 +181,27 @@ public class CoapUdpMessagingTest {
         verify(coapTransport, never()).sendPacket(any(), any(), any());
     }
 
+    @Test
+    public void shouldSkipMessageIdsUsedByTransactions() throws Exception {
+        initServer();
+        mid = 100;
+        makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/10"));
+        makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/11"));
+
+        //counter wrapped
+        mid = 100;
+        makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/12"));
+        makeRequest(newCoapPacket(LOCAL_1_5683).get().uriPath("/13"));
+
+        assertEquals(4, udpMessaging.getNumberOfTransactions());
+        verify(coapTransport).sendPacket(eq(newCoapPacket(LOCAL_5683).mid(100).get().uriPath("/10").build()), any(), any());
+        verify(coapTransport).sendPacket(eq(newCoapPacket(LOCAL_1_5683).mid(103).get().uriPath("/13").build()), any(), any());
+        receive(newCoapPacket(LOCAL_5683).mid(100).ack(Code.C205_CONTENT));
+        verify(coapTransport).sendPacket(eq(newCoapPacket(LOCAL_5683).mid(101).get().uriPath("/11").build()), any(), any());
+        receive(newCoapPacket(LOCAL_5683).mid(101).ack(Code.C205_CONTENT));
+        verify(coapTransport).sendPacket(eq(newCoapPacket(LOCAL_5683).mid(102).get().uriPath("/12").build()), any(), any());
+    }
+
     @Test
     public void duplicateRequest() throws Exception {
         udpMessaging.init(10, scheduledExecutor, false, midSupplier, 1, Priority.NORMAL, 0, DuplicatedCoapMessageCallback.NULL);
@@ -195,6 +217,23 @@ public class CoapUdpMessagingTest {
         assertSent(newCoapPacket(LOCAL_1_5683).mid(1).ack(Code.C205_CONTENT).payload("ABC0"));
     }
 
+    @Test
+    public void duplicateRequest_shouldResendSerializedResponse() throws Exception {
+        udpMessaging.init(10, scheduledExecutor, false, midSupplier, 1, Priority.NORMAL, 0, DuplicatedCoapMessageCallback.NULL);
+        udpMessaging.start(requestHandler);
+
+        CoapPacket req = newCoapPacket(LOCAL_1_5683).mid(1).con().delete().uriPath("/19").build();
+        byte[] resp = newCoapPacket(LOCAL_1_5683).mid(1).ack(Code.C205_CONTENT).payload("ABC0").build().toByteArray();
+        receive(req);
+        udpMessaging.sendResponse(req, newCoapPacket(LOCAL_1_5683).mid(1).ack(Code.C205_CONTENT).payload("ABC0").build());
+        verify(coapTransport).sendEncodedPacket(eq(resp), eq(LOCAL_1_5683), any());
+        resetCoapTransport();
+
+        //duplicate
+        receive(req);
+        verify(coapTransport).sendEncodedPacket(eq(resp), eq(LOCAL_1_5683), any());
+    }
+
     @Test
     public void duplicateRequest_noDuplicateDetector() throws Exception {
         udpMessaging.init(0, scheduledExecutor, false, midSupplier, 1, Priority.NORMAL, 0, DuplicatedCoapMessageCallback.NULL);
@@ -282,6 +321,81 @@ public class CoapUdpMessagingTest {
         assertThatThrownBy(resp::get).hasCauseExactlyInstanceOf(CoapTimeoutException.class);
     }
 
+    @Test
+    public void shouldNotRetransmitAgain_whenCompletedWhileResending() throws Exception {
+        initServer();
+        TransmissionTimeout transmissionTimeout = mock(TransmissionTimeout.class);
+        given(transmissionTimeout.getTimeout(any(), eq(1))).willReturn(1L);
+        given(transmissionTimeout.getTimeout(any(), eq(2))).willAnswer(__ -> {
+            //response is handled concurrently, just before retransmission
+            receive(newCoapPacket(LOCAL_5683).mid(100).ack(Code.C205_CONTENT).payload("ABC"));
+            return 1L;
+        });
+        udpMessaging.setTransmissionTimeout(transmissionTimeout);
+
+        CoapPacketBuilder req = newCoapPacket(LOCAL_5683).get().uriPath("/10");
+        CompletableFuture<CoapPacket> resp = makeRequest(req);
+        Thread.sleep(2);
+        udpMessaging.resendTimeouts();
+        Thread.sleep(2);
+        udpMessaging.resendTimeouts();
+
+        verify(coapTransport, times(2)).sendPacket(eq(req.build()), any(), any());
+        verify(transmissionTimeout, never()).getTimeout(any(), eq(3));
+        assertEquals("ABC", resp.get().getPayloadString());
+    }
+
+    @Test
+    public void shouldReportRttToTransmissionTimeout() throws Exception {
+        initServer();
+        TransmissionTimeout transmissionTimeout = mock(TransmissionTimeout.class);
+        given(transmissionTimeout.getTimeout(any(), anyInt())).willReturn(10000L);
+        udpMessaging.setTransmissionTimeout(transmissionTimeout);
+
+        CompletableFuture<CoapPacket> resp = makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/10"));
+        receive(newCoapPacket(LOCAL_5683).mid(100).ack(Code.C205_CONTENT).payload("ABC"));
+
+        assertEquals("ABC", resp.get().getPayloadString());
+        verify(transmissionTimeout).onAcknowledged(eq(LOCAL_5683), longThat(rtt -> rtt >= 0 && rtt < 10000), eq(1));
+    }
+
+    @Test
+    public void shouldReportRtt_fromReleaseByPacer() throws Exception {
+        initServer();
+        CompletableFuture<Boolean> pacedSend = new CompletableFuture<>();
+        udpMessaging.setOutboundPacer((destination, priority, urgent, sender) -> pacedSend.thenCompose(__ -> sender.get()));
+        TransmissionTimeout transmissionTimeout = mock(TransmissionTimeout.class);
+        given(transmissionTimeout.getTimeout(any(), anyInt())).willReturn(10000L);
+        udpMessaging.setTransmissionTimeout(transmissionTimeout);
+
+        CompletableFuture<CoapPacket> resp = makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/10"));
+        Thread.sleep(200);
+        long releaseTime = System.currentTimeMillis();
+        pacedSend.complete(true);
+        receive(newCoapPacket(LOCAL_5683).mid(100).ack(Code.C205_CONTENT).payload("ABC"));
+        long maxRtt = System.currentTimeMillis() - releaseTime;
+
+        assertEquals("ABC", resp.get().getPayloadString());
+        verify(transmissionTimeout).onAcknowledged(eq(LOCAL_5683), longThat(rtt -> rtt >= 0 && rtt <= maxRtt), eq(1));
+    }
+
+    @Test
+    public void shouldNotRetransmit_whenPacedPacketIsNotSent() throws Exception {
+        initServer();
+        CompletableFuture<Boolean> pacedSend = new CompletableFuture<>();
+        udpMessaging.setOutboundPacer((destination, priority, urgent, sender) -> urgent ? sender.get() : pacedSend.thenCompose(__ -> sender.get()));
+        udpMessaging.setTransmissionTimeout(new CoapTimeout(1, 5));
+
+        CompletableFuture<CoapPacket> resp = makeRequest(newCoapPacket(LOCAL_5683).get().uriPath("/10"));
+        Thread.sleep(5);
+        udpMessaging.resendTimeouts();
+        verify(coapTransport, never()).sendPacket(any(), any(), any());
+
+        pacedSend.complete(true);
+        verify(coapTransport).sendPacket(any(), any(), any());
+        assertFalse(resp.isDone());
+    }
+
     @Test
     public void networkFail_whenRetransmissions() throws Exception {
         udpMessaging.init(10, scheduledExecutor, false, midSupplier, 1, Priority.NORMAL, 0, DuplicatedCoapMessageCallback.NULL);
@@ -28,6 +28,8 @@ import org.junit.Test;
 
 public class DuplicationDetectorTest {
 
+    private long currentTime = 1_000_000;
+
     @Test
     public void testDuplicationAfterCleanUpTimeout() throws Exception {
         final int timeout = 300;
@@ -41,9 +43,9 @@ public class DuplicationDetectorTest {
             when(packet.getRemoteAddress()).thenReturn(InetSocketAddress.createUnresolved("testHost", 8080));
             when(packet.getMessageId()).thenReturn(9);
 
-            CoapPacket firstIsDuplicated = detector.isMessageRepeated(packet);
+            byte[] firstIsDuplicated = detector.isMessageRepeated(packet);
             Thread.sleep(timeout + cleanupInterval + 10);
-            CoapPacket secondIsDuplicated = detector.isMessageRepeated(packet);
+            byte[] secondIsDuplicated = detector.isMessageRepeated(packet);
 
             assertNull("insertion to empty duplicate check list fails", firstIsDuplicated);
             assertNull("second insertion after timeout with same id fails", secondIsDuplicated);
@@ -65,9 +67,9 @@ public class DuplicationDetectorTest {
             when(packet.getRemoteAddress()).thenReturn(InetSocketAddress.createUnresolved("testHost", 8080));
             when(packet.getMessageId()).thenReturn(9);
 
-            CoapPacket firstIsDuplicated = instance.isMessageRepeated(packet);
+            byte[] firstIsDuplicated = instance.isMessageRepeated(packet);
             Thread.sleep(cleanupInterval + 1);
-            CoapPacket secondIsDuplicated = instance.isMessageRepeated(packet);
+            byte[] secondIsDuplicated = instance.isMessageRepeated(packet);
 
             assertNull("insertion to empty duplicate check list fails", firstIsDuplicated);
             assertNotNull("second insertion within timeout with same id succeeds", secondIsDuplicated);
@@ -83,17 +85,88 @@ public class DuplicationDetectorTest {
         for (int i = 0; i < 110; i++) {
             CoapPacket req = newCoapPacket(LOCAL_5683).mid(i).con().get().build();
             assertNull(d.isMessageRepeated(req));
-            d.putResponse(req, newCoapPacket(LOCAL_5683).mid(i).ack(Code.C205_CONTENT).build());
+            d.putResponse(req, newCoapPacket(LOCAL_5683).mid(i).ack(Code.C205_CONTENT).build().toByteArray());
         }
 
 
+        //newest are kept
         int counter = 0;
-        for (int i = 0; i < 110; i++) {
+        for (int i = 109; i >= 0; i--) {
             if (d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(i).con().get().build()) != null) {
                 counter++;
+            } else {
+                assertTrue(i < 10);
             }
         }
 
         assertEquals(100, counter);
     }
+
+    @Test
+    public void shouldEvictOldestBucketFirst_whenOverSize() throws Exception {
+        DuplicationDetector d = new DuplicationDetector(TimeUnit.SECONDS, 30, 100, mock(ScheduledExecutorService.class), () -> currentTime);
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(i).con().get().build()));
+            currentTime += 100;
+        }
+        //all later than first ones
+        for (int i = 100; i < 150; i++) {
+            assertNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(i).con().get().build()));
+        }
+
+        assertTrue(d.size() <= 101);
+        assertNotNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(149).con().get().build()));
+        assertNotNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(99).con().get().build()));
+        assertNotNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(60).con().get().build()));
+        assertNull(d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(0).con().get().build()));
+    }
+
+    @Test
+    public void shouldExpireWholeBuckets() throws Exception {
+        DuplicationDetector d = new DuplicationDetector(TimeUnit.SECONDS, 30, 1000, mock(ScheduledExecutorService.class), () -> currentTime);
+        CoapPacket req1 = newCoapPacket(LOCAL_5683).mid(1).con().get().build();
+        CoapPacket req2 = newCoapPacket(LOCAL_5683).mid(2).con().get().build();
+
+        assertNull(d.isMessageRepeated(req1));
+        byte[] resp1 = newCoapPacket(LOCAL_5683).mid(1).ack(Code.C205_CONTENT).build().toByteArray();
+        d.putResponse(req1, resp1);
+        currentTime += 10_000;
+        assertNull(d.isMessageRepeated(req2));
+        assertEquals(2, d.size());
+
+        currentTime += 20_000;
+        assertSame(resp1, d.isMessageRepeated(req1));
+        assertSame(DuplicationDetector.NO_RESPONSE, d.isMessageRepeated(req2));
+
+        currentTime += 1_000;
+        d.run();
+        assertEquals(1, d.size());
+        assertNull(d.isMessageRepeated(req1));
+        assertNotNull(d.isMessageRepeated(req2));
+
+        currentTime += 10_000;
+        d.run();
+        assertEquals(1, d.size());
+        assertNull(d.isMessageRepeated(req2));
+    }
+
+    @Test
+    public void shouldReplaceExpiredEntry_beforeBucketIsDropped() throws Exception {
+        DuplicationDetector d = new DuplicationDetector(TimeUnit.SECONDS, 30, 1000, mock(ScheduledExecutorService.class), () -> currentTime);
+        CoapPacket req = newCoapPacket(LOCAL_5683).mid(1).con().get().build();
+
+        assertNull(d.isMessageRepeated(req));
+        d.putResponse(req, newCoapPacket(LOCAL_5683).mid(1).ack(Code.C205_CONTENT).build().toByteArray());
+
+        currentTime += 32_000;
+        assertNull(d.isMessageRepeated(req));
+        assertEquals(1, d.size());
+        assertSame(DuplicationDetector.NO_RESPONSE, d.isMessageRepeated(req));
+
+        //dropping old bucket does not remove new entry
+        d.run();
+        assertEquals(1, d.size());
+        assertNotNull(d.isMessageRepeated(req));
+    }
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class HashedTimingWheelTest {
+
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8);
+
+    @Test
+    public void shouldExpireAtDeadline() throws Exception {
+        wheel.expire(1000);
+        wheel.schedule("a", 1015);
+        wheel.schedule("b", 1017);
+
+        assertTrue(wheel.expire(1014).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.expire(1015));
+        assertTrue(wheel.expire(1016).isEmpty());
+        assertEquals(Collections.singletonList("b"), wheel.expire(1020));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldExpireAfterManyRounds() throws Exception {
+        wheel.expire(1000);
+        wheel.schedule("a", 1000 + 80 * 3 + 5);
+
+        for (long time = 1000; time < 1245; time += 10) {
+            assertTrue(wheel.expire(time).isEmpty());
+        }
+        assertEquals(Collections.singletonList("a"), wheel.expire(1245));
+    }
+
+    @Test
+    public void shouldExpireAllWhenNotCalledForLongTime() throws Exception {
+        wheel.expire(1000);
+        wheel.schedule("a", 1005);
+        wheel.schedule("b", 1100);
+        wheel.schedule("c", 1900);
+        wheel.schedule("d", 5000);
+
+        List<String> expired = wheel.expire(2000);
+        Collections.sort(expired);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void shouldExpireWithDeadlineInPast() throws Exception {
+        wheel.expire(1000);
+        wheel.schedule("a", 500);
+
+        assertEquals(Collections.singletonList("a"), wheel.expire(1001));
+    }
+
+    @Test
+    public void shouldNotExpireCancelled() throws Exception {
+        wheel.expire(1000);
+        HashedTimingWheel.Timeout<String> a = wheel.schedule("a", 1010);
+        wheel.schedule("b", 1010);
+        HashedTimingWheel.Timeout<String> c = wheel.schedule("c", 1010);
+
+        a.cancel();
+        c.cancel();
+        c.cancel();
+        assertEquals(1, wheel.size());
+
+        assertEquals(Collections.singletonList("b"), wheel.expire(1010));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelAfterExpiry_shouldDoNothing() throws Exception {
+        HashedTimingWheel.Timeout<String> a = wheel.schedule("a", 1010);
+        assertEquals(Collections.singletonList("a"), wheel.expire(1010));
+
+        a.cancel();
+        assertEquals(0, wheel.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWhenWheelSizeIsNotPowerOfTwo() throws Exception {
+        new HashedTimingWheel<String>(10, 100);
+    }
+}
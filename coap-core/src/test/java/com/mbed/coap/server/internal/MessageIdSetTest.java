@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class MessageIdSetTest {
+
+    @Test
+    public void shouldCountRepeatedMessageIds() {
+        MessageIdSet ids = new MessageIdSet();
+        ids.add(5);
+        ids.add(5);
+        assertEquals(1, ids.size());
+
+        ids.remove(5);
+        assertTrue(ids.contains(5));
+        ids.remove(5);
+        assertFalse(ids.contains(5));
+        assertEquals(0, ids.size());
+
+        //removing missing id is ignored
+        ids.remove(5);
+        assertEquals(0, ids.size());
+    }
+
+    @Test
+    public void shouldAddAndRemoveManyMessageIds() {
+        MessageIdSet ids = new MessageIdSet();
+        for (int mid = 0; mid <= 0xFFFF; mid++) {
+            ids.add(mid);
+        }
+        assertEquals(0x10000, ids.size());
+        for (int mid = 0; mid <= 0xFFFF; mid += 2) {
+            ids.remove(mid);
+        }
+
+        for (int mid = 0; mid <= 0xFFFF; mid++) {
+            assertEquals(mid % 2 == 1, ids.contains(mid));
+        }
+        assertEquals(0x8000, ids.size());
+    }
+
+    @Test
+    public void shouldMatchModel_withRandomOperations() {
+        MessageIdSet ids = new MessageIdSet();
+        Map<Integer, Integer> model = new HashMap<>();
+        Random rnd = new Random(1);
+
+        for (int n = 0; n < 100_000; n++) {
+            int mid = rnd.nextInt(500);
+            if (rnd.nextBoolean()) {
+                ids.add(mid);
+                model.merge(mid, 1, Integer::sum);
+            } else {
+                ids.remove(mid);
+                model.computeIfPresent(mid, (k, count) -> count > 1 ? count - 1 : null);
+            }
+            int probe = rnd.nextInt(500);
+            assertEquals(model.containsKey(probe), ids.contains(probe));
+        }
+        assertEquals(model.size(), ids.size());
+    }
+}
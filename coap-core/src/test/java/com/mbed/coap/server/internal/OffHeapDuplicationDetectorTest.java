@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.server.internal;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static protocolTests.utils.CoapPacketBuilder.*;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class OffHeapDuplicationDetectorTest {
+
+    private long currentTime = 1_000_000;
+    private final OffHeapDuplicationDetector detector = new OffHeapDuplicationDetector(TimeUnit.SECONDS, 30, 1000, 16 * 1024, mock(ScheduledExecutorService.class), () -> currentTime);
+
+    @Test
+    public void shouldDetectRepeatedRequest() throws Exception {
+        CoapPacket req = newCoapPacket(LOCAL_5683).mid(1).con().get().build();
+
+        assertNull(detector.isMessageRepeated(req));
+        assertSame(DuplicationDetector.NO_RESPONSE, detector.isMessageRepeated(req));
+
+        //different mid, port or address
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(2).con().get().build()));
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_1_5683).mid(1).con().get().build()));
+        assertNull(detector.isMessageRepeated(newCoapPacket(new InetSocketAddress("::1", 5683)).mid(1).con().get().build()));
+        assertNull(detector.isMessageRepeated(newCoapPacket(new InetSocketAddress("127.0.0.1", 5684)).mid(1).con().get().build()));
+        assertEquals(5, detector.size());
+    }
+
+    @Test
+    public void shouldReturnStoredResponse() throws Exception {
+        CoapPacket req = newCoapPacket(LOCAL_5683).mid(1).con().get().build();
+        CoapPacket resp = newCoapPacket(LOCAL_5683).mid(1).ack(Code.C205_CONTENT).token(123).payload("dupa").build();
+
+        assertNull(detector.isMessageRepeated(req));
+        detector.putResponse(req, resp.toByteArray());
+
+        assertArrayEquals(resp.toByteArray(), detector.isMessageRepeated(req));
+    }
+
+    @Test
+    public void shouldNotReturnOverwrittenResponse() throws Exception {
+        OffHeapDuplicationDetector d = new OffHeapDuplicationDetector(TimeUnit.SECONDS, 30, 1000, 16 * 64, mock(ScheduledExecutorService.class), () -> currentTime);
+        CoapPacket req = newCoapPacket(LOCAL_5683).mid(1).con().get().build();
+        d.isMessageRepeated(req);
+        d.putResponse(req, newCoapPacket(LOCAL_5683).mid(1).ack(Code.C205_CONTENT).payload("dupa").build().toByteArray());
+
+        //fill arena with newer responses for requests in same segment
+        for (int i = 2; i < 200; i++) {
+            CoapPacket req2 = newCoapPacket(LOCAL_5683).mid(i).con().get().build();
+            d.isMessageRepeated(req2);
+            d.putResponse(req2, newCoapPacket(LOCAL_5683).mid(i).ack(Code.C205_CONTENT).payload("dupa").build().toByteArray());
+        }
+
+        assertSame(DuplicationDetector.NO_RESPONSE, d.isMessageRepeated(req));
+        CoapPacket resp = CoapPacket.read(LOCAL_5683, d.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(199).con().get().build()));
+        assertEquals(Code.C205_CONTENT, resp.getCode());
+        assertEquals(199, resp.getMessageId());
+    }
+
+    @Test
+    public void shouldExpire() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(i).con().get().build()));
+        }
+        currentTime += 10_000;
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(1000).con().get().build()));
+
+        currentTime += 20_000;
+        detector.run();
+        assertEquals(1, detector.size());
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(1).con().get().build()));
+        assertNotNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(1000).con().get().build()));
+
+        //expired but not yet removed
+        currentTime += 30_000;
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(1000).con().get().build()));
+    }
+
+    @Test
+    public void shouldNotRegister_whenFull() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(i).con().get().build());
+        }
+        assertTrue(detector.size() <= 1008);
+        assertTrue(detector.size() >= 900);
+
+        //after expiration there is space again
+        currentTime += 30_000;
+        assertNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(5000).con().get().build()));
+        assertNotNull(detector.isMessageRepeated(newCoapPacket(LOCAL_5683).mid(5000).con().get().build()));
+    }
+
+    @Test
+    public void shouldKeepAllEntries_afterRemovingWithCollisions() throws Exception {
+        OffHeapDuplicationDetector.Segment segment = new OffHeapDuplicationDetector.Segment(64, 32, 0);
+        for (int i = 0; i < 32; i++) {
+            long portMid = OffHeapDuplicationDetector.portMid(LOCAL_5683, i);
+            //half load, with collisions
+            assertNull(segment.findOrAdd(0, 1, portMid, OffHeapDuplicationDetector.hash(0, 1, portMid), currentTime + (i % 2) * 1000, 1000));
+        }
+
+        assertEquals(16, segment.removeExpired(0, 64, currentTime + 1000));
+
+        for (int i = 0; i < 32; i++) {
+            long portMid = OffHeapDuplicationDetector.portMid(LOCAL_5683, i);
+            assertEquals(i % 2 == 1, segment.findOrAdd(0, 1, portMid, OffHeapDuplicationDetector.hash(0, 1, portMid), currentTime + 1000, 1000) != null);
+        }
+    }
+}
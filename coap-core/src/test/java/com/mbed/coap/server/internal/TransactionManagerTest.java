@@ -201,8 +201,7 @@ public class TransactionManagerTest {
 
         assertTrue(transMgr.addTransactionAndGetReadyToSend(ep1Trans1));
         assertEmpty(transMgr.removeAndLock(ep1Trans2.getTransactionId()));
-        CoapTransaction next = transMgr.unlockOrRemoveAndGetNext(ep1Trans2.getTransactionId()).get(); // not added
-        assertEquals(next, ep1Trans1); // return first for this endpoint
+        assertEmpty(transMgr.unlockOrRemoveAndGetNext(ep1Trans2.getTransactionId())); // not added, first one is already in flight
 
         ep1Trans1.makeActiveForTests(); // emulate sending
 
@@ -213,13 +212,12 @@ public class TransactionManagerTest {
         assertEquals(transMgr.getNumberOfTransactions(), 3);
 
         assertEmpty(transMgr.removeAndLock(ep2Trans3.getTransactionId()));
-        next = transMgr.unlockOrRemoveAndGetNext(ep2Trans3.getTransactionId()).get(); // not added
-        assertEquals(next, ep2Trans1); // return first for this endpoint
+        assertEmpty(transMgr.unlockOrRemoveAndGetNext(ep2Trans3.getTransactionId())); // not added, first one is already in flight
         assertEquals(transMgr.getNumberOfTransactions(), 3);
 
 
         assertNotEmpty(transMgr.removeAndLock(ep2Trans1.getTransactionId()));
-        next = transMgr.unlockOrRemoveAndGetNext(ep2Trans1.getTransactionId()).get();
+        CoapTransaction next = transMgr.unlockOrRemoveAndGetNext(ep2Trans1.getTransactionId()).get();
         assertNotNull(next);
         assertEquals(next, ep2Trans2);
         assertEquals(transMgr.getNumberOfTransactions(), 2);
@@ -235,6 +233,66 @@ public class TransactionManagerTest {
         assertEquals(transMgr.getNumberOfTransactions(), 0);
     }
 
+    @Test
+    public void shouldReleaseUpToNStartTransactionsPerEndpoint() throws Exception {
+        transMgr.setNStartSupplier(endpoint -> endpoint.equals(REMOTE_ADR) ? 2 : 1);
+
+        CoapTransaction trans1 = newActiveTransaction(REMOTE_ADR, 1);
+        CoapTransaction trans2 = newActiveTransaction(REMOTE_ADR, 2);
+        CoapTransaction trans3 = newActiveTransaction(REMOTE_ADR, 3);
+        CoapTransaction ep2Trans1 = newActiveTransaction(REMOTE_ADR2, 4);
+        CoapTransaction ep2Trans2 = newActiveTransaction(REMOTE_ADR2, 5);
+
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(trans1));
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(trans2));
+        assertFalse(transMgr.addTransactionAndGetReadyToSend(trans3));
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(ep2Trans1));
+        assertFalse(transMgr.addTransactionAndGetReadyToSend(ep2Trans2));
+
+        //response for second, while handling it, slot is still occupied
+        assertNotEmpty(transMgr.removeAndLock(trans2.getTransactionId()));
+        assertEquals(trans3, transMgr.unlockOrRemoveAndGetNext(trans2.getTransactionId()).get());
+
+        assertNotEmpty(transMgr.removeAndLock(trans1.getTransactionId()));
+        assertEmpty(transMgr.unlockOrRemoveAndGetNext(trans1.getTransactionId()));
+        assertEquals(3, transMgr.getNumberOfTransactions());
+    }
+
+    @Test
+    public void shouldKeepPriorityOrder_withNStart() throws Exception {
+        transMgr.setNStartSupplier(endpoint -> 2);
+
+        CoapTransaction trans1 = newActiveTransaction(REMOTE_ADR, 1);
+        CoapTransaction trans2 = newActiveTransaction(REMOTE_ADR, 2);
+        CoapTransaction low = new CoapTransaction(mock(RequestCallback.class), newCoapPacket(REMOTE_ADR).mid(3).con().get().build(),
+                mock(CoapUdpMessaging.class), TransportContext.NULL, CoapTransaction.Priority.LOW, mock(Consumer.class));
+        CoapTransaction high = new CoapTransaction(mock(RequestCallback.class), newCoapPacket(REMOTE_ADR).mid(4).con().get().build(),
+                mock(CoapUdpMessaging.class), TransportContext.NULL, CoapTransaction.Priority.HIGH, mock(Consumer.class));
+
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(trans1));
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(trans2));
+        assertFalse(transMgr.addTransactionAndGetReadyToSend(low));
+        assertFalse(transMgr.addTransactionAndGetReadyToSend(high));
+
+        assertNotEmpty(transMgr.removeAndLock(trans1.getTransactionId()));
+        assertEquals(high, transMgr.unlockOrRemoveAndGetNext(trans1.getTransactionId()).get());
+    }
+
+    @Test(expected = TooManyRequestsForEndpointException.class)
+    public void shouldLimitQueueSize_withNStart() throws Exception {
+        transMgr.setNStartSupplier(endpoint -> 3);
+        transMgr.setMaximumEndpointQueueSize(2);
+
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(newActiveTransaction(REMOTE_ADR, 1)));
+        assertTrue(transMgr.addTransactionAndGetReadyToSend(newActiveTransaction(REMOTE_ADR, 2)));
+        transMgr.addTransactionAndGetReadyToSend(newActiveTransaction(REMOTE_ADR, 3));
+    }
+
+    private static CoapTransaction newActiveTransaction(InetSocketAddress address, int mid) {
+        return new CoapTransaction(mock(RequestCallback.class), newCoapPacket(address).mid(mid).con().get().build(),
+                mock(CoapUdpMessaging.class), TransportContext.NULL, mock(Consumer.class)).makeActiveForTests();
+    }
+
     @Test(expected = TooManyRequestsForEndpointException.class)
     public void test_endpointQueueOverflow() throws Exception {
         transMgr.setMaximumEndpointQueueSize(2);
@@ -18,11 +18,12 @@ package com.mbed.coap.server.internal;
 import static com.mbed.coap.server.internal.TransactionManagerTest.*;
 import static org.junit.Assert.*;
 import static protocolTests.utils.CoapPacketBuilder.*;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
 import com.mbed.coap.server.internal.CoapTransaction.Priority;
 import com.mbed.coap.transport.InMemoryCoapTransport;
 import com.mbed.coap.utils.RequestCallback;
 import java.net.InetSocketAddress;
-import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Test;
 
 /**
@@ -33,15 +34,15 @@ public class TransactionQueueTest {
 
     @Test
     public void shouldAdd_defaultPriority() throws Exception {
-        AtomicBoolean queueOverflow = new AtomicBoolean();
+        TransactionQueue transQueue = new TransactionQueue();
 
-        TransactionQueue transQueue = TransactionQueue.of(newTransaction(12));
+        assertTrue(transQueue.add(newTransaction(12), false, 100));
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 12);
 
-        transQueue = transQueue.add(newTransaction(13), false, 100, queueOverflow);
+        assertTrue(transQueue.add(newTransaction(13), false, 100));
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 12);
 
-        transQueue = transQueue.add(newTransaction(14), false, 100, queueOverflow);
+        assertTrue(transQueue.add(newTransaction(14), false, 100));
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 12);
 
         assertEquals(transQueue.size(), 3);
@@ -49,133 +50,247 @@ public class TransactionQueueTest {
 
     @Test
     public void shouldAdd_priority() throws Exception {
-        AtomicBoolean queueOverflow = new AtomicBoolean();
+        TransactionQueue transQueue = queueOf(newTransaction(12));
 
-        TransactionQueue transQueue = TransactionQueue.of(newTransaction(12));
-
-        transQueue = transQueue.add(newTransaction(13, Priority.LOW), false, 100, queueOverflow);
+        transQueue.add(newTransaction(13, Priority.LOW), false, 100);
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 12);
 
-        transQueue = transQueue.add(newTransaction(14, Priority.HIGH), false, 100, queueOverflow);
+        transQueue.add(newTransaction(14, Priority.HIGH), false, 100);
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 14);
 
-        transQueue = transQueue.add(newTransaction(15, Priority.HIGH), false, 100, queueOverflow);
+        transQueue.add(newTransaction(15, Priority.HIGH), false, 100);
         assertEquals(transQueue.head().get().getCoapRequest().getMessageId(), 14);
     }
 
     @Test
-    public void shouldAdd_overlimit_and_force() throws Exception {
-        AtomicBoolean queueOverflow = new AtomicBoolean();
-
-        TransactionQueue transQueue = TransactionQueue
-                .of(newTransaction(1))
-                .add(newTransaction(2), false, 100, queueOverflow)
-                .add(newTransaction(3), false, 100, queueOverflow)
-                .add(newTransaction(4), false, 100, queueOverflow);
+    public void shouldKeepPriorityOrder() throws Exception {
+        TransactionQueue transQueue = queueOf(
+                newTransaction(1, Priority.LOW).makeActiveForTests(),
+                newTransaction(2, Priority.HIGH).makeActiveForTests(),
+                newTransaction(3, Priority.LOW).makeActiveForTests(),
+                newTransaction(4, Priority.NORMAL).makeActiveForTests(),
+                newTransaction(5, Priority.HIGH).makeActiveForTests()
+        );
+
+        int[] expectedOrder = {2, 5, 4, 1, 3};
+        for (int mid : expectedOrder) {
+            assertEquals(mid, transQueue.head().get().getCoapRequest().getMessageId());
+            transQueue.unlockOrRemove(newTransId(mid));
+        }
+        assertTrue(transQueue.isEmpty());
+    }
 
+    @Test
+    public void shouldRemoveFromMiddleOfWrappedQueue() throws Exception {
+        TransactionQueue transQueue = new TransactionQueue();
+        for (int i = 0; i < 6; i++) {
+            transQueue.add(newTransaction(i).makeActiveForTests(), false, 100);
+        }
+        //move start of ring buffer
+        transQueue.unlockOrRemove(newTransId(0));
+        transQueue.unlockOrRemove(newTransId(1));
+        transQueue.unlockOrRemove(newTransId(2));
+        for (int i = 6; i < 12; i++) {
+            transQueue.add(newTransaction(i).makeActiveForTests(), false, 100);
+        }
+
+        transQueue.unlockOrRemove(newTransId(4));
+        transQueue.unlockOrRemove(newTransId(10));
+        assertEquals(7, transQueue.size());
+
+        int[] expectedOrder = {3, 5, 6, 7, 8, 9, 11};
+        for (int mid : expectedOrder) {
+            assertEquals(mid, transQueue.head().get().getCoapRequest().getMessageId());
+            transQueue.unlockOrRemove(newTransId(mid));
+        }
+        assertTrue(transQueue.isEmpty());
+    }
 
+    @Test
+    public void shouldAdd_overlimit_and_force() throws Exception {
         //on edge
-        queueOverflow.set(false);
-        assertEquals(transQueue.add(newTransaction(5), false, 5, queueOverflow).size(), 5);
-        assertFalse(queueOverflow.get());
+        TransactionQueue transQueue = queueOf(newTransaction(1), newTransaction(2), newTransaction(3), newTransaction(4));
+        assertTrue(transQueue.add(newTransaction(5), false, 5));
+        assertEquals(transQueue.size(), 5);
 
         //too small - overflow
-        queueOverflow.set(false);
-        assertEquals(transQueue.add(newTransaction(5), false, 3, queueOverflow), transQueue);
-        assertTrue(queueOverflow.get());
+        transQueue = queueOf(newTransaction(1), newTransaction(2), newTransaction(3), newTransaction(4));
+        assertFalse(transQueue.add(newTransaction(5), false, 3));
+        assertEquals(transQueue.size(), 4);
 
-        queueOverflow.set(false);
-        assertEquals(transQueue.add(newTransaction(5), false, 4, queueOverflow), transQueue);
-        assertTrue(queueOverflow.get());
+        assertFalse(transQueue.add(newTransaction(5), false, 4));
+        assertEquals(transQueue.size(), 4);
 
         //too small with locked - single - overflow
-        queueOverflow.set(false);
-        TransactionQueue emptyLocked = TransactionQueue.of().lock(newTransId(1));
-        assertEquals(emptyLocked.add(newTransaction(6), false, 1, queueOverflow), emptyLocked);
-        assertTrue(queueOverflow.get());
+        TransactionQueue emptyLocked = new TransactionQueue();
+        emptyLocked.lock(newTransId(1));
+        assertFalse(emptyLocked.add(newTransaction(6), false, 1));
+        assertEquals(emptyLocked.size(), 0);
 
         //too small with locked - overflow
-        queueOverflow.set(false);
-        TransactionQueue lockedQueue = transQueue.lock(newTransId(10));
-        assertEquals(lockedQueue.add(newTransaction(6), false, 5, queueOverflow), lockedQueue);
-        assertTrue(queueOverflow.get());
+        transQueue.lock(newTransId(10));
+        assertFalse(transQueue.add(newTransaction(6), false, 5));
+        assertEquals(transQueue.size(), 4);
 
         //force
-        queueOverflow.set(false);
-        assertEquals(transQueue.add(newTransaction(5), true, 1, queueOverflow).size(), 5);
-        assertFalse(queueOverflow.get());
+        transQueue = queueOf(newTransaction(1), newTransaction(2), newTransaction(3), newTransaction(4));
+        assertTrue(transQueue.add(newTransaction(5), true, 1));
+        assertEquals(transQueue.size(), 5);
     }
 
     @Test
     public void shouldRemoveAndLock() throws Exception {
-        AtomicBoolean queueOverflow = new AtomicBoolean();
-
-        TransactionQueue transQueue = TransactionQueue
-                .of(newTransaction(1))
-                .add(newTransaction(2).makeActiveForTests(), false, 100, queueOverflow)
-                .add(newTransaction(3), false, 100, queueOverflow)
-                .add(newTransaction(4), false, 100, queueOverflow);
-
-
         //found and active
-        TransactionQueue tq = transQueue.removeAndLock(newTransId(2)).transactionQueue;
+        TransactionQueue tq = queueOf(newTransaction(1), newTransaction(2).makeActiveForTests(), newTransaction(3), newTransaction(4));
+        assertEquals(2, tq.removeAndLock(newTransId(2)).get().getCoapRequest().getMessageId());
         assertFalse(tq.notLocked());
         assertEquals(tq.size(), 3);
 
         //not found
-        tq = transQueue.removeAndLock(newTransId(123)).transactionQueue;
+        tq = queueOf(newTransaction(1), newTransaction(2).makeActiveForTests(), newTransaction(3), newTransaction(4));
+        assertEmpty(tq.removeAndLock(newTransId(123)));
         assertTrue(tq.notLocked());
         assertEquals(tq.size(), 4);
 
         //single queue - found active
-        tq = TransactionQueue.of(newTransaction(1).makeActiveForTests()).removeAndLock(newTransId(1)).transactionQueue;
+        tq = queueOf(newTransaction(1).makeActiveForTests());
+        assertTrue(tq.removeAndLock(newTransId(1)).isPresent());
         assertFalse(tq.notLocked());
         assertEquals(tq.size(), 0);
+        assertFalse(tq.isEmpty());
 
         //single queue - not found
-        tq = TransactionQueue.of(newTransaction(1)).removeAndLock(newTransId(1432)).transactionQueue;
+        tq = queueOf(newTransaction(1));
+        assertEmpty(tq.removeAndLock(newTransId(1432)));
         assertTrue(tq.notLocked());
         assertEquals(tq.size(), 1);
 
         //single queue - not found even if active
-        tq = TransactionQueue.of(newTransaction(1).makeActiveForTests()).removeAndLock(newTransId(1432)).transactionQueue;
+        tq = queueOf(newTransaction(1).makeActiveForTests());
+        assertEmpty(tq.removeAndLock(newTransId(1432)));
         assertTrue(tq.notLocked());
         assertEquals(tq.size(), 1);
 
         //not found because not active
-        tq = TransactionQueue.of(newTransaction(1)).removeAndLock(newTransId(1)).transactionQueue;
+        tq = queueOf(newTransaction(1));
+        assertEmpty(tq.removeAndLock(newTransId(1)));
         assertTrue(tq.notLocked());
         assertEquals(tq.size(), 1);
     }
 
     @Test
     public void shouldUnlock() throws Exception {
-        TransactionQueue transQueue = TransactionQueue
-                .of(newTransaction(1))
-                .lock(newTransId(2));
-
-        //matching
-        assertTrue(transQueue.unlockOrRemove(newTransId(2)).get().notLocked());
+        TransactionQueue transQueue = queueOf(newTransaction(1));
+        transQueue.lock(newTransId(2));
 
         //not matching
-        assertEquals(transQueue.unlockOrRemove(newTransId(122)).get(), transQueue);
+        transQueue.unlockOrRemove(newTransId(122));
+        assertFalse(transQueue.notLocked());
+        assertEquals(transQueue.size(), 1);
+
+        //matching
+        transQueue.unlockOrRemove(newTransId(2));
+        assertTrue(transQueue.notLocked());
 
-        //if empty, return null
-        TransactionQueue emptyLocked = TransactionQueue.of().lock(newTransId(3));
-        assertEmpty(emptyLocked.unlockOrRemove(newTransId(3)));
+        //if empty, can be dropped
+        TransactionQueue emptyLocked = new TransactionQueue();
+        emptyLocked.lock(newTransId(3));
+        emptyLocked.unlockOrRemove(newTransId(3));
+        assertTrue(emptyLocked.isEmpty());
 
         //locked but with containing transaction
-        TransactionQueue queue2 = TransactionQueue.of(newTransaction(1)).add(newTransaction(2).makeActiveForTests(), false, 10, new AtomicBoolean()).lock(newTransId(100));
-        assertEquals(queue2.unlockOrRemove(newTransId(2)).get().size(), 1);
-        assertFalse(queue2.unlockOrRemove(newTransId(2)).get().notLocked());
+        TransactionQueue queue2 = queueOf(newTransaction(1), newTransaction(2).makeActiveForTests());
+        queue2.lock(newTransId(100));
+        queue2.unlockOrRemove(newTransId(2));
+        assertEquals(queue2.size(), 1);
+        assertFalse(queue2.notLocked());
 
         //non locked but with containing transaction
-        TransactionQueue queue3 = TransactionQueue.of(newTransaction(1).makeActiveForTests()).add(newTransaction(2).makeActiveForTests(), false, 10, new AtomicBoolean());
-        assertEquals(queue3.unlockOrRemove(newTransId(1)).get().size(), 1);
-        assertEquals(queue3.unlockOrRemove(newTransId(2)).get().size(), 1);
+        TransactionQueue queue3 = queueOf(newTransaction(1).makeActiveForTests(), newTransaction(2).makeActiveForTests());
+        queue3.unlockOrRemove(newTransId(1));
+        assertEquals(queue3.size(), 1);
+        queue3.unlockOrRemove(newTransId(2));
+        assertTrue(queue3.isEmpty());
+    }
+
+    @Test
+    public void shouldFindSeparateResponse_afterTransactionWithSameTokenIsRemoved() throws Exception {
+        CoapTransaction trans1 = new CoapTransaction(RequestCallback.NULL, newCoapPacket(REMOTE_ADR).mid(1).token(33).get().build(), null, null, null).makeActiveForTests();
+        CoapTransaction trans2 = new CoapTransaction(RequestCallback.NULL, newCoapPacket(REMOTE_ADR).mid(2).token(33).get().build(), null, null, null).makeActiveForTests();
+        TransactionQueue transQueue = queueOf(trans1, trans2);
+
+        transQueue.unlockOrRemove(newTransId(1));
+
+        CoapPacket separateResponse = newCoapPacket(REMOTE_ADR).mid(500).token(33).con(Code.C205_CONTENT).build();
+        assertEquals(trans2, transQueue.findAndRemoveSeparateResponse(separateResponse).get());
+        assertEquals(0, transQueue.size());
+        assertEmpty(transQueue.findAndRemoveSeparateResponse(separateResponse));
+    }
+
+    @Test
+    public void shouldFindSeparateResponse_forNotIndexedTransactionWithSameToken() throws Exception {
+        CoapTransaction trans1 = new CoapTransaction(RequestCallback.NULL, newCoapPacket(REMOTE_ADR).mid(1).token(33).get().build(), null, null, null);
+        CoapTransaction trans2 = new CoapTransaction(RequestCallback.NULL, newCoapPacket(REMOTE_ADR).mid(2).token(33).get().build(), null, null, Priority.HIGH, null).makeActiveForTests();
+        TransactionQueue transQueue = queueOf(trans1, trans2);
+
+        CoapPacket separateResponse = newCoapPacket(REMOTE_ADR).mid(500).token(33).con(Code.C205_CONTENT).build();
+        assertEquals(trans2, transQueue.findAndRemoveSeparateResponse(separateResponse).get());
+        assertEquals(1, transQueue.size());
+        assertEmpty(transQueue.findAndRemoveSeparateResponse(separateResponse));
+    }
+
+    @Test
+    public void shouldTrackMessageIdsInUse() throws Exception {
+        TransactionQueue transQueue = queueOf(newTransaction(3).makeActiveForTests(), newTransaction(1).makeActiveForTests(), newTransaction(2));
+        assertTrue(transQueue.containsMessageId(1));
+        assertTrue(transQueue.containsMessageId(2));
+        assertTrue(transQueue.containsMessageId(3));
+        assertFalse(transQueue.containsMessageId(4));
+
+        //locked transaction still uses its message id
+        transQueue.removeAndLock(newTransId(1));
+        assertTrue(transQueue.containsMessageId(1));
+        transQueue.unlockOrRemove(newTransId(1));
+        assertFalse(transQueue.containsMessageId(1));
+
+        transQueue.unlockOrRemove(newTransId(3));
+        assertFalse(transQueue.containsMessageId(3));
+        assertTrue(transQueue.containsMessageId(2));
+
+        transQueue.lock(newTransId(7));
+        assertTrue(transQueue.containsMessageId(7));
+    }
+
+    @Test
+    public void shouldTrackManyMessageIdsInUse() throws Exception {
+        TransactionQueue transQueue = new TransactionQueue();
+        for (int mid = 0; mid < 5000; mid++) {
+            assertTrue(transQueue.add(newTransaction(mid).makeActiveForTests(), false, 10_000));
+        }
+        for (int mid = 0; mid < 5000; mid += 2) {
+            transQueue.unlockOrRemove(newTransId(mid));
+        }
+
+        assertEquals(2500, transQueue.size());
+        for (int mid = 0; mid < 5000; mid++) {
+            assertEquals(mid % 2 == 1, transQueue.containsMessageId(mid));
+        }
+        assertFalse(transQueue.containsMessageId(5000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailToLockTwice() throws Exception {
+        TransactionQueue transQueue = new TransactionQueue();
+        transQueue.lock(newTransId(1));
+        transQueue.lock(newTransId(2));
+    }
 
-        //non locked empty
-        assertEmpty(TransactionQueue.of(newTransaction(1).makeActiveForTests()).unlockOrRemove(newTransId(1)));
+    private static TransactionQueue queueOf(CoapTransaction... transactions) {
+        TransactionQueue transQueue = new TransactionQueue();
+        for (CoapTransaction trans : transactions) {
+            assertTrue(transQueue.add(trans, false, 100));
+        }
+        return transQueue;
     }
 
     private CoapTransaction newTransaction(int mid) {
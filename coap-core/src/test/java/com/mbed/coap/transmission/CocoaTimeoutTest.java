@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transmission;
+
+import static org.junit.Assert.*;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class CocoaTimeoutTest {
+
+    private static final InetSocketAddress LAN_DEVICE = new InetSocketAddress("10.0.0.1", 5683);
+    private static final InetSocketAddress NB_IOT_DEVICE = new InetSocketAddress("10.0.0.2", 5683);
+    private long currentTime = 100000;
+    private final CocoaTimeout timeout = new CocoaTimeout(4, 1000, () -> currentTime);
+
+    @Test
+    public void shouldUseDefaultForUnknownEndpoint() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(2000, 3000, timeout.getTimeout(LAN_DEVICE, 1));
+            assertBetween(4000, 6000, timeout.getTimeout(LAN_DEVICE, 2));
+            assertBetween(2000, 3000, timeout.getTimeout(1));
+        }
+        assertTrue(timeout.getTimeout(LAN_DEVICE, 6) < 0);
+        assertEquals(CoapTimeout.MULTICAST_TIMEOUT, timeout.getMulticastTimeout(1));
+    }
+
+    @Test
+    public void shouldAdaptToShortRtt() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            timeout.onAcknowledged(LAN_DEVICE, 20, 1);
+        }
+
+        long rto = timeout.getRto(LAN_DEVICE);
+        assertBetween(CocoaTimeout.MIN_RTO, 300, rto);
+        assertBetween(rto, (long) (rto * 1.5) + 1, timeout.getTimeout(LAN_DEVICE, 1));
+        //backoff factor 3 for small RTO
+        assertBetween(rto * 3, (long) (rto * 4.5) + 1, timeout.getTimeout(LAN_DEVICE, 2));
+
+        //other endpoint not affected
+        assertEquals(CocoaTimeout.DEFAULT_RTO, timeout.getRto(NB_IOT_DEVICE));
+    }
+
+    @Test
+    public void shouldAdaptToLongRtt() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            timeout.onAcknowledged(NB_IOT_DEVICE, 4000, 1);
+        }
+
+        long rto = timeout.getRto(NB_IOT_DEVICE);
+        assertBetween(4000, 6000, rto);
+        //backoff factor 1.5 for large RTO
+        assertBetween((long) (rto * 1.5), (long) (rto * 2.25) + 1, timeout.getTimeout(NB_IOT_DEVICE, 2));
+    }
+
+    @Test
+    public void weakEstimatorShouldHaveLessImpact() throws Exception {
+        timeout.onAcknowledged(LAN_DEVICE, 4000, 1);
+        long strongRto = timeout.getRto(LAN_DEVICE);
+
+        timeout.onAcknowledged(NB_IOT_DEVICE, 4000, 2);
+        long weakRto = timeout.getRto(NB_IOT_DEVICE);
+
+        assertTrue(weakRto > CocoaTimeout.DEFAULT_RTO);
+        assertTrue(weakRto < strongRto);
+    }
+
+    @Test
+    public void shouldIgnoreAmbiguousRtt() throws Exception {
+        timeout.onAcknowledged(LAN_DEVICE, 30000, 4);
+
+        assertEquals(CocoaTimeout.DEFAULT_RTO, timeout.getRto(LAN_DEVICE));
+        assertEquals(0, timeout.numberOfEndpoints());
+    }
+
+    @Test
+    public void shouldAgeTowardsDefault() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            timeout.onAcknowledged(LAN_DEVICE, 20, 1);
+            timeout.onAcknowledged(NB_IOT_DEVICE, 6000, 1);
+        }
+        assertTrue(timeout.getRto(LAN_DEVICE) < 1000);
+        assertTrue(timeout.getRto(NB_IOT_DEVICE) > 3000);
+
+        currentTime += 600_000;
+
+        assertBetween(1000, CocoaTimeout.DEFAULT_RTO, timeout.getRto(LAN_DEVICE));
+        assertBetween(CocoaTimeout.DEFAULT_RTO, 3000, timeout.getRto(NB_IOT_DEVICE));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEndpoints() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            timeout.onAcknowledged(new InetSocketAddress("10.1.0.1", 1000 + i), 100, 1);
+        }
+
+        assertTrue(timeout.numberOfEndpoints() <= 1000);
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
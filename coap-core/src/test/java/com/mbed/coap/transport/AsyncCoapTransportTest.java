@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static protocolTests.utils.CoapPacketBuilder.*;
+import com.mbed.coap.client.CoapClient;
+import com.mbed.coap.client.CoapClientBuilder;
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.exception.OutboundQueueFullException;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.server.CoapServer;
+import com.mbed.coap.server.CoapServerBuilder;
+import com.mbed.coap.transport.udp.DatagramChannelTransport;
+import com.mbed.coap.utils.ReadOnlyCoapResource;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncCoapTransportTest {
+
+    private static final InetSocketAddress LOCAL_5683 = new InetSocketAddress("localhost", 5683);
+    private final CountDownLatch writeLatch = new CountDownLatch(1);
+    private final SlowTransport slowTransport = new SlowTransport(writeLatch);
+    private final AsyncCoapTransport transport = new AsyncCoapTransport(slowTransport, 2);
+
+    @After
+    public void tearDown() throws Exception {
+        writeLatch.countDown();
+        transport.stop();
+    }
+
+    @Test
+    public void shouldNotBlockCaller() throws Exception {
+        transport.start(mock(CoapReceiver.class));
+
+        CompletableFuture<Boolean> resp = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(1).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        assertFalse(resp.isDone());
+
+        writeLatch.countDown();
+        assertTrue(resp.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldFail_whenQueueIsFull() throws Exception {
+        transport.start(mock(CoapReceiver.class));
+
+        //first one is taken by writer thread
+        transport.sendPacket(newCoapPacket(LOCAL_5683).mid(1).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        while (transport.getQueueSize() > 0) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Boolean> resp2 = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(2).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        CompletableFuture<Boolean> resp3 = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(3).con().get().build(), LOCAL_5683, TransportContext.NULL);
+
+        CompletableFuture<Boolean> resp4 = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(4).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        assertTrue(resp4.isCompletedExceptionally());
+        assertExecutionException(resp4, OutboundQueueFullException.class);
+
+        writeLatch.countDown();
+        assertTrue(resp2.get(1, TimeUnit.SECONDS));
+        assertTrue(resp3.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldFailQueuedPackets_whenStopped() throws Exception {
+        transport.start(mock(CoapReceiver.class));
+
+        transport.sendPacket(newCoapPacket(LOCAL_5683).mid(1).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        while (transport.getQueueSize() > 0) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Boolean> resp2 = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(2).con().get().build(), LOCAL_5683, TransportContext.NULL);
+
+        transport.stop();
+        assertExecutionException(resp2, IOException.class);
+    }
+
+    @Test
+    public void shouldPropagateWriteError() throws Exception {
+        transport.start(mock(CoapReceiver.class));
+        slowTransport.error = new IOException("test");
+        writeLatch.countDown();
+
+        CompletableFuture<Boolean> resp = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(1).con().get().build(), LOCAL_5683, TransportContext.NULL);
+        assertExecutionException(resp, IOException.class);
+    }
+
+    @Test
+    public void shouldFail_whenNotStarted() throws Exception {
+        CompletableFuture<Boolean> resp = transport.sendPacket(newCoapPacket(LOCAL_5683).mid(1).con().get().build(), LOCAL_5683, TransportContext.NULL);
+
+        assertExecutionException(resp, IllegalStateException.class);
+    }
+
+    @Test
+    public void clientServerTest() throws Exception {
+        CoapServer server = CoapServerBuilder.newBuilder().transport(new DatagramChannelTransport(0)).outboundQueueSize(100).build();
+        server.addRequestHandler("/test", new ReadOnlyCoapResource("dupa"));
+        server.start();
+
+        CoapClient client = CoapClientBuilder.newBuilder(server.getLocalSocketAddress().getPort()).transport(new DatagramChannelTransport(0)).build();
+        assertEquals("dupa", client.resource("/test").sync().get().getPayloadString());
+
+        client.close();
+        server.stop();
+    }
+
+    private static void assertExecutionException(CompletableFuture<Boolean> future, Class<? extends Exception> expected) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+        }
+    }
+
+    private static class SlowTransport extends BlockingCoapTransport {
+        private final CountDownLatch writeLatch;
+        private volatile IOException error;
+
+        SlowTransport(CountDownLatch writeLatch) {
+            this.writeLatch = writeLatch;
+        }
+
+        @Override
+        public void sendPacket0(CoapPacket coapPacket, InetSocketAddress adr, TransportContext tranContext) throws CoapException, IOException {
+            try {
+                writeLatch.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        @Override
+        public void start(CoapReceiver coapReceiver) throws IOException {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public InetSocketAddress getLocalSocketAddress() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import static org.junit.Assert.*;
+import com.mbed.coap.client.CoapClientBuilder;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
+import com.mbed.coap.server.CoapServer;
+import com.mbed.coap.server.CoapServerBuilder;
+import com.mbed.coap.server.internal.CoapTcpCSMStorageImpl;
+import com.mbed.coap.transport.javassl.SSLUtils;
+import com.mbed.coap.utils.ReadOnlyCoapResource;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioTcpClientTransportTest {
+
+    private static final char[] SECRET = "secret".toCharArray();
+    private final NioTcpClientTransport clientTransport = new NioTcpClientTransport(2);
+    private final CoapTcpCSMStorageImpl csmStorage = new CoapTcpCSMStorageImpl();
+    private CoapServer client;
+    private CoapServer server1;
+    private CoapServer server2;
+
+    @Before
+    public void setUp() throws Exception {
+        server1 = startServer(new NioTcpServerTransport(new InetSocketAddress("localhost", 0), 1, Runnable::run), "srv1");
+        server2 = startServer(new NioTcpServerTransport(new InetSocketAddress("localhost", 0), 1, Runnable::run), "srv2");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.stop();
+        }
+        if (server1.isRunning()) {
+            server1.stop();
+        }
+        server2.stop();
+    }
+
+    private static CoapServer startServer(NioTcpServerTransport transport, String payload) throws Exception {
+        CoapServer server = CoapServerBuilder.newBuilderForTcp().transport(transport).maxMessageSize(2000).build();
+        server.addRequestHandler("/test", new ReadOnlyCoapResource(payload));
+        return server.start();
+    }
+
+    private void startClient() throws Exception {
+        client = CoapServerBuilder.newBuilderForTcp().transport(clientTransport).setCsmStorage(csmStorage).maxMessageSize(10_000).start();
+    }
+
+    private CoapPacket get(CoapServer server) throws Exception {
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getLocalSocketAddress().getPort());
+        return CoapClientBuilder.clientFor(address, client).resource("/test").get().get();
+    }
+
+    @Test
+    public void shouldConnectToMultipleDestinations() throws Exception {
+        startClient();
+
+        assertEquals("srv1", get(server1).getPayloadString());
+        assertEquals("srv2", get(server2).getPayloadString());
+        assertEquals("srv1", get(server1).getPayloadString());
+
+        assertEquals(2, clientTransport.getConnectionCount());
+        assertNull(clientTransport.getLocalSocketAddress());
+    }
+
+    @Test
+    public void shouldStoreCapabilitiesPerConnection() throws Exception {
+        startClient();
+        InetSocketAddress address1 = new InetSocketAddress("localhost", server1.getLocalSocketAddress().getPort());
+        InetSocketAddress address2 = new InetSocketAddress("localhost", server2.getLocalSocketAddress().getPort());
+
+        assertEquals(Code.C205_CONTENT, get(server1).getCode());
+        assertEquals(2000, csmStorage.getOrDefault(address1).getMaxMessageSizeInt());
+        assertEquals(1152, csmStorage.getOrDefault(address2).getMaxMessageSizeInt());
+
+        assertEquals(Code.C205_CONTENT, get(server2).getCode());
+        assertEquals(2000, csmStorage.getOrDefault(address2).getMaxMessageSizeInt());
+
+        //capabilities are removed when connection is closed
+        server1.stop();
+        waitForConnectionCount(1);
+        for (int i = 0; i < 100 && csmStorage.getOrDefault(address1).getMaxMessageSizeInt() != 1152; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1152, csmStorage.getOrDefault(address1).getMaxMessageSizeInt());
+    }
+
+    @Test
+    public void shouldCloseIdleConnectionAndReconnect() throws Exception {
+        clientTransport.setIdleTimeout(200);
+        startClient();
+
+        assertEquals("srv1", get(server1).getPayloadString());
+        assertEquals(1, clientTransport.getConnectionCount());
+
+        waitForConnectionCount(0);
+        assertEquals("srv1", get(server1).getPayloadString());
+        assertEquals(1, clientTransport.getConnectionCount());
+    }
+
+    @Test
+    public void shouldBackoffAfterFailedConnection() throws Exception {
+        clientTransport.setReconnectDelay(10_000, 60_000);
+        startClient();
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+        InetSocketAddress address = new InetSocketAddress("localhost", closedPort);
+
+        try {
+            CoapClientBuilder.clientFor(address, client).resource("/test").get().get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertFalse(ex.getCause().getMessage().contains("next attempt"));
+        }
+
+        try {
+            CoapClientBuilder.clientFor(address, client).resource("/test").get().get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ConnectException);
+            assertTrue(ex.getCause().getMessage().contains("next attempt"));
+        }
+        assertEquals(0, clientTransport.getConnectionCount());
+    }
+
+    @Test
+    public void tlsClientServerTest() throws Exception {
+        NioTcpServerTransport tlsTransport = new NioTcpServerTransport(new InetSocketAddress("localhost", 0), 1, Runnable::run);
+        tlsTransport.setSslContext(SSLUtils.sslContext(SSLUtils.ksFrom("/test-server.jks", SECRET), SECRET), false);
+        CoapServer tlsServer = startServer(tlsTransport, "secure");
+        clientTransport.setSslContext(trustAllContext());
+        startClient();
+
+        assertEquals("secure", get(tlsServer).getPayloadString());
+        assertEquals("secure", get(tlsServer).getPayloadString());
+        assertEquals(1, clientTransport.getConnectionCount());
+
+        tlsServer.stop();
+    }
+
+    private void waitForConnectionCount(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && clientTransport.getConnectionCount() != count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, clientTransport.getConnectionCount());
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+        sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext;
+    }
+}
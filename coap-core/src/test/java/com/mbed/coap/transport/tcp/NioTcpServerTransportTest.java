@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.tcp;
+
+import static org.junit.Assert.*;
+import com.mbed.coap.client.CoapClient;
+import com.mbed.coap.client.CoapClientBuilder;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.CoapTcpPacketSerializer;
+import com.mbed.coap.packet.Code;
+import com.mbed.coap.server.CoapServer;
+import com.mbed.coap.server.CoapServerBuilder;
+import com.mbed.coap.transport.CoapReceiverForTcp;
+import com.mbed.coap.transport.TransportContext;
+import com.mbed.coap.transport.javassl.SSLSocketClientTransport;
+import com.mbed.coap.transport.javassl.SSLUtils;
+import com.mbed.coap.transport.javassl.SocketClientTransport;
+import com.mbed.coap.utils.ReadOnlyCoapResource;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import protocolTests.utils.CoapPacketBuilder;
+
+public class NioTcpServerTransportTest {
+
+    private static final char[] SECRET = "secret".toCharArray();
+    private final BlockingQueue<CoapPacket> received = new LinkedBlockingQueue<>();
+    private final BlockingQueue<InetSocketAddress> connected = new LinkedBlockingQueue<>();
+    private final BlockingQueue<InetSocketAddress> disconnected = new LinkedBlockingQueue<>();
+    private NioTcpServerTransport server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new NioTcpServerTransport(new InetSocketAddress("localhost", 0), 2, Runnable::run);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private void startServer() throws Exception {
+        server.start(new CoapReceiverForTcp() {
+            @Override
+            public void onConnected(InetSocketAddress remoteAddress) {
+                connected.add(remoteAddress);
+            }
+
+            @Override
+            public void onDisconnected(InetSocketAddress remoteAddress) {
+                disconnected.add(remoteAddress);
+            }
+
+            @Override
+            public void handle(CoapPacket packet, TransportContext transportContext) {
+                received.add(packet);
+            }
+        });
+    }
+
+    @Test
+    public void clientServerTest() throws Exception {
+        CoapServer coapServer = CoapServerBuilder.newBuilderForTcp().transport(0, 2).build();
+        coapServer.addRequestHandler("/test", new ReadOnlyCoapResource("dupa"));
+        coapServer.start();
+
+        InetSocketAddress serverAddress = new InetSocketAddress("localhost", coapServer.getLocalSocketAddress().getPort());
+        CoapClient client = CoapClientBuilder.clientFor(serverAddress,
+                CoapServerBuilder.newBuilderForTcp().transport(new SocketClientTransport(serverAddress, SocketFactory.getDefault(), true)).start());
+
+        assertNotNull(client.ping().get());
+        CoapPacket resp = client.resource("/test").sync().get();
+        assertEquals(Code.C205_CONTENT, resp.getCode());
+        assertEquals("dupa", resp.getPayloadString());
+
+        client.close();
+        coapServer.stop();
+    }
+
+    @Test
+    public void shouldReceiveFragmentedAndCoalescedFrames() throws Exception {
+        startServer();
+        byte[] frame1 = CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(1).get().uriPath("/1").build());
+        byte[] frame2 = CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(2).get().uriPath("/2").payload(new String(new char[500]).replace('\0', 'x')).build());
+
+        try (Socket socket = new Socket("localhost", server.getLocalSocketAddress().getPort())) {
+            socket.setTcpNoDelay(true);
+            OutputStream os = socket.getOutputStream();
+            assertEquals(socket.getLocalSocketAddress(), connected.poll(1, TimeUnit.SECONDS));
+
+            //two frames in one write
+            byte[] both = new byte[frame1.length + frame2.length];
+            System.arraycopy(frame1, 0, both, 0, frame1.length);
+            System.arraycopy(frame2, 0, both, frame1.length, frame2.length);
+            os.write(both);
+            os.flush();
+            assertEquals("/1", received.poll(1, TimeUnit.SECONDS).headers().getUriPath());
+            assertEquals("/2", received.poll(1, TimeUnit.SECONDS).headers().getUriPath());
+
+            //one frame split into chunks
+            for (int i = 0; i < frame2.length; i += 100) {
+                os.write(frame2, i, Math.min(100, frame2.length - i));
+                os.flush();
+                Thread.sleep(5);
+            }
+            CoapPacket packet = received.poll(1, TimeUnit.SECONDS);
+            assertEquals("/2", packet.headers().getUriPath());
+            assertEquals(500, packet.getPayload().length);
+            assertEquals(socket.getLocalSocketAddress(), packet.getRemoteAddress());
+        }
+
+        assertNotNull(disconnected.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    public void shouldSendToConnectedClient() throws Exception {
+        startServer();
+
+        try (Socket socket1 = new Socket("localhost", server.getLocalSocketAddress().getPort());
+             Socket socket2 = new Socket("localhost", server.getLocalSocketAddress().getPort())) {
+            InetSocketAddress adr1 = connected.poll(1, TimeUnit.SECONDS);
+            InetSocketAddress adr2 = connected.poll(1, TimeUnit.SECONDS);
+            assertNotNull(adr2);
+            assertEquals(2, server.getConnectionCount());
+
+            CoapPacket packet = CoapPacketBuilder.newCoapPacket().token(7).get().uriPath("/test").build();
+            server.sendPacket0(packet, (InetSocketAddress) socket2.getLocalSocketAddress(), TransportContext.NULL);
+
+            InputStream is = socket2.getInputStream();
+            CoapPacket receivedPacket = CoapTcpPacketSerializer.deserialize(null, is);
+            assertEquals("/test", receivedPacket.headers().getUriPath());
+            assertEquals(0, socket1.getInputStream().available());
+            assertNotEquals(adr1, adr2);
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void shouldFailToSend_whenNoConnection() throws Exception {
+        startServer();
+
+        server.sendPacket0(CoapPacketBuilder.newCoapPacket().get().uriPath("/test").build(), new InetSocketAddress("localhost", 1234), TransportContext.NULL);
+    }
+
+    @Test
+    public void shouldCloseConnection_whenMessageTooLarge() throws Exception {
+        server.setMaxMessageSize(100);
+        startServer();
+        byte[] frame = CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(2).get().uriPath("/2").payload(new String(new char[500]).replace('\0', 'x')).build());
+
+        try (Socket socket = new Socket("localhost", server.getLocalSocketAddress().getPort())) {
+            assertNotNull(connected.poll(1, TimeUnit.SECONDS));
+            socket.getOutputStream().write(frame);
+
+            assertEquals(socket.getLocalSocketAddress(), disconnected.poll(1, TimeUnit.SECONDS));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertTrue(received.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotChangeSettings_whenStarted() throws Exception {
+        startServer();
+
+        server.setMaxOutboundBytes(1000);
+    }
+
+    @Test
+    public void tlsClientServerTest() throws Exception {
+        AtomicInteger handshakeTasks = new AtomicInteger();
+        ExecutorService handshakeExecutor = Executors.newSingleThreadExecutor();
+        NioTcpServerTransport tlsTransport = new NioTcpServerTransport(0, 2);
+        tlsTransport.setSslContext(SSLUtils.sslContext(SSLUtils.ksFrom("/test-server.jks", SECRET), SECRET), false);
+        tlsTransport.setHandshakeExecutor(task -> {
+            handshakeTasks.incrementAndGet();
+            handshakeExecutor.execute(task);
+        });
+        CoapServer coapServer = CoapServerBuilder.newBuilderForTcp().transport(tlsTransport).build();
+        coapServer.addRequestHandler("/test", new ReadOnlyCoapResource("dupa"));
+        coapServer.start();
+
+        InetSocketAddress serverAddress = new InetSocketAddress("localhost", coapServer.getLocalSocketAddress().getPort());
+        CoapClient client = CoapClientBuilder.clientFor(serverAddress,
+                CoapServerBuilder.newBuilderForTcp().transport(new SSLSocketClientTransport(serverAddress, trustAllContext().getSocketFactory(), true)).start());
+
+        assertNotNull(client.ping().get());
+        CoapPacket resp = client.resource("/test").sync().get();
+        assertEquals(Code.C205_CONTENT, resp.getCode());
+        assertEquals("dupa", resp.getPayloadString());
+        assertTrue(handshakeTasks.get() > 0);
+
+        client.close();
+        coapServer.stop();
+        handshakeExecutor.shutdown();
+    }
+
+    @Test
+    public void shouldReportConnected_afterTlsHandshake() throws Exception {
+        server.setSslContext(SSLUtils.sslContext(SSLUtils.ksFrom("/test-server.jks", SECRET), SECRET), false);
+        startServer();
+        byte[] payload = new String(new char[40_000]).replace('\0', 'x').getBytes();
+
+        try (SSLSocket socket = (SSLSocket) trustAllContext().getSocketFactory().createSocket("localhost", server.getLocalSocketAddress().getPort())) {
+            assertNull(connected.poll(100, TimeUnit.MILLISECONDS));
+            socket.startHandshake();
+            assertEquals(socket.getLocalSocketAddress(), connected.poll(1, TimeUnit.SECONDS));
+
+            //message larger than single TLS record
+            OutputStream os = socket.getOutputStream();
+            os.write(CoapTcpPacketSerializer.serialize(CoapPacketBuilder.newCoapPacket().token(1).put().uriPath("/1").payload(payload).build()));
+            os.flush();
+            CoapPacket packet = received.poll(1, TimeUnit.SECONDS);
+            assertEquals("/1", packet.headers().getUriPath());
+            assertArrayEquals(payload, packet.getPayload());
+
+            server.sendPacket0(CoapPacketBuilder.newCoapPacket().token(2).get().uriPath("/2").payload(payload).build(), (InetSocketAddress) socket.getLocalSocketAddress(), TransportContext.NULL);
+            CoapPacket response = CoapTcpPacketSerializer.deserialize(null, socket.getInputStream());
+            assertEquals("/2", response.headers().getUriPath());
+            assertArrayEquals(payload, response.getPayload());
+        }
+
+        assertNotNull(disconnected.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    public void shouldDeliverBurstOfMessages() throws Exception {
+        server.setMaxWriteBatchSize(1000);
+        startServer();
+
+        try (Socket socket = new Socket("localhost", server.getLocalSocketAddress().getPort())) {
+            sendBurstAndVerify(socket);
+        }
+    }
+
+    @Test
+    public void shouldDeliverBurstOfMessages_withTls() throws Exception {
+        server.setSslContext(SSLUtils.sslContext(SSLUtils.ksFrom("/test-server.jks", SECRET), SECRET), false);
+        server.setMaxWriteBatchSize(1000);
+        startServer();
+
+        try (SSLSocket socket = (SSLSocket) trustAllContext().getSocketFactory().createSocket("localhost", server.getLocalSocketAddress().getPort())) {
+            socket.startHandshake();
+            sendBurstAndVerify(socket);
+        }
+    }
+
+    private void sendBurstAndVerify(Socket socket) throws Exception {
+        InetSocketAddress adr = connected.poll(1, TimeUnit.SECONDS);
+        assertEquals(socket.getLocalSocketAddress(), adr);
+
+        Thread[] senders = new Thread[4];
+        for (int t = 0; t < senders.length; t++) {
+            int sender = t;
+            senders[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    CoapPacket packet = CoapPacketBuilder.newCoapPacket().token(sender).get().uriPath("/" + i).payload(new byte[i * 10]).build();
+                    try {
+                        server.sendPacket0(packet, adr, TransportContext.NULL);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            senders[t].start();
+        }
+
+        int[] next = new int[senders.length];
+        InputStream is = socket.getInputStream();
+        for (int i = 0; i < senders.length * 100; i++) {
+            CoapPacket packet = CoapTcpPacketSerializer.deserialize(null, is);
+            int sender = packet.getToken().length == 0 ? 0 : packet.getToken()[0];
+            assertEquals("/" + next[sender], packet.headers().getUriPath());
+            assertEquals(next[sender] * 10, packet.getPayload().length);
+            next[sender]++;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+        sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.udp;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import com.mbed.coap.client.CoapClient;
+import com.mbed.coap.client.CoapClientBuilder;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
+import com.mbed.coap.server.CoapServer;
+import com.mbed.coap.server.CoapServerBuilder;
+import com.mbed.coap.transport.CoapReceiver;
+import com.mbed.coap.transport.TransportContext;
+import com.mbed.coap.utils.ReadOnlyCoapResource;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import protocolTests.utils.CoapPacketBuilder;
+
+public class DatagramChannelTransportTest {
+
+    private static final CoapPacket COAP_PACKET = CoapPacketBuilder.newCoapPacket().get().uriPath("/test").mid(1).build();
+
+    @Test
+    public void clientServerTest() throws Exception {
+        CoapServer server = CoapServerBuilder.newBuilder().transport(new DatagramChannelTransport(0)).build();
+        server.addRequestHandler("/test", new ReadOnlyCoapResource("dupa"));
+        server.start();
+
+        CoapClient client = CoapClientBuilder.newBuilder(server.getLocalSocketAddress().getPort()).transport(new DatagramChannelTransport(0)).build();
+
+        assertNotNull(client.ping().get());
+        CoapPacket resp = client.resource("/test").sync().get();
+        assertEquals(Code.C205_CONTENT, resp.getCode());
+        assertEquals("dupa", resp.getPayloadString());
+
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void initializingWithStateException() throws IOException {
+        DatagramChannelTransport trans = new DatagramChannelTransport(0);
+        try {
+            try {
+                trans.sendPacket0(COAP_PACKET, new InetSocketAddress(5683), TransportContext.NULL);
+                fail();
+            } catch (Exception e) {
+                assertTrue(e instanceof IllegalStateException);
+            }
+
+            trans.start(mock(CoapReceiver.class));
+
+            try {
+                trans.setReuseAddress(true);
+                fail();
+            } catch (Exception e) {
+                assertTrue(e instanceof IllegalStateException);
+            }
+            try {
+                trans.setSocketBufferSize(1234);
+                fail();
+            } catch (Exception e) {
+                assertTrue(e instanceof IllegalStateException);
+            }
+        } finally {
+            trans.stop();
+        }
+    }
+
+    @Test
+    public void reopenSamePort() throws IOException {
+        DatagramChannelTransport trans = new DatagramChannelTransport(0);
+        trans.start(mock(CoapReceiver.class));
+        assertTrue(trans.getChannel().isOpen());
+        int localPort = trans.getLocalSocketAddress().getPort();
+        trans.stop();
+        assertFalse(trans.getChannel().isOpen());
+
+        //bind again to same port
+        trans = new DatagramChannelTransport(localPort);
+        trans.start(mock(CoapReceiver.class));
+        assertTrue(trans.getChannel().isOpen());
+        trans.stop();
+    }
+
+    @Test
+    public void receiveManyPackets() throws Exception {
+        BlockingQueue<CoapPacket> received = new LinkedBlockingQueue<>();
+        DatagramChannelTransport server = new DatagramChannelTransport(new InetSocketAddress("localhost", 0), Runnable::run, 4);
+        server.start((packet, transportContext) -> received.add(packet));
+
+        DatagramChannelTransport client = new DatagramChannelTransport(new InetSocketAddress("localhost", 0), Runnable::run);
+        client.start(mock(CoapReceiver.class));
+
+        for (int i = 0; i < 20; i++) {
+            CoapPacket packet = CoapPacketBuilder.newCoapPacket().get().uriPath("/test").mid(i).build();
+            client.sendPacket0(packet, server.getLocalSocketAddress(), TransportContext.NULL);
+
+            CoapPacket receivedPacket = received.poll(1, TimeUnit.SECONDS);
+            assertNotNull(receivedPacket);
+            assertEquals(i, receivedPacket.getMessageId());
+            assertEquals("/test", receivedPacket.headers().getUriPath());
+            assertEquals(client.getLocalSocketAddress().getPort(), receivedPacket.getRemoteAddress().getPort());
+        }
+
+        client.stop();
+        server.stop();
+    }
+
+    @Test
+    public void sendPacket_andPassEncodedPacket() throws Exception {
+        BlockingQueue<CoapPacket> received = new LinkedBlockingQueue<>();
+        DatagramChannelTransport server = new DatagramChannelTransport(new InetSocketAddress("localhost", 0), Runnable::run);
+        server.start((packet, transportContext) -> received.add(packet));
+
+        DatagramChannelTransport client = new DatagramChannelTransport(new InetSocketAddress("localhost", 0), Runnable::run);
+        client.start(mock(CoapReceiver.class));
+
+        BlockingQueue<byte[]> encoded = new LinkedBlockingQueue<>();
+        assertTrue(client.sendPacket(COAP_PACKET, server.getLocalSocketAddress(), TransportContext.NULL, encoded::add).get());
+
+        assertArrayEquals(COAP_PACKET.toByteArray(), encoded.poll());
+        CoapPacket receivedPacket = received.poll(1, TimeUnit.SECONDS);
+        assertNotNull(receivedPacket);
+        assertEquals("/test", receivedPacket.headers().getUriPath());
+
+        client.stop();
+        server.stop();
+    }
+
+    @Test
+    public void sendingWithTrafficClass() throws Exception {
+        DatagramChannelTransport trans = new DatagramChannelTransport(new InetSocketAddress("localhost", 0), Runnable::run);
+        trans.start(mock(CoapReceiver.class));
+
+        trans.sendPacket0(COAP_PACKET, new InetSocketAddress("localhost", 5683), TrafficClassTransportContext.create(TrafficClassTransportContext.HIGH, TransportContext.NULL));
+        trans.sendPacket0(COAP_PACKET, new InetSocketAddress("localhost", 5683), null);
+
+        trans.stop();
+    }
+}
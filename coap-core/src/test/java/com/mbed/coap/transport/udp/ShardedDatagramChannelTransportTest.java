@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.transport.udp;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import static org.mockito.Mockito.*;
+import static protocolTests.utils.CoapPacketBuilder.*;
+import com.mbed.coap.client.CoapClient;
+import com.mbed.coap.client.CoapClientBuilder;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
+import com.mbed.coap.server.CoapServer;
+import com.mbed.coap.server.CoapServerBuilder;
+import com.mbed.coap.transport.CoapReceiver;
+import com.mbed.coap.transport.TransportContext;
+import com.mbed.coap.utils.ReadOnlyCoapResource;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class ShardedDatagramChannelTransportTest {
+
+    @Test
+    public void clientServerWithSingleShard() throws Exception {
+        clientServerTest(1);
+    }
+
+    @Test
+    public void clientServerWithMultipleShards() throws Exception {
+        assumeTrue(DatagramChannelTransport.isReusePortSupported());
+
+        clientServerTest(4);
+    }
+
+    private static void clientServerTest(int shards) throws Exception {
+        CoapServer server = CoapServerBuilder.newBuilder().shardedTransport(0, shards).build();
+        server.addRequestHandler("/test", new ReadOnlyCoapResource("dupa"));
+        server.start();
+
+        for (int i = 0; i < 10; i++) {
+            CoapClient client = CoapClientBuilder.newBuilder(server.getLocalSocketAddress().getPort()).transport(new DatagramChannelTransport(0)).build();
+            assertEquals("dupa", client.resource("/test").sync().get().getPayloadString());
+            client.close();
+        }
+
+        server.stop();
+    }
+
+    @Test
+    public void shouldFailToStart_whenNoReusePortSupport() throws Exception {
+        assumeFalse(DatagramChannelTransport.isReusePortSupported());
+
+        ShardedDatagramChannelTransport trans = new ShardedDatagramChannelTransport(0, 2);
+        try {
+            trans.start(mock(CoapReceiver.class));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("SO_REUSEPORT"));
+        }
+    }
+
+    @Test
+    public void pinEndpointToShard() throws Exception {
+        ShardedDatagramChannelTransport trans = new ShardedDatagramChannelTransport(0, 3);
+        InetSocketAddress adr = new InetSocketAddress("localhost", 5683);
+
+        int shard = trans.shardIndex(adr);
+        assertTrue(shard >= 0 && shard < 3);
+        assertEquals(shard, trans.shardIndex(new InetSocketAddress("localhost", 5683)));
+        assertEquals(3, trans.getShardCount());
+    }
+
+    @Test
+    public void shouldReplyFromShardThatReceivedRequest() throws Exception {
+        ShardedDatagramChannelTransport trans = new ShardedDatagramChannelTransport(0, 3);
+        for (int i = 0; i < 3; i++) {
+            trans.shards[i] = mock(DatagramChannelTransport.class);
+        }
+        InetSocketAddress peer = new InetSocketAddress("localhost", 5683);
+        int receivingShard = (trans.shardIndex(peer) + 1) % 3;
+        CoapReceiver receiver = mock(CoapReceiver.class);
+        CoapPacket request = newCoapPacket(peer).mid(1).con().get().uriPath("/test").build();
+
+        trans.shardReceiver(receiver, receivingShard).handle(request, TransportContext.NULL);
+        verify(receiver).handle(request, TransportContext.NULL);
+
+        CoapPacket reply = newCoapPacket(peer).mid(1).ack(Code.C205_CONTENT).build();
+        trans.sendPacket0(reply, peer, TransportContext.NULL);
+        for (int i = 0; i < 3; i++) {
+            verify(trans.shards[i], times(i == receivingShard ? 1 : 0)).sendPacket0(reply, peer, TransportContext.NULL);
+        }
+    }
+
+    @Test
+    public void shouldFallbackToHash_forPeerNeverHeardFrom() throws Exception {
+        ShardedDatagramChannelTransport trans = new ShardedDatagramChannelTransport(0, 3);
+        InetSocketAddress peer = new InetSocketAddress("localhost", 5683);
+        InetSocketAddress otherPeer = new InetSocketAddress("localhost", 5684);
+        int hashShard = trans.shardIndex(peer);
+
+        trans.shardReceiver(mock(CoapReceiver.class), (hashShard + 1) % 3).handle(newCoapPacket(otherPeer).mid(1).build(), TransportContext.NULL);
+
+        assertEquals(hashShard, trans.shardIndex(peer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFail_whenIllegalShardCount() throws Exception {
+        new ShardedDatagramChannelTransport(0, 0);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.utils;
+
+import static org.junit.Assert.*;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void reuseReleasedBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(2, 100, true);
+
+        ByteBuffer buf1 = pool.acquire();
+        assertTrue(buf1.isDirect());
+        assertEquals(100, buf1.capacity());
+        buf1.put((byte) 1);
+
+        pool.release(buf1);
+        assertEquals(1, pool.pooled());
+
+        ByteBuffer buf2 = pool.acquire();
+        assertSame(buf1, buf2);
+        assertEquals(0, buf2.position());
+        assertEquals(100, buf2.limit());
+        assertEquals(0, pool.pooled());
+    }
+
+    @Test
+    public void dropBuffersAbovePoolSize() {
+        ByteBufferPool pool = new ByteBufferPool(2, 100, false);
+
+        ByteBuffer buf1 = pool.acquire();
+        ByteBuffer buf2 = pool.acquire();
+        ByteBuffer buf3 = pool.acquire();
+        assertFalse(buf1.isDirect());
+
+        pool.release(buf1);
+        pool.release(buf2);
+        pool.release(buf3);
+        assertEquals(2, pool.pooled());
+    }
+
+    @Test
+    public void ignoreForeignBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(2, 100, true);
+
+        pool.release(ByteBuffer.allocate(100));
+        pool.release(ByteBuffer.allocateDirect(10));
+        pool.release(null);
+
+        assertEquals(0, pool.pooled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFail_whenIllegalPoolSize() {
+        new ByteBufferPool(0, 100, true);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mbed.coap.utils;
+
+import static org.junit.Assert.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class TokenIndexTest {
+
+    private static final InetSocketAddress ADR1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static final InetSocketAddress ADR2 = new InetSocketAddress("127.0.0.1", 5684);
+    private final TokenIndex<String> index = new TokenIndex<>();
+
+    @Test
+    public void shouldPutAndGet() throws Exception {
+        assertNull(index.put(ADR1, new byte[]{1, 2}, "a"));
+        assertNull(index.put(ADR2, new byte[]{1, 2}, "b"));
+        assertNull(index.put(ADR1, new byte[]{0, 1, 2}, "c"));
+        assertNull(index.put(null, new byte[]{1, 2}, "d"));
+
+        assertEquals("a", index.get(new InetSocketAddress("127.0.0.1", 5683), new byte[]{1, 2}));
+        assertEquals("b", index.get(ADR2, new byte[]{1, 2}));
+        assertEquals("c", index.get(ADR1, new byte[]{0, 1, 2}));
+        assertEquals("d", index.get(null, new byte[]{1, 2}));
+        assertNull(index.get(ADR1, new byte[]{1}));
+        assertNull(index.get(ADR1, new byte[0]));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void shouldReplace() throws Exception {
+        index.put(ADR1, new byte[]{1}, "a");
+
+        assertEquals("a", index.put(ADR1, new byte[]{1}, "b"));
+        assertEquals("b", index.get(ADR1, new byte[]{1}));
+
+        assertEquals("b", index.putIfAbsent(ADR1, new byte[]{1}, "c"));
+        assertEquals("b", index.get(ADR1, new byte[]{1}));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void shouldRemove() throws Exception {
+        index.put(ADR1, new byte[]{1}, "a");
+        index.put(ADR1, new byte[0], "empty");
+
+        assertFalse(index.remove(ADR1, new byte[]{1}, "b"));
+        assertTrue(index.containsKey(ADR1, new byte[]{1}));
+        assertTrue(index.remove(ADR1, new byte[]{1}, "a"));
+        assertFalse(index.containsKey(ADR1, new byte[]{1}));
+
+        assertEquals("empty", index.remove(ADR1, null));
+        assertNull(index.remove(ADR1, null));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void shouldBehaveLikeMap() throws Exception {
+        Map<String, String> expected = new HashMap<>();
+        Random rnd = new Random(1);
+
+        for (int i = 0; i < 20000; i++) {
+            byte[] token = new byte[rnd.nextInt(3)];
+            rnd.nextBytes(token);
+            InetSocketAddress adr = rnd.nextBoolean() ? ADR1 : ADR2;
+            String key = adr.getPort() + ":" + HexArray.toHex(token);
+
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), index.remove(adr, token));
+            } else {
+                assertEquals(expected.put(key, "v" + i), index.put(adr, token, "v" + i));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            String[] key = entry.getKey().split(":");
+            InetSocketAddress adr = key[0].equals("5683") ? ADR1 : ADR2;
+            assertEquals(entry.getValue(), index.get(adr, HexArray.fromHex(key.length > 1 ? key[1] : "")));
+        }
+    }
+
+    @Test
+    public void shouldRemoveAllForAddress() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            index.put(ADR1, new byte[]{(byte) i, (byte) (i >> 8)}, "a" + i);
+            index.put(ADR2, new byte[]{(byte) i, (byte) (i >> 8)}, "b" + i);
+        }
+
+        List<String> removed = index.removeAll(ADR1);
+
+        assertEquals(1000, removed.size());
+        assertTrue(removed.contains("a0"));
+        assertTrue(removed.contains("a999"));
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertNull(index.get(ADR1, new byte[]{(byte) i, (byte) (i >> 8)}));
+            assertEquals("b" + i, index.get(ADR2, new byte[]{(byte) i, (byte) (i >> 8)}));
+        }
+        assertTrue(index.removeAll(ADR1).isEmpty());
+    }
+
+    @Test
+    public void shouldRemoveAllForAddress_withManyAddressesInStripe() throws Exception {
+        TokenIndex<String> index = new TokenIndex<>(1);
+        Random rnd = new Random(1);
+        Map<String, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            InetSocketAddress adr = new InetSocketAddress("127.0.0.1", 5000 + rnd.nextInt(20));
+            byte[] token = new byte[]{(byte) rnd.nextInt(50)};
+            String key = adr.getPort() + ":" + token[0];
+            if (rnd.nextInt(4) == 0) {
+                assertEquals(expected.remove(key), index.remove(adr, token));
+            } else {
+                assertEquals(expected.put(key, "v" + i), index.put(adr, token, "v" + i));
+            }
+        }
+
+        for (int port = 5000; port < 5020; port++) {
+            String prefix = port + ":";
+            List<String> removed = index.removeAll(new InetSocketAddress("127.0.0.1", port));
+            List<String> expectedRemoved = new ArrayList<>();
+            expected.entrySet().removeIf(e -> e.getKey().startsWith(prefix) && expectedRemoved.add(e.getValue()));
+
+            assertEquals(expectedRemoved.size(), removed.size());
+            assertTrue(removed.containsAll(expectedRemoved));
+            assertEquals(expected.size(), index.size());
+        }
+    }
+
+    @Test
+    public void shouldIgnoreTooLongTokenInLookups() throws Exception {
+        assertNull(index.get(ADR1, new byte[9]));
+        assertFalse(index.containsKey(ADR1, new byte[15]));
+        assertNull(index.remove(ADR1, new byte[9]));
+        assertFalse(index.remove(ADR1, new byte[9], "a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToPutTooLongToken() throws Exception {
+        index.put(ADR1, new byte[9], "a");
+    }
+}
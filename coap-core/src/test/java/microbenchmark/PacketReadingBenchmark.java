@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2011-2017 ARM Limited. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package microbenchmark;
+
+import static protocolTests.utils.CoapPacketBuilder.*;
+import com.mbed.coap.exception.CoapException;
+import com.mbed.coap.packet.CoapPacket;
+import com.mbed.coap.packet.Code;
+import com.mbed.coap.packet.MediaTypes;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares stream based and ByteBuffer based packet decoding, for typical LWM2M GET and NOTIFY messages.
+ */
+public class PacketReadingBenchmark {
+
+    private static final int ITERATIONS = 2_000_000;
+    private byte[] getRequest;
+    private byte[] notification;
+
+    @Before
+    public void setUp() throws CoapException {
+        CoapPacket get = newCoapPacket(LOCAL_5683).mid(1234).token(0x1122334455L).con().get().uriPath("/3303/0/5700").build();
+        get.headers().setAccept(new short[]{MediaTypes.CT_APPLICATION_LWM2M_TLV});
+        getRequest = get.toByteArray();
+        notification = newCoapPacket(LOCAL_5683).mid(1235).token(0x1122334455L).non(Code.C205_CONTENT).obs(1234).etag(7)
+                .contFormat(MediaTypes.CT_APPLICATION_LWM2M_TLV).maxAge(120).payload("c8 00 14 4f 70 65 6e 20 4d 6f 62 69 6c 65 20 41 6c 6c 69 61 6e 63 65").build().toByteArray();
+
+        //warm up
+        readStream(getRequest, ITERATIONS / 10);
+        readByteBuffer(getRequest, ITERATIONS / 10);
+        readStream(notification, ITERATIONS / 10);
+        readByteBuffer(notification, ITERATIONS / 10);
+    }
+
+    @Test
+    public void get_stream() throws CoapException {
+        measure("GET stream", () -> readStream(getRequest, ITERATIONS));
+    }
+
+    @Test
+    public void get_byteBuffer() throws CoapException {
+        measure("GET byte-buffer", () -> readByteBuffer(getRequest, ITERATIONS));
+    }
+
+    @Test
+    public void notify_stream() throws CoapException {
+        measure("NOTIFY stream", () -> readStream(notification, ITERATIONS));
+    }
+
+    @Test
+    public void notify_byteBuffer() throws CoapException {
+        measure("NOTIFY byte-buffer", () -> readByteBuffer(notification, ITERATIONS));
+    }
+
+    private static void readStream(byte[] data, int iterations) throws CoapException {
+        for (int i = 0; i < iterations; i++) {
+            CoapPacket.read(LOCAL_5683, data, data.length);
+        }
+    }
+
+    private static void readByteBuffer(byte[] data, int iterations) throws CoapException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        for (int i = 0; i < iterations; i++) {
+            buffer.flip();
+            CoapPacket.read(LOCAL_5683, buffer);
+        }
+    }
+
+    private static void measure(String name, Task task) throws CoapException {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long stTime = System.nanoTime();
+        task.run();
+        long endTime = System.nanoTime();
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.println(name + ": " + ((endTime - stTime) / ITERATIONS) + " ns/op, " + (allocated / ITERATIONS) + " B/op");
+    }
+
+    private interface Task {
+        void run() throws CoapException;
+    }
+
+    //  MICRO-BENCHMARK RESULTS
+    //----------------------------------------------
+    //JVM:                  OpenJDK 1.8.0_392, x64
+    //Iterations:                       2 000 000
+    //----------------------------------------------
+    //GET stream:              486 ns/op, 1008 B/op
+    //GET byte-buffer:         474 ns/op,  976 B/op
+    //NOTIFY stream:           358 ns/op,  792 B/op
+    //NOTIFY byte-buffer:      297 ns/op,  760 B/op
+    //----------------------------------------------
+    //With lazy option decoding:
+    //GET stream:              551 ns/op, 1024 B/op
+    //GET byte-buffer:         169 ns/op,  496 B/op
+    //NOTIFY stream:           584 ns/op,  808 B/op
+    //NOTIFY byte-buffer:      232 ns/op,  712 B/op
+    //----------------------------------------------
+}